@@ -0,0 +1,261 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Archivio su disco dei noleggi conclusi. Ogni noleggio occupa un record a
+ * lunghezza fissa di 128 byte, scritto in coda al file (append-only); la
+ * lettura avviene mappando il file in memoria a blocchi, così lo storico può
+ * crescere a milioni di contratti senza occupare heap.
+ *
+ * Layout del record:
+ * - matricola (int), data inizio e data fine (epoch day, int)
+ * - km percorsi, litri mancanti, costo totale (double)
+ * - targa (16 byte), tipo veicolo (20 byte), cliente (56 byte):
+ *   1 byte di lunghezza + testo UTF-8, troncato se troppo lungo
+ *
+ * @author giordii.dev
+ */
+public class ArchivioNoleggi implements Closeable, Iterable<NoleggioArchiviato> {
+
+    public static final int DIMENSIONE_RECORD = 128;
+
+    private static final int LUNGHEZZA_TARGA = 16;
+    private static final int LUNGHEZZA_TIPO = 20;
+    private static final int LUNGHEZZA_CLIENTE = 56;
+    private static final int RECORD_PER_BLOCCO = 8192;  // 1 MB mappato alla volta
+
+    private final FileChannel canale;
+    private final ByteBuffer buffer;
+    private long numeroRecord;
+
+    /**
+     * Apre (o crea) un archivio su file. Un eventuale record incompleto in
+     * coda, lasciato da una scrittura interrotta, viene scartato.
+     *
+     * @param file percorso del file di archivio
+     * @throws IOException se il file non può essere aperto
+     */
+    public ArchivioNoleggi(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file != null");
+        }
+
+        this.canale = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.numeroRecord = canale.size() / DIMENSIONE_RECORD;
+        canale.truncate(numeroRecord * DIMENSIONE_RECORD);
+        this.buffer = ByteBuffer.allocateDirect(DIMENSIONE_RECORD * 64);
+    }
+
+    /**
+     * Accoda un noleggio concluso all'archivio
+     *
+     * @param noleggio il noleggio da archiviare
+     * @throws IOException in caso di errore di scrittura
+     */
+    public synchronized void archivia(Noleggio noleggio) throws IOException {
+        if (noleggio == null) {
+            throw new IllegalArgumentException("noleggio != null");
+        }
+        if (!noleggio.isConcluso()) {
+            throw new IllegalStateException("solo noleggi conclusi");
+        }
+
+        buffer.clear();
+        scriviRecord(noleggio);
+        scarica();
+    }
+
+    /**
+     * Accoda più noleggi conclusi con una sola serie di scritture. O entrano
+     * tutti o nessuno: se una scrittura fallisce a metà, l'archivio torna
+     * alla lunghezza che aveva prima, così chi riprova non crea doppioni.
+     *
+     * @param noleggi i noleggi da archiviare
+     * @throws IOException in caso di errore di scrittura
+     */
+    public synchronized void archiviaTutti(Iterable<Noleggio> noleggi) throws IOException {
+        if (noleggi == null) {
+            throw new IllegalArgumentException("noleggi != null");
+        }
+
+        long prima = numeroRecord;
+        try {
+            buffer.clear();
+            for (Noleggio n : noleggi) {
+                if (!n.isConcluso()) {
+                    throw new IllegalStateException("solo noleggi conclusi");
+                }
+                if (buffer.remaining() < DIMENSIONE_RECORD) {
+                    scarica();
+                    buffer.clear();
+                }
+                scriviRecord(n);
+            }
+            scarica();
+        } catch (IOException | RuntimeException e) {
+            annullaDa(prima, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Scarta i record scritti da "prima" in poi, anche quelli scritti solo
+     * in parte. Le scritture sono posizionali: anche se il file non si
+     * lascia accorciare, i prossimi record sovrascrivono quelli scartati.
+     */
+    private void annullaDa(long prima, Exception causa) {
+        numeroRecord = prima;
+        try {
+            canale.truncate(prima * DIMENSIONE_RECORD);
+        } catch (IOException e) {
+            causa.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Legge un singolo record dell'archivio
+     *
+     * @param indice posizione del record (0 = il più vecchio)
+     * @return il noleggio archiviato
+     * @throws IOException in caso di errore di lettura
+     */
+    public synchronized NoleggioArchiviato leggi(long indice) throws IOException {
+        if (indice < 0 || indice >= numeroRecord) {
+            throw new IndexOutOfBoundsException("indice " + indice + " fuori dall'archivio");
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(DIMENSIONE_RECORD);
+        long posizione = indice * DIMENSIONE_RECORD;
+        while (record.hasRemaining()) {
+            int letti = canale.read(record, posizione + record.position());
+            if (letti < 0) {
+                throw new IOException("archivio troncato");
+            }
+        }
+        record.flip();
+        return leggiRecord(record);
+    }
+
+    public synchronized long size() {
+        return numeroRecord;
+    }
+
+    /**
+     * Scorre l'archivio dal noleggio più vecchio al più recente, mappando il
+     * file un blocco alla volta. L'iteratore vede solo i record presenti al
+     * momento della sua creazione.
+     */
+    @Override
+    public Iterator<NoleggioArchiviato> iterator() {
+        final long totale = size();
+
+        return new Iterator<NoleggioArchiviato>() {
+            private long prossimo = 0;
+            private MappedByteBuffer blocco;
+            private long fineBlocco = 0;
+
+            @Override
+            public boolean hasNext() {
+                return prossimo < totale;
+            }
+
+            @Override
+            public NoleggioArchiviato next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                if (prossimo == fineBlocco) {
+                    long quanti = Math.min(RECORD_PER_BLOCCO, totale - prossimo);
+                    try {
+                        blocco = canale.map(FileChannel.MapMode.READ_ONLY,
+                                prossimo * DIMENSIONE_RECORD, quanti * DIMENSIONE_RECORD);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    fineBlocco = prossimo + quanti;
+                }
+
+                prossimo++;
+                return leggiRecord(blocco);
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        canale.force(false);
+        canale.close();
+    }
+
+    private void scriviRecord(Noleggio n) {
+        Veicolo v = n.getVeicolo();
+
+        buffer.putInt(v.getNumeroMatricola());
+        buffer.putInt((int) n.getDataInizio().toEpochDay());
+        buffer.putInt((int) n.getDataFine().toEpochDay());
+        buffer.putDouble(n.getKmPercorsi());
+        buffer.putDouble(n.getLitriMancanti());
+        buffer.putDouble(n.calcolaCostoTotale());
+        scriviTesto(v.getTarga(), LUNGHEZZA_TARGA);
+        scriviTesto(v.getClass().getSimpleName(), LUNGHEZZA_TIPO);
+        scriviTesto(n.getNomeCliente(), LUNGHEZZA_CLIENTE);
+    }
+
+    private void scarica() throws IOException {
+        buffer.flip();
+        int record = buffer.remaining() / DIMENSIONE_RECORD;
+        long posizione = numeroRecord * DIMENSIONE_RECORD;
+        while (buffer.hasRemaining()) {
+            posizione += canale.write(buffer, posizione);
+        }
+        numeroRecord += record;
+    }
+
+    private void scriviTesto(String testo, int lunghezzaCampo) {
+        byte[] byteTesto = testo.getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(byteTesto.length, lunghezzaCampo - 1);
+        while (n > 0 && n < byteTesto.length && (byteTesto[n] & 0xC0) == 0x80) {
+            n--;  // non spezzo un carattere UTF-8 a metà
+        }
+
+        buffer.put((byte) n);
+        buffer.put(byteTesto, 0, n);
+        for (int i = n + 1; i < lunghezzaCampo; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static NoleggioArchiviato leggiRecord(ByteBuffer in) {
+        int matricola = in.getInt();
+        LocalDate inizio = LocalDate.ofEpochDay(in.getInt());
+        LocalDate fine = LocalDate.ofEpochDay(in.getInt());
+        double km = in.getDouble();
+        double litri = in.getDouble();
+        double costo = in.getDouble();
+        String targa = leggiTesto(in, LUNGHEZZA_TARGA);
+        String tipo = leggiTesto(in, LUNGHEZZA_TIPO);
+        String cliente = leggiTesto(in, LUNGHEZZA_CLIENTE);
+
+        return new NoleggioArchiviato(matricola, targa, tipo, cliente, inizio, fine, km, litri, costo);
+    }
+
+    private static String leggiTesto(ByteBuffer in, int lunghezzaCampo) {
+        int n = in.get() & 0xFF;
+        byte[] byteTesto = new byte[n];
+        in.get(byteTesto);
+        in.position(in.position() + lunghezzaCampo - 1 - n);
+        return new String(byteTesto, StandardCharsets.UTF_8);
+    }
+}
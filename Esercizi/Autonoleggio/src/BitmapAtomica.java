@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bitmap thread-safe: come BitSet, ma ogni bit si imposta e si azzera con
+ * un compare-and-set sulla parola da 64 bit che lo contiene, così thread
+ * diversi possono modificare bit vicini senza lock.
+ * L'ingrandimento (assicuraCapacita) invece non è concorrente: chi lo chiama
+ * deve garantire che nessun altro thread stia usando la bitmap.
+ *
+ * @author giordii.dev
+ */
+public class BitmapAtomica {
+
+    private volatile AtomicLongArray parole;
+
+    public BitmapAtomica() {
+        this.parole = new AtomicLongArray(1);
+    }
+
+    /**
+     * Ingrandisce la bitmap per contenere almeno numeroBit bit
+     *
+     * @param numeroBit numero minimo di bit
+     */
+    public void assicuraCapacita(int numeroBit) {
+        int servono = (numeroBit + 63) >>> 6;
+        AtomicLongArray vecchie = parole;
+        if (servono <= vecchie.length()) {
+            return;
+        }
+
+        AtomicLongArray nuove = new AtomicLongArray(Math.max(servono, vecchie.length() * 2));
+        for (int i = 0; i < vecchie.length(); i++) {
+            nuove.set(i, vecchie.get(i));
+        }
+        parole = nuove;
+    }
+
+    /**
+     * Imposta il bit solo se era a 0
+     *
+     * @param i indice del bit
+     * @return true se il bit è stato impostato, false se era già a 1
+     */
+    public boolean impostaSeLibero(int i) {
+        AtomicLongArray p = parole;
+        int parola = i >>> 6;
+        long maschera = 1L << i;
+
+        while (true) {
+            long vecchio = p.get(parola);
+            if ((vecchio & maschera) != 0) {
+                return false;  // qualcun altro è arrivato prima
+            }
+            if (p.compareAndSet(parola, vecchio, vecchio | maschera)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Azzera il bit
+     *
+     * @param i indice del bit
+     */
+    public void azzera(int i) {
+        AtomicLongArray p = parole;
+        int parola = i >>> 6;
+        long maschera = 1L << i;
+
+        while (true) {
+            long vecchio = p.get(parola);
+            if ((vecchio & maschera) == 0 || p.compareAndSet(parola, vecchio, vecchio & ~maschera)) {
+                return;
+            }
+        }
+    }
+
+    public boolean get(int i) {
+        AtomicLongArray p = parole;
+        int parola = i >>> 6;
+        return parola < p.length() && (p.get(parola) & (1L << i)) != 0;
+    }
+
+    /**
+     * Primo bit a 0 a partire da un indice, come BitSet.nextClearBit
+     *
+     * @param da indice di partenza
+     * @return indice del primo bit a 0
+     */
+    public int prossimoLibero(int da) {
+        AtomicLongArray p = parole;
+        int parola = da >>> 6;
+        if (parola >= p.length()) {
+            return da;
+        }
+
+        long libere = ~p.get(parola) & (-1L << da);
+        while (libere == 0) {
+            parola++;
+            if (parola == p.length()) {
+                return parola << 6;
+            }
+            libere = ~p.get(parola);
+        }
+        return (parola << 6) + Long.numberOfTrailingZeros(libere);
+    }
+
+    /**
+     * @return numero di bit a 1
+     */
+    public int cardinalita() {
+        AtomicLongArray p = parole;
+        int totale = 0;
+        for (int i = 0; i < p.length(); i++) {
+            totale += Long.bitCount(p.get(i));
+        }
+        return totale;
+    }
+}
@@ -0,0 +1,127 @@
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Calendario delle prenotazioni di un singolo veicolo. Le prenotazioni non si
+ * sovrappongono mai, quindi basta tenerle ordinate per giorno di inizio:
+ * per sapere se un periodo è libero si guarda solo l'ultima prenotazione che
+ * inizia entro la fine del periodo, in O(log n).
+ *
+ * @author giordii.dev
+ */
+public class CalendarioPrenotazioni {
+
+    private final TreeMap<Long, Prenotazione> perInizio;  // chiave = epoch day di inizio
+
+    public CalendarioPrenotazioni() {
+        this.perInizio = new TreeMap<>();
+    }
+
+    /**
+     * Verifica se il veicolo è libero in un periodo
+     *
+     * @param dal primo giorno del periodo
+     * @param al ultimo giorno del periodo (compreso)
+     * @return true se nessuna prenotazione tocca il periodo
+     */
+    public boolean isLibero(LocalDate dal, LocalDate al) {
+        return cercaSovrapposta(dal, al) == null;
+    }
+
+    /**
+     * Cerca una prenotazione che si sovrappone a un periodo
+     *
+     * @param dal primo giorno del periodo
+     * @param al ultimo giorno del periodo (compreso)
+     * @return la prenotazione in conflitto o null se il periodo è libero
+     */
+    public Prenotazione cercaSovrapposta(LocalDate dal, LocalDate al) {
+        if (dal == null || al == null) {
+            throw new IllegalArgumentException("date != null");
+        }
+        if (al.isBefore(dal)) {
+            throw new IllegalArgumentException("al >= dal");
+        }
+
+        // le altre che iniziano entro "al" finiscono prima di questa, quindi prima di "dal"
+        Map.Entry<Long, Prenotazione> precedente = perInizio.floorEntry(al.toEpochDay());
+        if (precedente != null && precedente.getValue().siSovrappone(dal, al)) {
+            return precedente.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Aggiunge una prenotazione al calendario
+     *
+     * @param prenotazione la prenotazione da aggiungere
+     */
+    public void aggiungi(Prenotazione prenotazione) {
+        if (prenotazione == null) {
+            throw new IllegalArgumentException("prenotazione != null");
+        }
+
+        Prenotazione conflitto = cercaSovrapposta(prenotazione.getDataInizio(), prenotazione.getDataFine());
+        if (conflitto != null) {
+            throw new IllegalStateException("periodo gia prenotato: " + conflitto);
+        }
+
+        perInizio.put(prenotazione.getDataInizio().toEpochDay(), prenotazione);
+    }
+
+    /**
+     * Rimuove una prenotazione dal calendario
+     *
+     * @param prenotazione la prenotazione da rimuovere
+     * @return true se era presente
+     */
+    public boolean rimuovi(Prenotazione prenotazione) {
+        if (prenotazione == null) {
+            return false;
+        }
+        return perInizio.remove(prenotazione.getDataInizio().toEpochDay(), prenotazione);
+    }
+
+    /**
+     * Verifica se una prenotazione è nel calendario, cercandola per giorno
+     * di inizio in O(log n)
+     *
+     * @param prenotazione la prenotazione da cercare
+     * @return true se è presente
+     */
+    public boolean contiene(Prenotazione prenotazione) {
+        if (prenotazione == null) {
+            return false;
+        }
+        return perInizio.get(prenotazione.getDataInizio().toEpochDay()) == prenotazione;
+    }
+
+    /**
+     * Elimina le prenotazioni finite prima di una certa data
+     *
+     * @param data le prenotazioni con fine precedente a questa data vengono eliminate
+     */
+    public void eliminaPrimaDi(LocalDate data) {
+        while (!perInizio.isEmpty() && perInizio.firstEntry().getValue().getDataFine().isBefore(data)) {
+            perInizio.pollFirstEntry();
+        }
+    }
+
+    /**
+     * @return le prenotazioni in ordine di data, in sola lettura
+     */
+    public Collection<Prenotazione> getPrenotazioni() {
+        return Collections.unmodifiableCollection(perInizio.values());
+    }
+
+    public int size() {
+        return perInizio.size();
+    }
+
+    public boolean isEmpty() {
+        return perInizio.isEmpty();
+    }
+}
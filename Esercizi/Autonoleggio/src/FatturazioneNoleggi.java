@@ -0,0 +1,117 @@
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Motore di fatturazione a blocchi per i noleggi conclusi (es. a fine mese).
+ * Divide i noleggi tra tutti i core con fork/join; ogni blocco produce un
+ * RiepilogoFatturazione parziale e i parziali vengono poi uniti.
+ *
+ * @author giordii.dev
+ */
+public class FatturazioneNoleggi {
+
+    private static final int SOGLIA_MINIMA = 4096;  // sotto questa soglia non conviene dividere
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Costruttore che usa il pool comune di fork/join
+     */
+    public FatturazioneNoleggi() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Costruttore della classe FatturazioneNoleggi
+     *
+     * @param pool pool di thread su cui eseguire il calcolo
+     */
+    public FatturazioneNoleggi(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool != null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Fattura i noleggi in parallelo
+     *
+     * @param noleggi noleggi conclusi da fatturare
+     * @return il riepilogo della fatturazione
+     */
+    public RiepilogoFatturazione fattura(Collection<Noleggio> noleggi) {
+        Noleggio[] array = comeArray(noleggi);
+        // circa 4 blocchi per thread: abbastanza per bilanciare, pochi da unire
+        int soglia = Math.max(SOGLIA_MINIMA, array.length / (pool.getParallelism() * 4));
+        return pool.invoke(new Blocco(array, 0, array.length, soglia));
+    }
+
+    /**
+     * Fattura i noleggi uno alla volta sul thread corrente. Dà lo stesso
+     * risultato di fattura(), serve come riferimento.
+     *
+     * @param noleggi noleggi conclusi da fatturare
+     * @return il riepilogo della fatturazione
+     */
+    public RiepilogoFatturazione fatturaSequenziale(Collection<Noleggio> noleggi) {
+        Noleggio[] array = comeArray(noleggi);
+        return fatturaIntervallo(array, 0, array.length);
+    }
+
+    private static Noleggio[] comeArray(Collection<Noleggio> noleggi) {
+        if (noleggi == null) {
+            throw new IllegalArgumentException("noleggi != null");
+        }
+
+        Noleggio[] array = noleggi.toArray(new Noleggio[0]);
+        for (Noleggio n : array) {
+            if (n == null || !n.isConcluso()) {
+                throw new IllegalStateException("si fatturano solo noleggi conclusi");
+            }
+        }
+        return array;
+    }
+
+    private static RiepilogoFatturazione fatturaIntervallo(Noleggio[] noleggi, int da, int a) {
+        RiepilogoFatturazione parziale = new RiepilogoFatturazione();
+        for (int i = da; i < a; i++) {
+            Noleggio n = noleggi[i];
+            long centesimi = RiepilogoFatturazione.inCentesimi(n.calcolaCostoTotale());
+            parziale.aggiungi(n.getVeicolo().getClass().getSimpleName(), n.getNomeCliente(), centesimi);
+        }
+        return parziale;
+    }
+
+    private static class Blocco extends RecursiveTask<RiepilogoFatturazione> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Noleggio[] noleggi;
+        private final int da;
+        private final int a;
+        private final int soglia;
+
+        Blocco(Noleggio[] noleggi, int da, int a, int soglia) {
+            this.noleggi = noleggi;
+            this.da = da;
+            this.a = a;
+            this.soglia = soglia;
+        }
+
+        @Override
+        protected RiepilogoFatturazione compute() {
+            if (a - da <= soglia) {
+                return fatturaIntervallo(noleggi, da, a);
+            }
+
+            int meta = (da + a) >>> 1;
+            Blocco sinistra = new Blocco(noleggi, da, meta, soglia);
+            sinistra.fork();
+            RiepilogoFatturazione destra = new Blocco(noleggi, meta, a, soglia).compute();
+            RiepilogoFatturazione risultato = sinistra.join();
+            risultato.unisci(destra);
+            return risultato;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Archivio dei veicoli della flotta con indici per matricola e per targa.
+ * Ogni veicolo occupa uno "slot" numerico stabile finché resta in flotta:
+ * le ricerche per matricola e per targa, l'inserimento e la rimozione
+ * costano O(1) invece di una scansione dell'intera lista.
+ * I veicoli sono anche raggruppati per tipo (classe e sue superclassi), così
+ * l'elenco delle autovetture o dei furgoni costa O(k) e non O(n).
+ *
+ * @author giordii.dev
+ */
+public class FlottaIndicizzata implements Iterable<Veicolo> {
+
+    private static final int NESSUNO = -1;
+
+    private final ArrayList<Veicolo> slot;
+    private final MappaInteri perMatricola;
+    private final HashMap<String, Integer> perTarga;
+    private final ConcurrentHashMap<Class<?>, LinkedHashSet<Veicolo>> perTipo;  // gruppi creati solo da aggiungi
+    private int[] slotLiberi;
+    private int numSlotLiberi;
+
+    /**
+     * Costruttore della classe FlottaIndicizzata
+     *
+     * @param capacitaIniziale numero di veicoli previsti
+     */
+    public FlottaIndicizzata(int capacitaIniziale) {
+        if (capacitaIniziale < 0) {
+            throw new IllegalArgumentException("capacita >= 0");
+        }
+
+        this.slot = new ArrayList<>(capacitaIniziale);
+        this.perMatricola = new MappaInteri(capacitaIniziale);
+        this.perTarga = new HashMap<>(Math.max(16, capacitaIniziale * 4 / 3 + 1));
+        this.perTipo = new ConcurrentHashMap<>();
+        this.slotLiberi = new int[8];
+        this.numSlotLiberi = 0;
+    }
+
+    public FlottaIndicizzata() {
+        this(16);
+    }
+
+    /**
+     * Aggiunge un veicolo alla flotta
+     *
+     * @param veicolo il veicolo da aggiungere
+     * @return lo slot assegnato al veicolo
+     */
+    public int aggiungi(Veicolo veicolo) {
+        if (veicolo == null) {
+            throw new IllegalArgumentException("veicolo != null");
+        }
+
+        String chiaveTarga = normalizzaTarga(veicolo.getTarga());
+        if (perTarga.containsKey(chiaveTarga)) {
+            throw new IllegalArgumentException("targa " + veicolo.getTarga() + " gia presente");
+        }
+        if (perMatricola.contiene(veicolo.getNumeroMatricola())) {
+            throw new IllegalArgumentException("matricola " + veicolo.getNumeroMatricola() + " gia presente");
+        }
+
+        int s;
+        if (numSlotLiberi > 0) {
+            s = slotLiberi[--numSlotLiberi];  // riuso un buco lasciato da una rimozione
+            slot.set(s, veicolo);
+        } else {
+            s = slot.size();
+            slot.add(veicolo);
+        }
+
+        perMatricola.put(veicolo.getNumeroMatricola(), s);
+        perTarga.put(chiaveTarga, s);
+        for (Class<?> c = veicolo.getClass(); c != Object.class; c = c.getSuperclass()) {
+            perTipo.computeIfAbsent(c, k -> new LinkedHashSet<>()).add(veicolo);
+        }
+        return s;
+    }
+
+    /**
+     * Rimuove un veicolo dalla flotta
+     *
+     * @param numeroMatricola numero di matricola del veicolo
+     * @return il veicolo rimosso o null se non presente
+     */
+    public Veicolo rimuovi(int numeroMatricola) {
+        int s = slotDi(numeroMatricola);
+        if (s == NESSUNO) {
+            return null;
+        }
+
+        Veicolo veicolo = slot.get(s);
+        perMatricola.rimuovi(numeroMatricola);
+        perTarga.remove(normalizzaTarga(veicolo.getTarga()));
+        for (Class<?> c = veicolo.getClass(); c != Object.class; c = c.getSuperclass()) {
+            perTipo.get(c).remove(veicolo);
+        }
+        slot.set(s, null);
+
+        if (numSlotLiberi == slotLiberi.length) {
+            slotLiberi = Arrays.copyOf(slotLiberi, slotLiberi.length * 2);
+        }
+        slotLiberi[numSlotLiberi++] = s;
+
+        return veicolo;
+    }
+
+    /**
+     * Cerca un veicolo per numero di matricola
+     *
+     * @param numeroMatricola numero identificativo del veicolo
+     * @return il veicolo trovato o null se non presente
+     */
+    public Veicolo cercaPerMatricola(int numeroMatricola) {
+        int s = slotDi(numeroMatricola);
+        return s == NESSUNO ? null : slot.get(s);
+    }
+
+    /**
+     * Cerca un veicolo per targa, senza distinzione tra maiuscole e minuscole
+     *
+     * @param targa targa del veicolo
+     * @return il veicolo trovato o null se non presente
+     */
+    public Veicolo cercaPerTarga(String targa) {
+        if (targa == null) {
+            return null;
+        }
+
+        Integer s = perTarga.get(normalizzaTarga(targa));
+        return s == null ? null : slot.get(s);
+    }
+
+    /**
+     * Restituisce una vista in sola lettura, sempre aggiornata, dei veicoli di
+     * un certo tipo (sottoclassi comprese, come con instanceof). Leggere la
+     * vista non modifica la flotta: il gruppo del tipo viene cercato a ogni
+     * accesso, quindi la vista resta valida anche se il primo veicolo di
+     * quel tipo arriva dopo.
+     *
+     * @param tipo classe dei veicoli cercati, es. Furgone.class
+     * @return i veicoli di quel tipo, in ordine di inserimento
+     */
+    public <T extends Veicolo> Collection<T> vistaPerTipo(Class<T> tipo) {
+        if (tipo == null) {
+            throw new IllegalArgumentException("tipo != null");
+        }
+
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return Collections.unmodifiableCollection(gruppo(tipo)).iterator();
+            }
+
+            @Override
+            public int size() {
+                return gruppo(tipo).size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return gruppo(tipo).contains(o);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Veicolo> Collection<T> gruppo(Class<T> tipo) {
+        LinkedHashSet<Veicolo> veicoli = perTipo.get(tipo);
+        if (veicoli == null) {
+            return Collections.emptySet();
+        }
+        // ogni insieme contiene solo istanze di "tipo", il cast è sicuro
+        return (Collection<T>) (Collection<?>) veicoli;
+    }
+
+    /**
+     * Restituisce lo slot occupato da un veicolo
+     *
+     * @param numeroMatricola numero di matricola del veicolo
+     * @return lo slot o -1 se il veicolo non è in flotta
+     */
+    public int slotDi(int numeroMatricola) {
+        if (numeroMatricola <= 0) {
+            return NESSUNO;  // le matricole valide sono > 0
+        }
+        return perMatricola.get(numeroMatricola, NESSUNO);
+    }
+
+    /**
+     * Restituisce il veicolo in un certo slot
+     *
+     * @param s slot da leggere
+     * @return il veicolo o null se lo slot è libero
+     */
+    public Veicolo getSlot(int s) {
+        return slot.get(s);
+    }
+
+    /**
+     * Limite superiore (escluso) degli slot usati, utile per dimensionare
+     * strutture indicizzate per slot
+     *
+     * @return numero di slot allocati
+     */
+    public int numeroSlot() {
+        return slot.size();
+    }
+
+    public int size() {
+        return perMatricola.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Scorre i veicoli in ordine di slot, saltando quelli liberi
+     */
+    @Override
+    public Iterator<Veicolo> iterator() {
+        return new Iterator<Veicolo>() {
+            private int prossimo = avanza(0);
+
+            private int avanza(int da) {
+                while (da < slot.size() && slot.get(da) == null) {
+                    da++;
+                }
+                return da;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return prossimo < slot.size();
+            }
+
+            @Override
+            public Veicolo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Veicolo v = slot.get(prossimo);
+                prossimo = avanza(prossimo + 1);
+                return v;
+            }
+        };
+    }
+
+    private static String normalizzaTarga(String targa) {
+        return targa.trim().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Scrive i noleggi direttamente in uno StringBuilder riutilizzabile, senza
+ * passare da String.format. Gli importi sono formattati a mano in virgola
+ * fissa con due decimali, con il separatore decimale del Locale predefinito
+ * come fa String.format.
+ * Usato da Noleggio.toString() e getDettaglioCosti() e per esportare lo
+ * storico su un Writer con memoria limitata.
+ *
+ * @author giordii.dev
+ */
+public class FormattatoreNoleggi {
+
+    private static final int DIMENSIONE_BUFFER = 8192;  // caratteri accumulati prima di scrivere sul Writer
+    private static final double LIMITE_VIRGOLA_FISSA = 1e15;  // oltre, i centesimi non stanno in un long
+    // sotto 1e9 l'errore di valore * 100 e la distanza dalla forma decimale più corta
+    // restano sotto 1e-5 centesimi: con un margine di 1e-4 il calcolo rapido non sbaglia
+    private static final double LIMITE_CALCOLO_RAPIDO = 1e9;
+    private static final double MARGINE_MEZZO_CENTESIMO = 1e-4;
+
+    // separatore del Locale predefinito, ricalcolato solo quando il Locale cambia
+    private static volatile Separatore separatore = new Separatore(null, '.');
+
+    private FormattatoreNoleggi() {
+    }
+
+    /**
+     * Scrive la riga riassuntiva del noleggio (stesso testo di toString)
+     *
+     * @param n il noleggio
+     * @param sb dove scrivere
+     */
+    public static void scriviRiga(Noleggio n, StringBuilder sb) {
+        if (!n.isConcluso()) {
+            sb.append("Noleggio ATTIVO - Cliente: ").append(n.getNomeCliente())
+                    .append(" | Veicolo: ").append(n.getVeicolo().getTarga())
+                    .append(" | Dal: ");
+            scriviData(n.getDataInizio(), sb);
+        } else {
+            sb.append("Noleggio CONCLUSO - Cliente: ").append(n.getNomeCliente())
+                    .append(" | Veicolo: ").append(n.getVeicolo().getTarga())
+                    .append(" | ");
+            scriviData(n.getDataInizio(), sb);
+            sb.append(" → ");
+            scriviData(n.getDataFine(), sb);
+            sb.append(" | Costo: ");
+            scriviImporto(n.calcolaCostoTotale(), sb);
+            sb.append(" €");
+        }
+    }
+
+    /**
+     * Scrive il dettaglio dei costi di un noleggio concluso (stesso testo di
+     * getDettaglioCosti)
+     *
+     * @param n il noleggio concluso
+     * @param sb dove scrivere
+     */
+    public static void scriviDettaglioCosti(Noleggio n, StringBuilder sb) {
+        if (!n.isConcluso()) {
+            sb.append("Noleggio non ancora concluso");
+            return;
+        }
+
+        sb.append("Dettaglio costi per ").append(n.getVeicolo().getTarga()).append(":\n");
+        sb.append("- Periodo: ");
+        scriviData(n.getDataInizio(), sb);
+        sb.append(" → ");
+        scriviData(n.getDataFine(), sb);
+        sb.append(" (").append(n.calcolaGiorniNoleggio()).append(" giorni)\n");
+        sb.append("- Km percorsi: ");
+        scriviImporto(n.getKmPercorsi(), sb);
+        sb.append(" km\n");
+        sb.append("- Carburante mancante: ");
+        scriviImporto(n.getLitriMancanti(), sb);
+        sb.append(" litri\n");
+        sb.append("TOTALE: ");
+        scriviImporto(n.calcolaCostoTotale(), sb);
+        sb.append(" €");
+    }
+
+    /**
+     * Esporta i noleggi su un Writer, una riga per contratto. Il testo passa
+     * da un unico buffer di dimensione fissa, quindi la memoria usata non
+     * dipende dal numero di noleggi.
+     *
+     * @param noleggi i noleggi da esportare
+     * @param out dove scrivere
+     * @return il numero di righe scritte
+     * @throws IOException in caso di errore di scrittura
+     */
+    public static long esporta(Iterable<Noleggio> noleggi, Writer out) throws IOException {
+        if (noleggi == null || out == null) {
+            throw new IllegalArgumentException("noleggi e out != null");
+        }
+
+        StringBuilder sb = new StringBuilder(DIMENSIONE_BUFFER + 256);
+        long righe = 0;
+
+        for (Noleggio n : noleggi) {
+            scriviRiga(n, sb);
+            sb.append('\n');
+            righe++;
+
+            if (sb.length() >= DIMENSIONE_BUFFER) {
+                out.append(sb);
+                sb.setLength(0);  // riuso lo stesso buffer
+            }
+        }
+
+        out.append(sb);
+        out.flush();
+        return righe;
+    }
+
+    /**
+     * Scrive un importo con esattamente due decimali, con lo stesso testo di
+     * String.format("%.2f") nel Locale predefinito: Formatter arrotonda HALF_UP la forma
+     * decimale più corta del double (quella di Double.toString), quindi
+     * 36.105, memorizzato come 36.10499..., diventa "36.11". Lontano da mezzo
+     * centesimo basta moltiplicare per 100; vicino, decido sulle cifre
+     * decimali esatte con BigDecimal.
+     *
+     * @param valore importo da scrivere
+     * @param sb dove scrivere
+     */
+    public static void scriviImporto(double valore, StringBuilder sb) {
+        char virgola = separatoreDecimale();
+        if (virgola == 0 || Double.isNaN(valore) || Math.abs(valore) >= LIMITE_VIRGOLA_FISSA) {
+            sb.append(String.format("%.2f", valore));  // caso raro, lascio fare a Formatter
+            return;
+        }
+
+        if (valore < 0 || Double.doubleToRawLongBits(valore) == Long.MIN_VALUE) {
+            sb.append('-');  // Formatter tiene il segno anche quando arrotonda a zero ("-0.00")
+            valore = -valore;
+        }
+
+        long centesimi = centesimi(valore);
+        int resto = (int) (centesimi % 100);
+        sb.append(centesimi / 100).append(virgola);
+        if (resto < 10) {
+            sb.append('0');
+        }
+        sb.append(resto);
+    }
+
+    /**
+     * Arrotonda un importo ai centesimi come scriviImporto (e String.format):
+     * HALF_UP sulla forma decimale più corta del double, lontano dallo zero
+     * per i negativi. Così il centesimo fatturato è quello stampato.
+     *
+     * @param valore importo in euro, finito
+     * @return importo in centesimi
+     */
+    static long centesimi(double valore) {
+        if (valore < 0) {
+            return -centesimi(-valore);
+        }
+
+        double x = valore * 100.0;
+        double scarto = x - Math.floor(x) - 0.5;
+        if (valore < LIMITE_CALCOLO_RAPIDO && Math.abs(scarto) > MARGINE_MEZZO_CENTESIMO) {
+            return (long) Math.floor(x) + (scarto > 0 ? 1 : 0);
+        }
+        return new BigDecimal(Double.toString(valore)).setScale(2, RoundingMode.HALF_UP)
+                .unscaledValue().longValueExact();
+    }
+
+    /**
+     * Separatore decimale usato da Formatter nel Locale predefinito, oppure 0
+     * se quel Locale non scrive le cifre 0-9 (lì lascio fare a Formatter)
+     */
+    private static char separatoreDecimale() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        Separatore s = separatore;
+        if (s.locale != locale) {
+            DecimalFormatSymbols simboli = DecimalFormatSymbols.getInstance(locale);
+            s = new Separatore(locale, simboli.getZeroDigit() == '0' ? simboli.getDecimalSeparator() : 0);
+            separatore = s;
+        }
+        return s.carattere;
+    }
+
+    private static final class Separatore {
+        final Locale locale;
+        final char carattere;
+
+        Separatore(Locale locale, char carattere) {
+            this.locale = locale;
+            this.carattere = carattere;
+        }
+    }
+
+    /**
+     * Scrive una data nel formato ISO aaaa-mm-gg, come LocalDate.toString()
+     *
+     * @param data la data da scrivere
+     * @param sb dove scrivere
+     */
+    public static void scriviData(LocalDate data, StringBuilder sb) {
+        int anno = data.getYear();
+        if (anno < 1000 || anno > 9999) {
+            sb.append(data);  // anni fuori formato standard, uso il toString
+            return;
+        }
+
+        sb.append(anno).append('-');
+        scriviDueCifre(data.getMonthValue(), sb);
+        sb.append('-');
+        scriviDueCifre(data.getDayOfMonth(), sb);
+    }
+
+    private static void scriviDueCifre(int valore, StringBuilder sb) {
+        if (valore < 10) {
+            sb.append('0');
+        }
+        sb.append(valore);
+    }
+}
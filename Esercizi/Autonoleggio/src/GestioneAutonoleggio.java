@@ -1,33 +1,123 @@
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Classe che gestisce la flotta di veicoli e i noleggi di una catena di
  * autonoleggio. Permette di aggiungere veicoli, cercare veicoli disponibili,
  * avviare e concludere noleggi.
  *
+ * La classe è thread-safe, pensata per più sportelli che lavorano insieme:
+ * - la struttura della flotta è protetta da un lock lettura/scrittura (le
+ *   modifiche alla flotta sono rare, le letture continue);
+ * - ogni veicolo ha il suo lock "a strisce" (uno ogni NUMERO_STRISCE slot)
+ *   per calendario e avvio noleggio, così sportelli che noleggiano veicoli
+ *   diversi non si bloccano a vicenda;
+ * - lo stato noleggiato/libero è un bit impostato con compare-and-set,
+ *   quindi lo stesso veicolo non può mai essere noleggiato due volte.
+ *
+ * Se è collegato un RegistroEventi (es. il giornale di
+ * PersistenzaAutonoleggio), ogni modifica gli viene notificata mentre si
+ * tengono ancora i lock, così l'ordine degli eventi è quello reale.
+ *
  * @author giordii.dev
  */
 public class GestioneAutonoleggio {
 
+    private static final int NUMERO_STRISCE = 64;  // potenza di 2
+
     private final String nomeAzienda;
-    private final ArrayList<Veicolo> flotta;
-    private final ArrayList<Noleggio> noleggi;
+    private final FlottaIndicizzata flotta;
+    private final ConcurrentSkipListMap<Long, Noleggio> noleggiAttivi;  // chiave = progressivo di avvio
+    private final ConcurrentLinkedDeque<Noleggio> noleggiConclusi;  // append-only, dal più vecchio
+    private final BitmapAtomica inNoleggio;  // un bit per slot della flotta, 1 = noleggio attivo
+    private final ArrayList<CalendarioPrenotazioni> calendari;  // per slot, null se nessuna prenotazione
+    private final ArchivioNoleggi archivio;
+    private final int maxConclusiInMemoria;
+
+    private final ReentrantReadWriteLock lockFlotta;
+    private final ReentrantLock[] strisce;
+    private final AtomicLong progressivoNoleggi;
+    private final AtomicInteger numeroAttivi;
+    private final AtomicInteger numeroConclusi;  // size() delle code concorrenti costa O(n)
+    private final Object lockArchivio;
+    private final ThreadPoolExecutor archiviatore;  // null se non c'è archivio
+    private final AtomicBoolean archiviazionePianificata;  // al massimo un'archiviazione in coda
+    private volatile RegistroEventi registro;  // null = nessuna persistenza
 
     /**
-     * Costruttore della classe GestioneAutonoleggio
+     * Costruttore della classe GestioneAutonoleggio. Tutto lo storico dei
+     * noleggi conclusi resta in memoria.
      *
      * @param nomeAzienda nome della catena di autonoleggio
      */
     public GestioneAutonoleggio(String nomeAzienda) {
+        this(nomeAzienda, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Costruttore della classe GestioneAutonoleggio con archivio su disco.
+     * Quando i noleggi conclusi in memoria superano la soglia, i più vecchi
+     * vengono spostati nell'archivio.
+     *
+     * @param nomeAzienda nome della catena di autonoleggio
+     * @param archivio archivio dei noleggi conclusi (null = nessun archivio)
+     * @param maxConclusiInMemoria numero massimo di noleggi conclusi tenuti in memoria
+     */
+    public GestioneAutonoleggio(String nomeAzienda, ArchivioNoleggi archivio, int maxConclusiInMemoria) {
         if (nomeAzienda == null || nomeAzienda.trim().isEmpty()) {
             throw new IllegalArgumentException("nome azienda != null");
         }
+        if (maxConclusiInMemoria <= 0) {
+            throw new IllegalArgumentException("max conclusi in memoria > 0");
+        }
 
         this.nomeAzienda = nomeAzienda;
-        this.flotta = new ArrayList<>();
-        this.noleggi = new ArrayList<>();
+        this.flotta = new FlottaIndicizzata();
+        this.noleggiAttivi = new ConcurrentSkipListMap<>();
+        this.noleggiConclusi = new ConcurrentLinkedDeque<>();
+        this.inNoleggio = new BitmapAtomica();
+        this.calendari = new ArrayList<>();
+        this.archivio = archivio;
+        this.maxConclusiInMemoria = maxConclusiInMemoria;
+
+        this.lockFlotta = new ReentrantReadWriteLock();
+        this.strisce = new ReentrantLock[NUMERO_STRISCE];
+        for (int i = 0; i < NUMERO_STRISCE; i++) {
+            strisce[i] = new ReentrantLock();
+        }
+        this.progressivoNoleggi = new AtomicLong();
+        this.numeroAttivi = new AtomicInteger();
+        this.numeroConclusi = new AtomicInteger();
+        this.lockArchivio = new Object();
+        this.archiviazionePianificata = new AtomicBoolean();
+        if (archivio != null) {
+            // un thread solo, che si spegne quando non c'è niente da archiviare
+            this.archiviatore = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "archivio-noleggi");
+                t.setDaemon(true);
+                return t;
+            });
+            this.archiviatore.allowCoreThreadTimeOut(true);
+        } else {
+            this.archiviatore = null;
+        }
     }
 
     /**
@@ -40,14 +130,62 @@ public class GestioneAutonoleggio {
             throw new IllegalArgumentException("veicolo != null");
         }
 
-        // Verifica che non esista già un veicolo con la stessa targa
-        for (Veicolo v : flotta) {
-            if (v.getTarga().equals(veicolo.getTarga())) {
-                throw new IllegalArgumentException("targa " + veicolo.getTarga() + " gia presente");
+        lockFlotta.writeLock().lock();
+        try {
+            // l'indice rifiuta targhe (in qualsiasi maiuscolo/minuscolo) e matricole duplicate
+            flotta.aggiungi(veicolo);
+
+            // le strutture per slot crescono solo qui, con la flotta bloccata
+            inNoleggio.assicuraCapacita(flotta.numeroSlot());
+            while (calendari.size() < flotta.numeroSlot()) {
+                calendari.add(null);
             }
+
+            if (registro != null) {
+                try {
+                    registro.veicoloAggiunto(veicolo);
+                } catch (RuntimeException e) {
+                    flotta.rimuovi(veicolo.getNumeroMatricola());  // non registrato, quindi non aggiunto
+                    throw e;
+                }
+            }
+        } finally {
+            lockFlotta.writeLock().unlock();
         }
+    }
+
+    /**
+     * Rimuove un veicolo dalla flotta
+     *
+     * @param numeroMatricola numero di matricola del veicolo da rimuovere
+     * @return il veicolo rimosso
+     */
+    public Veicolo rimuoviVeicolo(int numeroMatricola) {
+        lockFlotta.writeLock().lock();
+        try {
+            int slot = flotta.slotDi(numeroMatricola);
 
-        flotta.add(veicolo);
+            if (slot < 0) {
+                throw new IllegalArgumentException("veicolo " + numeroMatricola + " non trovato");
+            }
+
+            Veicolo veicolo = flotta.getSlot(slot);
+            if (inNoleggio.get(slot)) {
+                throw new IllegalStateException("veicolo " + veicolo.getTarga() + " in noleggio, impossibile rimuoverlo");
+            }
+
+            CalendarioPrenotazioni calendario = calendari.get(slot);
+            if (calendario != null && !calendario.isEmpty()) {
+                throw new IllegalStateException("veicolo " + veicolo.getTarga() + " ha prenotazioni, impossibile rimuoverlo");
+            }
+
+            if (registro != null) {
+                registro.veicoloRimosso(numeroMatricola);
+            }
+            return flotta.rimuovi(numeroMatricola);
+        } finally {
+            lockFlotta.writeLock().unlock();
+        }
     }
 
     /**
@@ -57,12 +195,12 @@ public class GestioneAutonoleggio {
      * @return il veicolo trovato o null se non presente
      */
     public Veicolo cercaVeicolo(int numeroMatricola) {
-        for (Veicolo v : flotta) {
-            if (v.getNumeroMatricola() == numeroMatricola) {
-                return v;
-            }
+        lockFlotta.readLock().lock();
+        try {
+            return flotta.cercaPerMatricola(numeroMatricola);
+        } finally {
+            lockFlotta.readLock().unlock();
         }
-        return null;
     }
 
     /**
@@ -72,16 +210,12 @@ public class GestioneAutonoleggio {
      * @return il veicolo trovato o null se non presente
      */
     public Veicolo cercaVeicoloPerTarga(String targa) {
-        if (targa == null) {
-            return null;
+        lockFlotta.readLock().lock();
+        try {
+            return flotta.cercaPerTarga(targa);  // null se non trovata
+        } finally {
+            lockFlotta.readLock().unlock();
         }
-
-        for (Veicolo v : flotta) {
-            if (v.getTarga().equalsIgnoreCase(targa)) {
-                return v;  // match!
-            }
-        }
-        return null;  // nessun veicolo con questa targa
     }
 
     /**
@@ -91,12 +225,24 @@ public class GestioneAutonoleggio {
      * @return true se il veicolo è disponibile, false se è in noleggio attivo
      */
     public boolean isVeicoloDisponibile(Veicolo veicolo) {
-        for (Noleggio n : noleggi) {
-            if (!n.isConcluso() && n.getVeicolo().equals(veicolo)) {
-                return false;  // in giro con qualcuno
-            }
+        if (veicolo == null) {
+            return false;
+        }
+
+        lockFlotta.readLock().lock();
+        try {
+            return isDisponibile(veicolo);
+        } finally {
+            lockFlotta.readLock().unlock();
         }
-        return true;  // parcheggiato e pronto
+    }
+
+    private boolean isDisponibile(Veicolo veicolo) {
+        int slot = flotta.slotDi(veicolo.getNumeroMatricola());
+        if (slot < 0 || flotta.getSlot(slot) != veicolo) {
+            return true;  // non è in flotta, quindi nessun noleggio attivo
+        }
+        return !inNoleggio.get(slot);
     }
 
     /**
@@ -108,18 +254,66 @@ public class GestioneAutonoleggio {
      * @return il noleggio creato
      */
     public Noleggio avviaNoleggio(int numeroMatricola, String nomeCliente, LocalDate dataInizio) {
-        Veicolo veicolo = cercaVeicolo(numeroMatricola);
+        lockFlotta.readLock().lock();
+        try {
+            int slot = flotta.slotDi(numeroMatricola);
 
-        if (veicolo == null) {
-            throw new IllegalArgumentException("veicolo " + numeroMatricola + " non trovato");
+            if (slot < 0) {
+                throw new IllegalArgumentException("veicolo " + numeroMatricola + " non trovato");
+            }
+
+            Veicolo veicolo = flotta.getSlot(slot);
+            if (inNoleggio.get(slot)) {
+                throw new IllegalStateException("veicolo " + veicolo.getTarga() + " gia in noleggio");
+            }
+
+            Noleggio noleggio = new Noleggio(veicolo, nomeCliente, dataInizio);
+
+            ReentrantLock striscia = striscia(slot);
+            striscia.lock();
+            try {
+                CalendarioPrenotazioni calendario = calendari.get(slot);
+                if (calendario != null && !calendario.isLibero(dataInizio, dataInizio)) {
+                    throw new IllegalStateException("veicolo " + veicolo.getTarga() + " prenotato per il " + dataInizio);
+                }
+
+                return registraNoleggio(noleggio, slot, null);
+            } finally {
+                striscia.unlock();
+            }
+        } finally {
+            lockFlotta.readLock().unlock();
         }
+    }
 
-        if (!isVeicoloDisponibile(veicolo)) {
-            throw new IllegalStateException("veicolo " + veicolo.getTarga() + " gia in noleggio");
+    /**
+     * Prende il veicolo con un compare-and-set sul suo bit: se un altro
+     * sportello l'ha appena noleggiato, fallisce invece di noleggiarlo due volte
+     *
+     * @param ritirata prenotazione da cui nasce il noleggio, null se non c'è
+     */
+    private Noleggio registraNoleggio(Noleggio noleggio, int slot, Prenotazione ritirata) {
+        if (!inNoleggio.impostaSeLibero(slot)) {
+            throw new IllegalStateException("veicolo " + noleggio.getVeicolo().getTarga() + " gia in noleggio");
+        }
+
+        if (registro != null) {
+            try {
+                if (ritirata != null) {
+                    registro.prenotazioneRitirata(ritirata);
+                } else {
+                    registro.noleggioAvviato(noleggio);
+                }
+            } catch (RuntimeException e) {
+                inNoleggio.azzera(slot);  // rilascio il veicolo
+                throw e;
+            }
         }
 
-        Noleggio noleggio = new Noleggio(veicolo, nomeCliente, dataInizio);
-        noleggi.add(noleggio);  // registrato nel sistema
+        long progressivo = progressivoNoleggi.incrementAndGet();
+        noleggiAttivi.put(progressivo, noleggio);  // registrato nel sistema
+        numeroAttivi.incrementAndGet();
+        noleggio.setAllaConclusione(pubblica -> noleggioConcluso(progressivo, noleggio, slot, pubblica));
 
         return noleggio;
     }
@@ -130,66 +324,492 @@ public class GestioneAutonoleggio {
      * @return lista di veicoli disponibili
      */
     public ArrayList<Veicolo> getVeicoliDisponibili() {
-        ArrayList<Veicolo> disponibili = new ArrayList<>();
+        lockFlotta.readLock().lock();
+        try {
+            ArrayList<Veicolo> disponibili = new ArrayList<>(Math.max(0, flotta.size() - inNoleggio.cardinalita()));
+
+            // scorro solo i bit a 0 della bitmap, gli slot liberi sono null
+            for (int s = inNoleggio.prossimoLibero(0); s < flotta.numeroSlot(); s = inNoleggio.prossimoLibero(s + 1)) {
+                Veicolo v = flotta.getSlot(s);
+                if (v != null) {
+                    disponibili.add(v);  // libero e pronto
+                }
+            }
+
+            return disponibili;
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    /**
+     * Prenota un veicolo per un periodo futuro. Un veicolo attualmente in
+     * noleggio non ha una data di rientro, quindi non può essere prenotato
+     * finché non viene restituito.
+     *
+     * @param numeroMatricola numero di matricola del veicolo
+     * @param nomeCliente nome del cliente
+     * @param dal primo giorno di noleggio
+     * @param al ultimo giorno di noleggio (compreso)
+     * @return la prenotazione creata
+     */
+    public Prenotazione prenota(int numeroMatricola, String nomeCliente, LocalDate dal, LocalDate al) {
+        lockFlotta.readLock().lock();
+        try {
+            int slot = flotta.slotDi(numeroMatricola);
+
+            if (slot < 0) {
+                throw new IllegalArgumentException("veicolo " + numeroMatricola + " non trovato");
+            }
 
-        for (Veicolo v : flotta) {
-            if (isVeicoloDisponibile(v)) {
-                disponibili.add(v);  // libero e pronto
+            Veicolo veicolo = flotta.getSlot(slot);
+            Prenotazione prenotazione = new Prenotazione(veicolo, nomeCliente, dal, al);
+
+            ReentrantLock striscia = striscia(slot);
+            striscia.lock();
+            try {
+                if (inNoleggio.get(slot)) {
+                    throw new IllegalStateException("veicolo " + veicolo.getTarga() + " in noleggio senza data di rientro");
+                }
+
+                CalendarioPrenotazioni calendario = calendario(slot);
+                calendario.aggiungi(prenotazione);  // rifiuta periodi gia occupati
+
+                if (registro != null) {
+                    try {
+                        registro.prenotazioneAggiunta(prenotazione);
+                    } catch (RuntimeException e) {
+                        calendario.rimuovi(prenotazione);
+                        throw e;
+                    }
+                }
+                return prenotazione;
+            } finally {
+                striscia.unlock();
             }
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    /**
+     * Annulla una prenotazione
+     *
+     * @param prenotazione la prenotazione da annullare
+     * @return true se la prenotazione esisteva
+     */
+    public boolean annullaPrenotazione(Prenotazione prenotazione) {
+        if (prenotazione == null) {
+            return false;
         }
 
-        return disponibili;
+        lockFlotta.readLock().lock();
+        try {
+            int slot = slotDelVeicolo(prenotazione.getVeicolo());
+
+            ReentrantLock striscia = striscia(slot);
+            striscia.lock();
+            try {
+                CalendarioPrenotazioni calendario = calendari.get(slot);
+                if (calendario == null || !calendario.rimuovi(prenotazione)) {
+                    return false;
+                }
+
+                if (registro != null) {
+                    try {
+                        registro.prenotazioneAnnullata(prenotazione);
+                    } catch (RuntimeException e) {
+                        calendario.aggiungi(prenotazione);  // il posto era suo, non può essere occupato
+                        throw e;
+                    }
+                }
+                return true;
+            } finally {
+                striscia.unlock();
+            }
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
     }
 
     /**
-     * Restituisce la lista dei noleggi attivi
+     * Trasforma una prenotazione in un noleggio attivo: il cliente ritira il
+     * veicolo nel giorno di inizio prenotato
      *
-     * @return lista di noleggi attivi
+     * @param prenotazione la prenotazione da ritirare
+     * @return il noleggio avviato
      */
-    public ArrayList<Noleggio> getNoleggiAttivi() {
-        ArrayList<Noleggio> attivi = new ArrayList<>();
+    public Noleggio ritiraPrenotazione(Prenotazione prenotazione) {
+        if (prenotazione == null) {
+            throw new IllegalArgumentException("prenotazione != null");
+        }
 
-        for (Noleggio n : noleggi) {
-            if (!n.isConcluso()) {
-                attivi.add(n);  // ancora in giro
+        Veicolo veicolo = prenotazione.getVeicolo();
+        Noleggio noleggio = new Noleggio(veicolo, prenotazione.getNomeCliente(), prenotazione.getDataInizio());
+
+        lockFlotta.readLock().lock();
+        try {
+            int slot = slotDelVeicolo(veicolo);
+
+            ReentrantLock striscia = striscia(slot);
+            striscia.lock();
+            try {
+                CalendarioPrenotazioni calendario = calendari.get(slot);
+                if (calendario == null || !calendario.contiene(prenotazione)) {
+                    throw new IllegalArgumentException("prenotazione non trovata");
+                }
+
+                registraNoleggio(noleggio, slot, prenotazione);  // fallisce se il veicolo è ancora fuori
+                calendario.rimuovi(prenotazione);
+                return noleggio;
+            } finally {
+                striscia.unlock();
             }
+        } finally {
+            lockFlotta.readLock().unlock();
         }
+    }
 
-        return attivi;
+    /**
+     * Verifica se un veicolo è libero per tutto un periodo: nessuna
+     * prenotazione nel periodo e non attualmente in noleggio
+     *
+     * @param numeroMatricola numero di matricola del veicolo
+     * @param dal primo giorno del periodo
+     * @param al ultimo giorno del periodo (compreso)
+     * @return true se il veicolo è libero
+     */
+    public boolean isLiberoNelPeriodo(int numeroMatricola, LocalDate dal, LocalDate al) {
+        lockFlotta.readLock().lock();
+        try {
+            int slot = flotta.slotDi(numeroMatricola);
+            if (slot < 0) {
+                throw new IllegalArgumentException("veicolo " + numeroMatricola + " non trovato");
+            }
+            return isSlotLibero(slot, dal, al);
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    private boolean isSlotLibero(int slot, LocalDate dal, LocalDate al) {
+        if (inNoleggio.get(slot)) {
+            return false;
+        }
+
+        ReentrantLock striscia = striscia(slot);
+        striscia.lock();
+        try {
+            CalendarioPrenotazioni calendario = calendari.get(slot);
+            return calendario == null || calendario.isLibero(dal, al);
+        } finally {
+            striscia.unlock();
+        }
     }
 
     /**
-     * Restituisce la lista dei noleggi conclusi
+     * Restituisce i veicoli di un certo tipo liberi per tutto un periodo,
+     * es. i furgoni liberi dal 1 al 7 novembre
      *
-     * @return lista di noleggi conclusi
+     * @param tipo classe dei veicoli cercati (Veicolo.class per tutti)
+     * @param dal primo giorno del periodo
+     * @param al ultimo giorno del periodo (compreso)
+     * @return lista dei veicoli liberi
      */
-    public ArrayList<Noleggio> getNoleggiConclusi() {
-        ArrayList<Noleggio> conclusi = new ArrayList<>();
+    public <T extends Veicolo> ArrayList<T> getVeicoliLiberi(Class<T> tipo, LocalDate dal, LocalDate al) {
+        if (dal == null || al == null) {
+            throw new IllegalArgumentException("date != null");
+        }
+        if (al.isBefore(dal)) {
+            throw new IllegalArgumentException("al >= dal");
+        }
 
-        for (Noleggio n : noleggi) {
-            if (n.isConcluso()) {
-                conclusi.add(n);  // già restituiti
+        lockFlotta.readLock().lock();
+        try {
+            ArrayList<T> liberi = new ArrayList<>();
+            for (T v : flotta.vistaPerTipo(tipo)) {
+                if (isSlotLibero(flotta.slotDi(v.getNumeroMatricola()), dal, al)) {
+                    liberi.add(v);
+                }
             }
+            return liberi;
+        } finally {
+            lockFlotta.readLock().unlock();
         }
+    }
 
-        return conclusi;
+    /**
+     * Elimina dai calendari le prenotazioni già passate
+     *
+     * @param oggi le prenotazioni finite prima di questa data vengono eliminate
+     */
+    public void pulisciPrenotazioniScadute(LocalDate oggi) {
+        if (oggi == null) {
+            throw new IllegalArgumentException("data != null");
+        }
+
+        lockFlotta.readLock().lock();
+        try {
+            if (registro != null) {
+                registro.prenotazioniScaduteEliminate(oggi);  // rieseguirla dopo un riavvio dà lo stesso risultato
+            }
+
+            for (int slot = 0; slot < calendari.size(); slot++) {
+                ReentrantLock striscia = striscia(slot);
+                striscia.lock();
+                try {
+                    CalendarioPrenotazioni c = calendari.get(slot);
+                    if (c != null) {
+                        c.eliminaPrimaDi(oggi);
+                    }
+                } finally {
+                    striscia.unlock();
+                }
+            }
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    private int slotDelVeicolo(Veicolo veicolo) {
+        int slot = flotta.slotDi(veicolo.getNumeroMatricola());
+        if (slot < 0 || flotta.getSlot(slot) != veicolo) {
+            throw new IllegalArgumentException("veicolo " + veicolo.getTarga() + " non in flotta");
+        }
+        return slot;
     }
 
     /**
-     * Restituisce solo le autovetture della flotta
+     * Calendario dello slot, creato se manca. Va chiamato tenendo la striscia
+     * dello slot: set() su posizioni diverse non tocca la struttura della lista.
+     */
+    private CalendarioPrenotazioni calendario(int slot) {
+        CalendarioPrenotazioni calendario = calendari.get(slot);
+        if (calendario == null) {
+            calendario = new CalendarioPrenotazioni();
+            calendari.set(slot, calendario);
+        }
+        return calendario;
+    }
+
+    private ReentrantLock striscia(int slot) {
+        return strisce[slot & (NUMERO_STRISCE - 1)];
+    }
+
+    /**
+     * Registra la conclusione nel giornale, la rende visibile e sposta il
+     * noleggio dagli attivi allo storico; se serve, fa archiviare su disco i
+     * conclusi più vecchi da un thread di sfondo. Se il giornale fallisce il
+     * noleggio resta aperto e l'errore arriva a chi lo stava concludendo;
+     * l'archiviazione invece non fa mai fallire la conclusione.
      *
-     * @return lista di autovetture
+     * @param pubblica segna il noleggio come concluso
      */
-    public ArrayList<Autovettura> getAutovetture() {
-        ArrayList<Autovettura> autovetture = new ArrayList<>();
+    private void noleggioConcluso(long progressivo, Noleggio noleggio, int slot, Runnable pubblica) {
+        // sotto il lock in lettura: la bitmap non deve essere ingrandita mentre
+        // la modifico e una fotografia della flotta non vede lo spostamento a metà
+        lockFlotta.readLock().lock();
+        try {
+            if (registro != null) {
+                registro.noleggioConcluso(noleggio);  // write-ahead: prima di tutto il resto
+            }
+            pubblica.run();
+            inNoleggio.azzera(slot);
+            noleggiAttivi.remove(progressivo);
+            numeroAttivi.decrementAndGet();
+            noleggiConclusi.addLast(noleggio);
+            numeroConclusi.incrementAndGet();
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+
+        if (archivio != null && numeroConclusi.get() > maxConclusiInMemoria
+                && archiviazionePianificata.compareAndSet(false, true)) {
+            archiviatore.execute(this::archiviaInSottofondo);  // lo sportello non aspetta il disco
+        }
+    }
+
+    private void archiviaInSottofondo() {
+        try {
+            archiviaStorico(maxConclusiInMemoria / 2);  // ne sposto metà per non scrivere a ogni noleggio
+        } catch (RuntimeException e) {
+            // i noleggi restano in memoria: si riprova alla prossima conclusione oltre la soglia
+            System.err.println("Archiviazione noleggi non riuscita: "
+                    + (e.getCause() != null ? e.getCause() : e));
+        } finally {
+            archiviazionePianificata.set(false);
+        }
+    }
 
-        for (Veicolo v : flotta) {
-            if (v instanceof Autovettura) {
-                autovetture.add((Autovettura) v);  // cast sicuro dopo instanceof
+    /**
+     * Sposta nell'archivio su disco i noleggi conclusi più vecchi, lasciando
+     * in memoria solo i più recenti
+     *
+     * @param daTenere numero di noleggi conclusi da tenere in memoria
+     */
+    public void archiviaStorico(int daTenere) {
+        if (archivio == null) {
+            throw new IllegalStateException("nessun archivio configurato");
+        }
+        if (daTenere < 0) {
+            throw new IllegalArgumentException("da tenere >= 0");
+        }
+
+        synchronized (lockArchivio) {
+            ArrayList<Noleggio> daArchiviare = new ArrayList<>();
+            while (numeroConclusi.get() > daTenere) {
+                Noleggio n = noleggiConclusi.pollFirst();
+                if (n == null) {
+                    break;
+                }
+                numeroConclusi.decrementAndGet();
+                daArchiviare.add(n);
+            }
+
+            try {
+                archivio.archiviaTutti(daArchiviare);
+            } catch (IOException e) {
+                // l'archivio ha scartato le scritture a metà: rimetto in memoria
+                // tutto il blocco, senza doppioni e senza perdere lo storico
+                for (int i = daArchiviare.size() - 1; i >= 0; i--) {
+                    noleggiConclusi.addFirst(daArchiviare.get(i));
+                    numeroConclusi.incrementAndGet();
+                }
+                throw new UncheckedIOException("archiviazione noleggi fallita", e);
             }
         }
+    }
+
+    /**
+     * Restituisce tutte le prenotazioni, veicolo per veicolo in ordine di data
+     *
+     * @return lista delle prenotazioni
+     */
+    public ArrayList<Prenotazione> getPrenotazioni() {
+        lockFlotta.readLock().lock();
+        try {
+            ArrayList<Prenotazione> prenotazioni = new ArrayList<>();
+            for (int slot = 0; slot < calendari.size(); slot++) {
+                ReentrantLock striscia = striscia(slot);
+                striscia.lock();
+                try {
+                    CalendarioPrenotazioni c = calendari.get(slot);
+                    if (c != null) {
+                        prenotazioni.addAll(c.getPrenotazioni());
+                    }
+                } finally {
+                    striscia.unlock();
+                }
+            }
+            return prenotazioni;
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cerca la prenotazione di un veicolo che comprende un certo giorno
+     *
+     * @param numeroMatricola numero di matricola del veicolo
+     * @param giorno giorno cercato
+     * @return la prenotazione o null se quel giorno il veicolo non è prenotato
+     */
+    public Prenotazione cercaPrenotazione(int numeroMatricola, LocalDate giorno) {
+        if (giorno == null) {
+            throw new IllegalArgumentException("data != null");
+        }
+
+        lockFlotta.readLock().lock();
+        try {
+            int slot = flotta.slotDi(numeroMatricola);
+            if (slot < 0) {
+                return null;
+            }
+
+            ReentrantLock striscia = striscia(slot);
+            striscia.lock();
+            try {
+                CalendarioPrenotazioni calendario = calendari.get(slot);
+                return calendario == null ? null : calendario.cercaSovrapposta(giorno, giorno);
+            } finally {
+                striscia.unlock();
+            }
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    /**
+     * Collega il registro a cui notificare le modifiche (null per scollegarlo)
+     */
+    void setRegistroEventi(RegistroEventi registro) {
+        this.registro = registro;
+    }
+
+    /**
+     * Esegue un'operazione con la flotta bloccata in scrittura: nessuno
+     * sportello può modificare lo stato finché non termina. Usato per
+     * fotografare lo stato in modo coerente.
+     */
+    void eseguiConFlottaBloccata(Runnable operazione) {
+        lockFlotta.writeLock().lock();
+        try {
+            operazione.run();
+        } finally {
+            lockFlotta.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rimette nello storico un noleggio concluso letto da disco, senza
+     * notificarlo al registro
+     */
+    void ripristinaNoleggioConcluso(Noleggio noleggio) {
+        if (noleggio == null || !noleggio.isConcluso()) {
+            throw new IllegalArgumentException("noleggio concluso != null");
+        }
+        noleggiConclusi.addLast(noleggio);
+        numeroConclusi.incrementAndGet();
+    }
+
+    /**
+     * Restituisce la lista dei noleggi attivi
+     *
+     * @return lista di noleggi attivi
+     */
+    public ArrayList<Noleggio> getNoleggiAttivi() {
+        return new ArrayList<>(noleggiAttivi.values());  // in ordine di avvio
+    }
+
+    /**
+     * Restituisce la lista dei noleggi conclusi ancora in memoria, in ordine
+     * di conclusione. Quelli archiviati si leggono con scorriArchivio().
+     *
+     * @return lista di noleggi conclusi
+     */
+    public ArrayList<Noleggio> getNoleggiConclusi() {
+        return new ArrayList<>(noleggiConclusi);
+    }
+
+    /**
+     * Scorre i noleggi archiviati su disco, dal più vecchio al più recente
+     *
+     * @return iteratore sui noleggi archiviati (vuoto se non c'è archivio)
+     */
+    public Iterator<NoleggioArchiviato> scorriArchivio() {
+        if (archivio == null) {
+            return Collections.emptyIterator();
+        }
+        return archivio.iterator();
+    }
 
-        return autovetture;
+    /**
+     * Restituisce solo le autovetture della flotta
+     *
+     * @return lista di autovetture
+     */
+    public ArrayList<Autovettura> getAutovetture() {
+        return copiaPerTipo(Autovettura.class);
     }
 
     /**
@@ -198,34 +818,83 @@ public class GestioneAutonoleggio {
      * @return lista di furgoni
      */
     public ArrayList<Furgone> getFurgoni() {
-        ArrayList<Furgone> furgoni = new ArrayList<>();
+        return copiaPerTipo(Furgone.class);
+    }
 
-        for (Veicolo v : flotta) {
-            if (v instanceof Furgone) {
-                furgoni.add((Furgone) v);  // downcast sicuro
-            }
+    private <T extends Veicolo> ArrayList<T> copiaPerTipo(Class<T> tipo) {
+        lockFlotta.readLock().lock();
+        try {
+            return new ArrayList<>(flotta.vistaPerTipo(tipo));
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce una vista in sola lettura dei veicoli di un certo tipo,
+     * aggiornata automaticamente quando la flotta cambia. Funziona anche per
+     * sottoclassi di Veicolo aggiunte in futuro. Si può scorrere anche mentre
+     * altri sportelli aggiungono o rimuovono veicoli: ogni scansione parte da
+     * una copia presa sotto il lock in lettura.
+     *
+     * @param tipo classe dei veicoli cercati, es. Autovettura.class
+     * @return i veicoli di quel tipo
+     */
+    public <T extends Veicolo> Collection<T> getVeicoliPerTipo(Class<T> tipo) {
+        if (tipo == null) {
+            throw new IllegalArgumentException("tipo != null");
         }
 
-        return furgoni;
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return Collections.unmodifiableList(copiaPerTipo(tipo)).iterator();
+            }
+
+            @Override
+            public int size() {
+                return contaPerTipo(tipo);
+            }
+        };
+    }
+
+    /**
+     * Conta i veicoli di un certo tipo senza scorrere la flotta
+     *
+     * @param tipo classe dei veicoli da contare
+     * @return numero di veicoli di quel tipo
+     */
+    public int contaPerTipo(Class<? extends Veicolo> tipo) {
+        lockFlotta.readLock().lock();
+        try {
+            return flotta.vistaPerTipo(tipo).size();
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
     }
 
     /**
      * Stampa l'intera flotta di veicoli
      */
     public void stampaFlotta() {
-        System.out.println("\n=== FLOTTA " + nomeAzienda.toUpperCase() + " ===");
-        System.out.println("Totale veicoli: " + flotta.size());
-        System.out.println();
-
-        if (flotta.isEmpty()) {
-            System.out.println("Nessun veicolo nella flotta.");  // ancora da comprare
-        } else {
-            for (Veicolo v : flotta) {
-                String stato = isVeicoloDisponibile(v) ? "[DISPONIBILE]" : "[IN NOLEGGIO]";
-                System.out.println(stato + " " + v);
+        lockFlotta.readLock().lock();
+        try {
+            System.out.println("\n=== FLOTTA " + nomeAzienda.toUpperCase() + " ===");
+            System.out.println("Totale veicoli: " + flotta.size());
+            System.out.println();
+
+            if (flotta.isEmpty()) {
+                System.out.println("Nessun veicolo nella flotta.");  // ancora da comprare
+            } else {
+                for (Veicolo v : flotta) {
+                    String stato = isDisponibile(v) ? "[DISPONIBILE]" : "[IN NOLEGGIO]";
+                    System.out.println(stato + " " + v);
+                }
             }
+            System.out.println("================================\n");
+        } finally {
+            lockFlotta.readLock().unlock();
         }
-        System.out.println("================================\n");
     }
 
     /**
@@ -252,6 +921,10 @@ public class GestioneAutonoleggio {
         System.out.println("\n=== STORICO NOLEGGI CONCLUSI ===");
         ArrayList<Noleggio> conclusi = getNoleggiConclusi();
 
+        if (archivio != null && archivio.size() > 0) {
+            System.out.println("(" + archivio.size() + " noleggi piu vecchi in archivio su disco)");
+        }
+
         if (conclusi.isEmpty()) {
             System.out.println("Nessun noleggio concluso.");
         } else {
@@ -267,10 +940,25 @@ public class GestioneAutonoleggio {
     }
 
     public int contaVeicoli() {
-        return flotta.size();
+        lockFlotta.readLock().lock();
+        try {
+            return flotta.size();
+        } finally {
+            lockFlotta.readLock().unlock();
+        }
+    }
+
+    /**
+     * Conta i veicoli attualmente in noleggio, senza scorrere i noleggi
+     *
+     * @return numero di veicoli fuori
+     */
+    public int contaVeicoliInNoleggio() {
+        return inNoleggio.cardinalita();
     }
 
     public int contaNoleggi() {
-        return noleggi.size();
+        long archiviati = archivio == null ? 0 : archivio.size();
+        return (int) (numeroAttivi.get() + numeroConclusi.get() + archiviati);
     }
 }
@@ -0,0 +1,348 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.zip.CRC32;
+
+/**
+ * Giornale append-only degli eventi dell'autonoleggio (write-ahead log).
+ * Ogni evento è un record [lunghezza][tipo + dati][crc32].
+ *
+ * Le scritture usano il "group commit": ogni thread accoda il suo record in
+ * memoria e aspetta che sia su disco; il primo che trova il disco libero
+ * scrive e sincronizza (force) in un colpo solo tutti i record accodati
+ * fino a quel momento, così molti sportelli pagano una sola fsync.
+ *
+ * @author giordii.dev
+ */
+public class GiornaleEventi implements RegistroEventi, Closeable {
+
+    static final byte VEICOLO_AGGIUNTO = 1;
+    static final byte VEICOLO_RIMOSSO = 2;
+    static final byte NOLEGGIO_AVVIATO = 3;
+    static final byte NOLEGGIO_CONCLUSO = 4;
+    static final byte PRENOTAZIONE_AGGIUNTA = 5;
+    static final byte PRENOTAZIONE_ANNULLATA = 6;
+    static final byte PRENOTAZIONE_RITIRATA = 7;
+    static final byte PRENOTAZIONI_SCADUTE = 8;
+
+    private static final byte AUTOVETTURA = 'A';
+    private static final byte FURGONE = 'F';
+
+    private final FileChannel canale;
+    private final Object lock;
+    private ByteArrayOutputStream inAttesa;  // record accodati, non ancora scritti
+    private ByteArrayOutputStream diRiserva;
+    private long ultimoAccodato;
+    private long ultimoPersistito;
+    private boolean scritturaInCorso;
+    private IOException guasto;  // dopo un errore di scrittura il giornale non è più affidabile
+
+    /**
+     * Apre il giornale in coda: i nuovi eventi vengono aggiunti dopo quelli
+     * già presenti
+     *
+     * @param file percorso del file di giornale
+     * @throws IOException se il file non può essere aperto
+     */
+    public GiornaleEventi(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file != null");
+        }
+
+        this.canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        canale.position(canale.size());
+        this.lock = new Object();
+        this.inAttesa = new ByteArrayOutputStream(4096);
+        this.diRiserva = new ByteArrayOutputStream(4096);
+    }
+
+    @Override
+    public void veicoloAggiunto(Veicolo veicolo) {
+        registra(VEICOLO_AGGIUNTO, out -> scriviVeicolo(veicolo, out));
+    }
+
+    @Override
+    public void veicoloRimosso(int numeroMatricola) {
+        registra(VEICOLO_RIMOSSO, out -> out.writeInt(numeroMatricola));
+    }
+
+    @Override
+    public void noleggioAvviato(Noleggio noleggio) {
+        registra(NOLEGGIO_AVVIATO, out -> {
+            out.writeInt(noleggio.getVeicolo().getNumeroMatricola());
+            out.writeUTF(noleggio.getNomeCliente());
+            out.writeLong(noleggio.getDataInizio().toEpochDay());
+        });
+    }
+
+    @Override
+    public void noleggioConcluso(Noleggio noleggio) {
+        registra(NOLEGGIO_CONCLUSO, out -> {
+            out.writeInt(noleggio.getVeicolo().getNumeroMatricola());
+            out.writeLong(noleggio.getDataFine().toEpochDay());
+            out.writeDouble(noleggio.getKmPercorsi());
+            out.writeDouble(noleggio.getLitriMancanti());
+        });
+    }
+
+    @Override
+    public void prenotazioneAggiunta(Prenotazione prenotazione) {
+        registra(PRENOTAZIONE_AGGIUNTA, out -> {
+            out.writeInt(prenotazione.getVeicolo().getNumeroMatricola());
+            out.writeUTF(prenotazione.getNomeCliente());
+            out.writeLong(prenotazione.getDataInizio().toEpochDay());
+            out.writeLong(prenotazione.getDataFine().toEpochDay());
+        });
+    }
+
+    @Override
+    public void prenotazioneAnnullata(Prenotazione prenotazione) {
+        registra(PRENOTAZIONE_ANNULLATA, out -> scriviRiferimento(prenotazione, out));
+    }
+
+    @Override
+    public void prenotazioneRitirata(Prenotazione prenotazione) {
+        registra(PRENOTAZIONE_RITIRATA, out -> scriviRiferimento(prenotazione, out));
+    }
+
+    @Override
+    public void prenotazioniScaduteEliminate(LocalDate oggi) {
+        registra(PRENOTAZIONI_SCADUTE, out -> out.writeLong(oggi.toEpochDay()));
+    }
+
+    /**
+     * Chiude il giornale dopo aver scritto gli ultimi eventi accodati
+     *
+     * @throws IOException in caso di errore di scrittura
+     */
+    @Override
+    public void close() throws IOException {
+        long ultimo;
+        synchronized (lock) {
+            ultimo = ultimoAccodato;
+        }
+        try {
+            attendiPersistenza(ultimo);
+        } catch (UncheckedIOException e) {
+            canale.close();
+            throw e.getCause();
+        }
+        canale.close();
+    }
+
+    private interface Contenuto {
+        void scrivi(DataOutput out) throws IOException;
+    }
+
+    private void registra(byte tipo, Contenuto contenuto) {
+        byte[] record;
+        try {
+            record = codifica(tipo, contenuto);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // su memoria non succede
+        }
+
+        long mio;
+        synchronized (lock) {
+            if (guasto != null) {
+                throw new UncheckedIOException("giornale non scrivibile", guasto);
+            }
+            inAttesa.write(record, 0, record.length);
+            mio = ++ultimoAccodato;
+        }
+        attendiPersistenza(mio);
+    }
+
+    /**
+     * Aspetta che il record "numero" sia su disco. Non si lascia
+     * interrompere: il record è già in coda e prima o poi verrà scritto,
+     * quindi uscire prima farebbe credere al chiamante che l'evento non è
+     * stato registrato. Un'interruzione ricevuta nel frattempo viene
+     * rimessa sul thread all'uscita.
+     */
+    private void attendiPersistenza(long numero) {
+        boolean interrotto = false;
+        try {
+            while (true) {
+                ByteArrayOutputStream daScrivere;
+                long fino;
+
+                synchronized (lock) {
+                    while (ultimoPersistito < numero && scritturaInCorso) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            interrotto = true;  // aspetto comunque, vedi sopra
+                        }
+                    }
+                    if (guasto != null) {
+                        throw new UncheckedIOException("giornale non scrivibile", guasto);
+                    }
+                    if (ultimoPersistito >= numero) {
+                        return;  // qualcun altro ha già scritto anche il mio record
+                    }
+
+                    // tocca a me: prendo tutto quello che è in coda
+                    scritturaInCorso = true;
+                    daScrivere = inAttesa;
+                    inAttesa = diRiserva;
+                    diRiserva = daScrivere;
+                    fino = ultimoAccodato;
+                }
+
+                // un thread interrotto durante write/force chiuderebbe il canale per sempre
+                interrotto |= Thread.interrupted();
+
+                IOException errore = null;
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(daScrivere.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        canale.write(buffer);
+                    }
+                    canale.force(false);
+                } catch (IOException e) {
+                    errore = e;
+                }
+
+                synchronized (lock) {
+                    daScrivere.reset();
+                    scritturaInCorso = false;
+                    if (errore == null) {
+                        ultimoPersistito = fino;
+                    } else {
+                        guasto = errore;
+                    }
+                    lock.notifyAll();
+                }
+
+                if (errore != null) {
+                    throw new UncheckedIOException("scrittura giornale fallita", errore);
+                }
+            }
+        } finally {
+            if (interrotto) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static byte[] codifica(byte tipo, Contenuto contenuto) throws IOException {
+        ByteArrayOutputStream corpo = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(corpo);
+        out.writeByte(tipo);
+        contenuto.scrivi(out);
+        out.flush();
+
+        byte[] dati = corpo.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(dati);
+
+        ByteBuffer record = ByteBuffer.allocate(4 + dati.length + 4);
+        record.putInt(dati.length).put(dati).putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Legge il prossimo record completo e integro da un giornale
+     *
+     * @param in flusso posizionato all'inizio di un record
+     * @return il contenuto del record (tipo + dati) o null se il giornale
+     * finisce qui o la coda è incompleta/corrotta (scrittura interrotta da un crash)
+     * @throws IOException in caso di errore di lettura
+     */
+    static byte[] leggiRecord(DataInputStream in) throws IOException {
+        byte[] lunghezza = new byte[4];
+        if (in.readNBytes(lunghezza, 0, 4) < 4) {
+            return null;
+        }
+
+        int n = ByteBuffer.wrap(lunghezza).getInt();
+        if (n <= 0 || n > (1 << 20)) {
+            return null;
+        }
+
+        byte[] dati = new byte[n];
+        byte[] controllo = new byte[4];
+        if (in.readNBytes(dati, 0, n) < n || in.readNBytes(controllo, 0, 4) < 4) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(dati);
+        if ((int) crc.getValue() != ByteBuffer.wrap(controllo).getInt()) {
+            return null;
+        }
+        return dati;
+    }
+
+    /**
+     * Dimensione su disco di un record dato il suo contenuto
+     */
+    static int dimensioneRecord(byte[] dati) {
+        return 4 + dati.length + 4;
+    }
+
+    private static void scriviRiferimento(Prenotazione prenotazione, DataOutput out) throws IOException {
+        out.writeInt(prenotazione.getVeicolo().getNumeroMatricola());
+        out.writeLong(prenotazione.getDataInizio().toEpochDay());
+    }
+
+    /**
+     * Codifica un veicolo con tutti i dati per ricostruirlo
+     */
+    static void scriviVeicolo(Veicolo v, DataOutput out) throws IOException {
+        if (v instanceof Autovettura) {
+            out.writeByte(AUTOVETTURA);
+        } else if (v instanceof Furgone) {
+            out.writeByte(FURGONE);
+        } else {
+            throw new IllegalArgumentException("tipo veicolo non supportato: " + v.getClass().getSimpleName());
+        }
+
+        out.writeUTF(v.getTarga());
+        out.writeInt(v.getNumeroMatricola());
+        out.writeUTF(v.getMarca());
+        out.writeUTF(v.getModello());
+        out.writeInt(v.getCilindrata());
+        out.writeInt(v.getAnnoAcquisto());
+        out.writeDouble(v.getCapacitaSerbatoio());
+
+        if (v instanceof Autovettura) {
+            out.writeInt(((Autovettura) v).getNumeroPosti());
+        } else {
+            out.writeDouble(((Furgone) v).getCapacitaCarico());
+        }
+    }
+
+    static Veicolo leggiVeicolo(DataInput in) throws IOException {
+        byte tipo = in.readByte();
+        String targa = in.readUTF();
+        int matricola = in.readInt();
+        String marca = in.readUTF();
+        String modello = in.readUTF();
+        int cilindrata = in.readInt();
+        int anno = in.readInt();
+        double serbatoio = in.readDouble();
+
+        if (tipo == AUTOVETTURA) {
+            return new Autovettura(targa, matricola, marca, modello, cilindrata, anno, serbatoio, in.readInt());
+        } else if (tipo == FURGONE) {
+            return new Furgone(targa, matricola, marca, modello, cilindrata, anno, serbatoio, in.readDouble());
+        }
+        throw new IOException("tipo veicolo sconosciuto: " + tipo);
+    }
+
+    static LocalDate leggiData(DataInput in) throws IOException {
+        return LocalDate.ofEpochDay(in.readLong());
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma delle latenze in nanosecondi, sullo stile di HdrHistogram:
+ * i valori sono raggruppati in intervalli che raddoppiano (potenze di 2),
+ * ognuno diviso in 16 parti uguali, quindi l'errore relativo è al massimo
+ * 1/16 (circa 6%) su tutta la scala, da 1 ns a ore, con meno di mille
+ * contatori. Registrare un valore costa un incremento atomico, senza lock
+ * e senza allocare memoria.
+ *
+ * @author giordii.dev
+ */
+public class IstogrammaLatenze {
+
+    private static final int BIT_SOTTO_INTERVALLI = 4;
+    private static final int SOTTO_INTERVALLI = 1 << BIT_SOTTO_INTERVALLI;  // 16
+    private static final int NUMERO_CONTATORI = (64 - BIT_SOTTO_INTERVALLI + 1) * SOTTO_INTERVALLI;
+
+    private final AtomicLongArray contatori;
+    private final LongAdder somma;
+    private final AtomicLong massimo;
+
+    public IstogrammaLatenze() {
+        this.contatori = new AtomicLongArray(NUMERO_CONTATORI);
+        this.somma = new LongAdder();
+        this.massimo = new AtomicLong();
+    }
+
+    /**
+     * Registra una latenza
+     *
+     * @param nanosecondi durata misurata (i valori negativi contano come 0)
+     */
+    public void registra(long nanosecondi) {
+        long valore = Math.max(0, nanosecondi);
+        contatori.incrementAndGet(indice(valore));
+        somma.add(valore);
+        if (valore > massimo.get()) {
+            massimo.accumulateAndGet(valore, Math::max);
+        }
+    }
+
+    /**
+     * @return numero di latenze registrate (somma dei contatori, non serve
+     * un contatore in più da aggiornare a ogni misura)
+     */
+    public long getConteggio() {
+        long totale = 0;
+        for (int i = 0; i < NUMERO_CONTATORI; i++) {
+            totale += contatori.get(i);
+        }
+        return totale;
+    }
+
+    public long getMassimo() {
+        return massimo.get();
+    }
+
+    /**
+     * @return latenza media in nanosecondi (0 se l'istogramma è vuoto)
+     */
+    public double getMedia() {
+        long n = getConteggio();
+        return n == 0 ? 0 : (double) somma.sum() / n;
+    }
+
+    /**
+     * Latenza sotto la quale cade la percentuale indicata delle misure.
+     * Il valore restituito è il limite superiore dell'intervallo che
+     * contiene il percentile, quindi non sottostima mai la latenza reale.
+     *
+     * @param percentuale percentile cercato, tra 0 e 100 (es. 99.9)
+     * @return latenza in nanosecondi (0 se l'istogramma è vuoto)
+     */
+    public long percentile(double percentuale) {
+        if (percentuale < 0 || percentuale > 100) {
+            throw new IllegalArgumentException("0 <= percentuale <= 100");
+        }
+
+        // copio i contatori: altri thread possono registrare nel frattempo
+        long[] copia = new long[NUMERO_CONTATORI];
+        long totale = 0;
+        for (int i = 0; i < NUMERO_CONTATORI; i++) {
+            copia[i] = contatori.get(i);
+            totale += copia[i];
+        }
+        if (totale == 0) {
+            return 0;
+        }
+
+        long soglia = Math.max(1, (long) Math.ceil(totale * percentuale / 100.0));
+        long cumulato = 0;
+        for (int i = 0; i < NUMERO_CONTATORI; i++) {
+            cumulato += copia[i];
+            if (cumulato >= soglia) {
+                return Math.min(limiteSuperiore(i), massimo.get());
+            }
+        }
+        return massimo.get();
+    }
+
+    /**
+     * Azzera tutte le misure (es. all'inizio di un nuovo periodo di osservazione)
+     */
+    public void azzera() {
+        for (int i = 0; i < NUMERO_CONTATORI; i++) {
+            contatori.set(i, 0);
+        }
+        somma.reset();
+        massimo.set(0);
+    }
+
+    /**
+     * I primi 16 contatori sono esatti (0..15 ns); poi per ogni potenza di 2
+     * si usano i 4 bit successivi al più significativo come sotto-intervallo
+     */
+    static int indice(long valore) {
+        if (valore < SOTTO_INTERVALLI) {
+            return (int) valore;
+        }
+        int esponente = 63 - Long.numberOfLeadingZeros(valore);
+        int sotto = (int) (valore >>> (esponente - BIT_SOTTO_INTERVALLI)) & (SOTTO_INTERVALLI - 1);
+        return (esponente - BIT_SOTTO_INTERVALLI + 1) * SOTTO_INTERVALLI + sotto;
+    }
+
+    static long limiteSuperiore(int indice) {
+        if (indice < SOTTO_INTERVALLI) {
+            return indice;
+        }
+        int esponente = indice / SOTTO_INTERVALLI + BIT_SOTTO_INTERVALLI - 1;
+        long sotto = indice % SOTTO_INTERVALLI;
+        int passo = esponente - BIT_SOTTO_INTERVALLI;
+        long inferiore = (SOTTO_INTERVALLI + sotto) << passo;
+        return inferiore + (1L << passo) - 1;
+    }
+}
@@ -96,8 +96,8 @@ public class Main {
         autonoleggio.stampaFlotta();
 
         System.out.println("--- STATISTICHE FLOTTA ---");
-        System.out.println("Autovetture: " + autonoleggio.getAutovetture().size());
-        System.out.println("Furgoni: " + autonoleggio.getFurgoni().size());
+        System.out.println("Autovetture: " + autonoleggio.contaPerTipo(Autovettura.class));
+        System.out.println("Furgoni: " + autonoleggio.contaPerTipo(Furgone.class));
         System.out.println("Veicoli disponibili: " + autonoleggio.getVeicoliDisponibili().size());
         System.out.println();
 
@@ -198,5 +198,11 @@ public class Main {
             fatturatoTotale += n.calcolaCostoTotale();
         }
         System.out.println("Fatturato totale: " + String.format("%.2f", fatturatoTotale) + " €");
+        System.out.println();
+
+        // fatturazione di fine mese, divisa per tipo di veicolo
+        System.out.println("--- FATTURAZIONE DI FINE MESE ---");
+        RiepilogoFatturazione riepilogo = new FatturazioneNoleggi().fattura(autonoleggio.getNoleggiConclusi());
+        System.out.print(riepilogo);
     }
 }
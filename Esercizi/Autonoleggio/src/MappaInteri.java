@@ -0,0 +1,195 @@
+/**
+ * Mappa hash da int a int con indirizzamento aperto (linear probing).
+ * Evita il boxing di Integer: chiavi e valori stanno in due array primitivi.
+ * La chiave 0 è riservata come "cella vuota", quindi sono ammesse solo chiavi
+ * diverse da zero (le matricole sono sempre > 0).
+ *
+ * @author giordii.dev
+ */
+public class MappaInteri {
+
+    private static final int VUOTO = 0;
+    private static final int CAPACITA_MINIMA = 16;
+
+    private int[] chiavi;
+    private int[] valori;
+    private int dimensione;
+    private int maschera;
+
+    /**
+     * Costruttore della classe MappaInteri
+     *
+     * @param capacitaIniziale numero di elementi previsti
+     */
+    public MappaInteri(int capacitaIniziale) {
+        if (capacitaIniziale < 0) {
+            throw new IllegalArgumentException("capacita >= 0");
+        }
+
+        int capacita = CAPACITA_MINIMA;
+        while (capacita < capacitaIniziale * 2) {
+            capacita <<= 1;  // sempre potenza di 2, carico massimo 50%
+        }
+
+        this.chiavi = new int[capacita];
+        this.valori = new int[capacita];
+        this.dimensione = 0;
+        this.maschera = capacita - 1;
+    }
+
+    public MappaInteri() {
+        this(CAPACITA_MINIMA);
+    }
+
+    /**
+     * Restituisce il valore associato alla chiave
+     *
+     * @param chiave chiave da cercare (!= 0)
+     * @param predefinito valore restituito se la chiave non è presente
+     * @return il valore associato o predefinito
+     */
+    public int get(int chiave, int predefinito) {
+        controllaChiave(chiave);
+
+        int i = indice(chiave);
+        while (chiavi[i] != VUOTO) {
+            if (chiavi[i] == chiave) {
+                return valori[i];
+            }
+            i = (i + 1) & maschera;
+        }
+        return predefinito;
+    }
+
+    /**
+     * Verifica se la chiave è presente
+     *
+     * @param chiave chiave da cercare (!= 0)
+     * @return true se presente
+     */
+    public boolean contiene(int chiave) {
+        controllaChiave(chiave);
+
+        int i = indice(chiave);
+        while (chiavi[i] != VUOTO) {
+            if (chiavi[i] == chiave) {
+                return true;
+            }
+            i = (i + 1) & maschera;
+        }
+        return false;
+    }
+
+    /**
+     * Inserisce o sostituisce il valore associato alla chiave
+     *
+     * @param chiave chiave (!= 0)
+     * @param valore valore da associare
+     */
+    public void put(int chiave, int valore) {
+        controllaChiave(chiave);
+
+        if ((dimensione + 1) * 2 > chiavi.length) {
+            ridimensiona(chiavi.length << 1);
+        }
+
+        int i = indice(chiave);
+        while (chiavi[i] != VUOTO) {
+            if (chiavi[i] == chiave) {
+                valori[i] = valore;  // già presente, aggiorno
+                return;
+            }
+            i = (i + 1) & maschera;
+        }
+
+        chiavi[i] = chiave;
+        valori[i] = valore;
+        dimensione++;
+    }
+
+    /**
+     * Rimuove la chiave dalla mappa
+     *
+     * @param chiave chiave da rimuovere (!= 0)
+     * @return true se la chiave era presente
+     */
+    public boolean rimuovi(int chiave) {
+        controllaChiave(chiave);
+
+        int i = indice(chiave);
+        while (chiavi[i] != VUOTO) {
+            if (chiavi[i] == chiave) {
+                compatta(i);
+                dimensione--;
+                return true;
+            }
+            i = (i + 1) & maschera;
+        }
+        return false;
+    }
+
+    public int size() {
+        return dimensione;
+    }
+
+    public boolean isEmpty() {
+        return dimensione == 0;
+    }
+
+    /**
+     * Libera la cella i spostando indietro gli elementi successivi della
+     * stessa catena, così non servono marcatori di cancellazione.
+     */
+    private void compatta(int i) {
+        int libero = i;
+        int j = (i + 1) & maschera;
+
+        while (chiavi[j] != VUOTO) {
+            int ideale = indice(chiavi[j]);
+            // sposto j in "libero" solo se la sua posizione ideale non sta tra libero e j
+            boolean daSpostare = (libero <= j)
+                    ? (ideale <= libero || ideale > j)
+                    : (ideale <= libero && ideale > j);
+            if (daSpostare) {
+                chiavi[libero] = chiavi[j];
+                valori[libero] = valori[j];
+                libero = j;
+            }
+            j = (j + 1) & maschera;
+        }
+
+        chiavi[libero] = VUOTO;
+        valori[libero] = 0;
+    }
+
+    private void ridimensiona(int nuovaCapacita) {
+        int[] vecchieChiavi = chiavi;
+        int[] vecchiValori = valori;
+
+        chiavi = new int[nuovaCapacita];
+        valori = new int[nuovaCapacita];
+        maschera = nuovaCapacita - 1;
+
+        for (int k = 0; k < vecchieChiavi.length; k++) {
+            if (vecchieChiavi[k] != VUOTO) {
+                int i = indice(vecchieChiavi[k]);
+                while (chiavi[i] != VUOTO) {
+                    i = (i + 1) & maschera;
+                }
+                chiavi[i] = vecchieChiavi[k];
+                valori[i] = vecchiValori[k];
+            }
+        }
+    }
+
+    private int indice(int chiave) {
+        int h = chiave * 0x9E3779B9;  // mescolo i bit, le matricole sono spesso consecutive
+        return (h ^ (h >>> 16)) & maschera;
+    }
+
+    private static void controllaChiave(int chiave) {
+        if (chiave == VUOTO) {
+            throw new IllegalArgumentException("chiave != 0");
+        }
+    }
+}
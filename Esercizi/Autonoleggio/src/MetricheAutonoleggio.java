@@ -0,0 +1,281 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Strato di misura attorno a GestioneAutonoleggio: gli sportelli chiamano
+ * le operazioni tramite questa classe, che le inoltra alla gestione e ne
+ * registra la latenza (un IstogrammaLatenze per operazione), il numero di
+ * chiamate e di errori. In più calcola al momento alcuni indicatori della
+ * flotta: veicoli fuori, percentuale di utilizzo e noleggi avviati per giorno.
+ *
+ * Le misure costano due letture di System.nanoTime() e qualche incremento
+ * atomico, senza lock: lo strato si può lasciare sempre attivo.
+ *
+ * @author giordii.dev
+ */
+public class MetricheAutonoleggio {
+
+    public static final String AVVIA_NOLEGGIO = "avviaNoleggio";
+    public static final String CONCLUDI_NOLEGGIO = "concludiNoleggio";
+    public static final String CERCA_VEICOLO = "cercaVeicolo";
+    public static final String CERCA_PER_TARGA = "cercaVeicoloPerTarga";
+    public static final String VEICOLI_DISPONIBILI = "getVeicoliDisponibili";
+    public static final String PRENOTA = "prenota";
+    public static final String RITIRA_PRENOTAZIONE = "ritiraPrenotazione";
+    public static final String FATTURA = "fattura";
+
+    private static final String[] OPERAZIONI = {
+        AVVIA_NOLEGGIO, CONCLUDI_NOLEGGIO, CERCA_VEICOLO, CERCA_PER_TARGA,
+        VEICOLI_DISPONIBILI, PRENOTA, RITIRA_PRENOTAZIONE, FATTURA
+    };
+    // posizione di ogni operazione in OPERAZIONI
+    private static final int N_AVVIA_NOLEGGIO = 0;
+    private static final int N_CONCLUDI_NOLEGGIO = 1;
+    private static final int N_CERCA_VEICOLO = 2;
+    private static final int N_CERCA_PER_TARGA = 3;
+    private static final int N_VEICOLI_DISPONIBILI = 4;
+    private static final int N_PRENOTA = 5;
+    private static final int N_RITIRA_PRENOTAZIONE = 6;
+    private static final int N_FATTURA = 7;
+
+    private static final int GIORNI_ESPORTATI = 7;
+
+    private final GestioneAutonoleggio gestione;
+    private final IstogrammaLatenze[] latenze;  // stesso ordine di OPERAZIONI
+    private final LongAdder[] errori;
+    private final LongAdder noleggiAvviati;
+    private final LongAdder noleggiConclusi;
+    private final ConcurrentSkipListMap<LocalDate, LongAdder> avviatiPerGiorno;  // per data di inizio
+
+    /**
+     * Costruttore della classe MetricheAutonoleggio
+     *
+     * @param gestione la gestione da misurare
+     */
+    public MetricheAutonoleggio(GestioneAutonoleggio gestione) {
+        if (gestione == null) {
+            throw new IllegalArgumentException("gestione != null");
+        }
+
+        this.gestione = gestione;
+        this.latenze = new IstogrammaLatenze[OPERAZIONI.length];
+        this.errori = new LongAdder[OPERAZIONI.length];
+        for (int i = 0; i < OPERAZIONI.length; i++) {
+            latenze[i] = new IstogrammaLatenze();
+            errori[i] = new LongAdder();
+        }
+        this.noleggiAvviati = new LongAdder();
+        this.noleggiConclusi = new LongAdder();
+        this.avviatiPerGiorno = new ConcurrentSkipListMap<>();
+    }
+
+    public GestioneAutonoleggio getGestione() {
+        return gestione;
+    }
+
+    public Noleggio avviaNoleggio(int numeroMatricola, String nomeCliente, LocalDate dataInizio) {
+        Noleggio noleggio = misura(N_AVVIA_NOLEGGIO, () -> gestione.avviaNoleggio(numeroMatricola, nomeCliente, dataInizio));
+        contaAvvio(noleggio);
+        return noleggio;
+    }
+
+    public void concludiNoleggio(Noleggio noleggio, LocalDate dataFine, double kmPercorsi, double litriMancanti) {
+        if (noleggio == null) {
+            throw new IllegalArgumentException("noleggio != null");
+        }
+
+        misura(N_CONCLUDI_NOLEGGIO, () -> {
+            noleggio.concludiNoleggio(dataFine, kmPercorsi, litriMancanti);
+            return null;
+        });
+        noleggiConclusi.increment();
+    }
+
+    public Veicolo cercaVeicolo(int numeroMatricola) {
+        return misura(N_CERCA_VEICOLO, () -> gestione.cercaVeicolo(numeroMatricola));
+    }
+
+    public Veicolo cercaVeicoloPerTarga(String targa) {
+        return misura(N_CERCA_PER_TARGA, () -> gestione.cercaVeicoloPerTarga(targa));
+    }
+
+    public ArrayList<Veicolo> getVeicoliDisponibili() {
+        return misura(N_VEICOLI_DISPONIBILI, gestione::getVeicoliDisponibili);
+    }
+
+    public Prenotazione prenota(int numeroMatricola, String nomeCliente, LocalDate dal, LocalDate al) {
+        return misura(N_PRENOTA, () -> gestione.prenota(numeroMatricola, nomeCliente, dal, al));
+    }
+
+    public Noleggio ritiraPrenotazione(Prenotazione prenotazione) {
+        Noleggio noleggio = misura(N_RITIRA_PRENOTAZIONE, () -> gestione.ritiraPrenotazione(prenotazione));
+        contaAvvio(noleggio);
+        return noleggio;
+    }
+
+    /**
+     * Fattura i noleggi conclusi misurando la durata dell'intero calcolo
+     *
+     * @param fatturazione motore di fatturazione da usare
+     * @param noleggi noleggi conclusi da fatturare
+     * @return il riepilogo della fatturazione
+     */
+    public RiepilogoFatturazione fattura(FatturazioneNoleggi fatturazione, Collection<Noleggio> noleggi) {
+        if (fatturazione == null) {
+            throw new IllegalArgumentException("fatturazione != null");
+        }
+        return misura(N_FATTURA, () -> fatturazione.fattura(noleggi));
+    }
+
+    private <T> T misura(int operazione, Supplier<T> azione) {
+        long inizio = System.nanoTime();
+        try {
+            return azione.get();
+        } catch (RuntimeException e) {
+            errori[operazione].increment();
+            throw e;
+        } finally {
+            latenze[operazione].registra(System.nanoTime() - inizio);  // anche le chiamate fallite
+        }
+    }
+
+    private void contaAvvio(Noleggio noleggio) {
+        noleggiAvviati.increment();
+        avviatiPerGiorno.computeIfAbsent(noleggio.getDataInizio(), g -> new LongAdder()).increment();
+    }
+
+    /**
+     * Restituisce l'istogramma delle latenze di un'operazione
+     *
+     * @param operazione nome dell'operazione, es. MetricheAutonoleggio.AVVIA_NOLEGGIO
+     * @return l'istogramma
+     */
+    public IstogrammaLatenze getLatenze(String operazione) {
+        return latenze[indice(operazione)];
+    }
+
+    public long getErrori(String operazione) {
+        return errori[indice(operazione)].sum();
+    }
+
+    private static int indice(String operazione) {
+        for (int i = 0; i < OPERAZIONI.length; i++) {
+            if (OPERAZIONI[i].equals(operazione)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("operazione sconosciuta: " + operazione);
+    }
+
+    public long getNoleggiAvviati() {
+        return noleggiAvviati.sum();
+    }
+
+    public long getNoleggiConclusi() {
+        return noleggiConclusi.sum();
+    }
+
+    /**
+     * @return numero di veicoli attualmente in noleggio
+     */
+    public int getVeicoliInNoleggio() {
+        return gestione.contaVeicoliInNoleggio();
+    }
+
+    /**
+     * @return percentuale della flotta attualmente in noleggio (0 se la flotta è vuota)
+     */
+    public double getUtilizzoPercentuale() {
+        int veicoli = gestione.contaVeicoli();
+        return veicoli == 0 ? 0 : 100.0 * gestione.contaVeicoliInNoleggio() / veicoli;
+    }
+
+    /**
+     * @param giorno data di inizio dei noleggi
+     * @return noleggi avviati tramite questo strato con quella data di inizio
+     */
+    public long getNoleggiDelGiorno(LocalDate giorno) {
+        LongAdder n = avviatiPerGiorno.get(giorno);
+        return n == null ? 0 : n.sum();
+    }
+
+    /**
+     * Azzera latenze e contatori, es. all'inizio di un nuovo periodo di
+     * osservazione. Gli indicatori della flotta non cambiano.
+     */
+    public void azzera() {
+        for (int i = 0; i < OPERAZIONI.length; i++) {
+            latenze[i].azzera();
+            errori[i].reset();
+        }
+        noleggiAvviati.reset();
+        noleggiConclusi.reset();
+        avviatiPerGiorno.clear();
+    }
+
+    /**
+     * Scrive un'istantanea testuale delle metriche: indicatori della flotta,
+     * contatori, noleggi degli ultimi giorni e, per ogni operazione chiamata
+     * almeno una volta, numero di chiamate, errori e latenze in microsecondi
+     *
+     * @param sb dove scrivere
+     */
+    public void scriviIstantanea(StringBuilder sb) {
+        sb.append("=== METRICHE ").append(gestione.getNomeAzienda().toUpperCase()).append(" ===\n");
+        sb.append("Veicoli: ").append(gestione.contaVeicoli())
+                .append(" | In noleggio: ").append(getVeicoliInNoleggio())
+                .append(" | Utilizzo: ");
+        FormattatoreNoleggi.scriviImporto(getUtilizzoPercentuale(), sb);
+        sb.append(" %\n");
+        sb.append("Noleggi avviati: ").append(getNoleggiAvviati())
+                .append(" | Conclusi: ").append(getNoleggiConclusi()).append('\n');
+
+        if (!avviatiPerGiorno.isEmpty()) {
+            sb.append("Noleggi per giorno (ultimi ").append(GIORNI_ESPORTATI).append("):\n");
+            int scritti = 0;
+            for (Map.Entry<LocalDate, LongAdder> e : avviatiPerGiorno.descendingMap().entrySet()) {
+                if (scritti++ == GIORNI_ESPORTATI) {
+                    break;
+                }
+                sb.append("- ");
+                FormattatoreNoleggi.scriviData(e.getKey(), sb);
+                sb.append(": ").append(e.getValue().sum()).append('\n');
+            }
+        }
+
+        sb.append("Operazione | chiamate | errori | media | p50 | p99 | p99.9 | max (µs)\n");
+        for (int i = 0; i < OPERAZIONI.length; i++) {
+            IstogrammaLatenze h = latenze[i];
+            if (h.getConteggio() == 0) {
+                continue;
+            }
+            sb.append(OPERAZIONI[i])
+                    .append(" | ").append(h.getConteggio())
+                    .append(" | ").append(errori[i].sum())
+                    .append(" | ");
+            FormattatoreNoleggi.scriviImporto(h.getMedia() / 1000.0, sb);
+            scriviMicrosecondi(h.percentile(50), sb);
+            scriviMicrosecondi(h.percentile(99), sb);
+            scriviMicrosecondi(h.percentile(99.9), sb);
+            scriviMicrosecondi(h.getMassimo(), sb);
+            sb.append('\n');
+        }
+    }
+
+    private static void scriviMicrosecondi(long nanosecondi, StringBuilder sb) {
+        sb.append(" | ");
+        FormattatoreNoleggi.scriviImporto(nanosecondi / 1000.0, sb);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(1024);
+        scriviIstantanea(sb);
+        return sb.toString();
+    }
+}
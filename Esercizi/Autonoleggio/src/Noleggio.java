@@ -15,7 +15,19 @@ public class Noleggio {
     private LocalDate dataFine;
     private double kmPercorsi;
     private double litriMancanti;
-    private boolean concluso;
+    private double costoTotale;  // calcolato alla conclusione, il noleggio concluso non cambia più
+    private volatile boolean concluso;  // scritto per ultimo: chi lo vede true vede anche i dati finali
+    private volatile Conclusione allaConclusione;  // il gestore registra la conclusione e libera il veicolo
+
+    /**
+     * Quello che il gestore fa alla conclusione. Riceve l'azione che rende
+     * il noleggio concluso: la chiama dopo aver registrato l'evento, così
+     * il giornale viene scritto prima che qualcuno veda il noleggio chiuso.
+     * Se lancia prima di chiamarla, il noleggio resta aperto.
+     */
+    interface Conclusione {
+        void concludi(Runnable pubblica);
+    }
 
     /**
      * Costruttore per creare un nuovo noleggio
@@ -68,10 +80,48 @@ public class Noleggio {
             throw new IllegalArgumentException("litri mancanti >= 0");
         }
 
-        this.dataFine = dataFine;
-        this.kmPercorsi = kmPercorsi;
-        this.litriMancanti = litriMancanti;
-        this.concluso = true;
+        double costo = veicolo.calcolaCostoNoleggio(giorniTra(dataInizio, dataFine), kmPercorsi, litriMancanti);
+
+        // due sportelli che chiudono lo stesso noleggio: solo il primo vince
+        synchronized (this) {
+            if (concluso) {  // ricontrollo, un altro thread può averlo chiuso nel frattempo
+                throw new IllegalStateException("noleggio gia concluso");
+            }
+
+            // i dati finali servono al giornale, ma valgono solo quando concluso diventa true
+            this.dataFine = dataFine;
+            this.kmPercorsi = kmPercorsi;
+            this.litriMancanti = litriMancanti;
+            this.costoTotale = costo;
+
+            Conclusione allaConclusione = this.allaConclusione;
+            try {
+                if (allaConclusione != null) {
+                    allaConclusione.concludi(() -> concluso = true);
+                } else {
+                    concluso = true;
+                }
+            } catch (RuntimeException e) {
+                if (!concluso) {  // non registrato: il noleggio resta aperto com'era
+                    this.dataFine = null;
+                    this.kmPercorsi = 0;
+                    this.litriMancanti = 0;
+                    this.costoTotale = 0;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Registra l'azione da eseguire quando il noleggio viene concluso. Usato
+     * da GestioneAutonoleggio per scrivere il giornale e tenere aggiornata
+     * la disponibilità.
+     *
+     * @param azione azione da eseguire alla conclusione
+     */
+    void setAllaConclusione(Conclusione azione) {
+        this.allaConclusione = azione;
     }
 
     /**
@@ -84,6 +134,10 @@ public class Noleggio {
             throw new IllegalStateException("noleggio non ancora concluso");
         }
 
+        return giorniTra(dataInizio, dataFine);
+    }
+
+    private static int giorniTra(LocalDate dataInizio, LocalDate dataFine) {
         long giorni = java.time.temporal.ChronoUnit.DAYS.between(dataInizio, dataFine);
         // se lo riporta lo stesso giorno, minimo 1 giorno si paga
         return (int) Math.max(1, giorni);
@@ -98,9 +152,7 @@ public class Noleggio {
         if (!concluso) {
             throw new IllegalStateException("Il noleggio non è ancora stato concluso");
         }
-
-        int giorni = calcolaGiorniNoleggio();
-        return veicolo.calcolaCostoNoleggio(giorni, kmPercorsi, litriMancanti);
+        return costoTotale;  // letto dopo concluso: è quello scritto alla conclusione
     }
 
     /**
@@ -113,16 +165,8 @@ public class Noleggio {
             return "Noleggio non ancora concluso";
         }
 
-        int giorni = calcolaGiorniNoleggio();
-        double totale = calcolaCostoTotale();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Dettaglio costi per %s:\n", veicolo.getTarga()));
-        sb.append(String.format("- Periodo: %s → %s (%d giorni)\n", dataInizio, dataFine, giorni));
-        sb.append(String.format("- Km percorsi: %.2f km\n", kmPercorsi));
-        sb.append(String.format("- Carburante mancante: %.2f litri\n", litriMancanti));
-        sb.append(String.format("TOTALE: %.2f €", totale));
-
+        StringBuilder sb = new StringBuilder(160);
+        FormattatoreNoleggi.scriviDettaglioCosti(this, sb);
         return sb.toString();
     }
 
@@ -157,12 +201,8 @@ public class Noleggio {
 
     @Override
     public String toString() {
-        if (!concluso) {
-            return String.format("Noleggio ATTIVO - Cliente: %s | Veicolo: %s | Dal: %s",
-                    nomeCliente, veicolo.getTarga(), dataInizio);
-        } else {
-            return String.format("Noleggio CONCLUSO - Cliente: %s | Veicolo: %s | %s → %s | Costo: %.2f €",
-                    nomeCliente, veicolo.getTarga(), dataInizio, dataFine, calcolaCostoTotale());
-        }
+        StringBuilder sb = new StringBuilder(128);
+        FormattatoreNoleggi.scriviRiga(this, sb);
+        return sb.toString();
     }
 }
@@ -0,0 +1,90 @@
+import java.time.LocalDate;
+
+/**
+ * Copia in sola lettura di un noleggio concluso, letta dall'archivio su
+ * disco. Non tiene un riferimento al Veicolo (che potrebbe non essere più in
+ * flotta) ma solo i dati necessari per lo storico.
+ *
+ * @author giordii.dev
+ */
+public class NoleggioArchiviato {
+
+    private final int numeroMatricola;
+    private final String targa;
+    private final String tipoVeicolo;
+    private final String nomeCliente;
+    private final LocalDate dataInizio;
+    private final LocalDate dataFine;
+    private final double kmPercorsi;
+    private final double litriMancanti;
+    private final double costoTotale;
+
+    /**
+     * Costruttore della classe NoleggioArchiviato
+     *
+     * @param numeroMatricola matricola del veicolo noleggiato
+     * @param targa targa del veicolo noleggiato
+     * @param tipoVeicolo tipo di veicolo (nome della classe)
+     * @param nomeCliente nome del cliente
+     * @param dataInizio data di inizio del noleggio
+     * @param dataFine data di restituzione
+     * @param kmPercorsi km percorsi
+     * @param litriMancanti litri di carburante mancanti
+     * @param costoTotale costo totale calcolato alla conclusione
+     */
+    public NoleggioArchiviato(int numeroMatricola, String targa, String tipoVeicolo, String nomeCliente,
+            LocalDate dataInizio, LocalDate dataFine, double kmPercorsi, double litriMancanti, double costoTotale) {
+        this.numeroMatricola = numeroMatricola;
+        this.targa = targa;
+        this.tipoVeicolo = tipoVeicolo;
+        this.nomeCliente = nomeCliente;
+        this.dataInizio = dataInizio;
+        this.dataFine = dataFine;
+        this.kmPercorsi = kmPercorsi;
+        this.litriMancanti = litriMancanti;
+        this.costoTotale = costoTotale;
+    }
+
+    // Getters
+    public int getNumeroMatricola() {
+        return numeroMatricola;
+    }
+
+    public String getTarga() {
+        return targa;
+    }
+
+    public String getTipoVeicolo() {
+        return tipoVeicolo;
+    }
+
+    public String getNomeCliente() {
+        return nomeCliente;
+    }
+
+    public LocalDate getDataInizio() {
+        return dataInizio;
+    }
+
+    public LocalDate getDataFine() {
+        return dataFine;
+    }
+
+    public double getKmPercorsi() {
+        return kmPercorsi;
+    }
+
+    public double getLitriMancanti() {
+        return litriMancanti;
+    }
+
+    public double getCostoTotale() {
+        return costoTotale;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Noleggio ARCHIVIATO - Cliente: %s | Veicolo: %s | %s → %s | Costo: %.2f €",
+                nomeCliente, targa, dataInizio, dataFine, costoTotale);
+    }
+}
@@ -0,0 +1,426 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rende persistente lo stato di un GestioneAutonoleggio in una cartella:
+ * - fotografia.bin: lo stato completo (flotta, noleggi, prenotazioni) a un
+ *   certo istante, scritta su un file temporaneo e poi rinominata, quindi
+ *   sul disco c'è sempre una fotografia intera;
+ * - giornale-N.log: gli eventi successivi alla fotografia di generazione N.
+ *
+ * Al riavvio si carica la fotografia e si rieseguono gli eventi del
+ * giornale; una coda di giornale incompleta (crash durante la scrittura)
+ * viene scartata. Ogni nuova fotografia apre un giornale nuovo, così il
+ * tempo di ripristino dipende solo dagli eventi dopo l'ultima fotografia.
+ *
+ * Limiti: si salvano solo Autovettura e Furgone; l'archivio su disco dei
+ * noleggi conclusi (ArchivioNoleggi) non è gestito, lo storico sta tutto
+ * nella fotografia.
+ *
+ * @author giordii.dev
+ */
+public class PersistenzaAutonoleggio implements RegistroEventi, Closeable {
+
+    private static final String FOTOGRAFIA = "fotografia.bin";
+    private static final String PREFISSO_GIORNALE = "giornale-";
+    private static final String ESTENSIONE_GIORNALE = ".log";
+    private static final int MAGIC = 0x4155544E;  // "AUTN"
+    private static final int VERSIONE = 1;
+
+    private final Path cartella;
+    private final GestioneAutonoleggio gestione;
+    private volatile GiornaleEventi giornale;  // cambiato solo con la flotta bloccata
+    private long generazione;
+    private ScheduledExecutorService pianificatore;
+
+    private PersistenzaAutonoleggio(Path cartella, GestioneAutonoleggio gestione, GiornaleEventi giornale, long generazione) {
+        this.cartella = cartella;
+        this.gestione = gestione;
+        this.giornale = giornale;
+        this.generazione = generazione;
+    }
+
+    /**
+     * Apre (o crea) la persistenza in una cartella e ricostruisce lo stato
+     * salvato. Da qui in poi ogni modifica alla gestione restituita viene
+     * scritta sul giornale prima che l'operazione dello sportello termini.
+     *
+     * @param cartella cartella dei file di persistenza
+     * @param nomeAzienda nome dell'azienda, usato se la cartella è vuota
+     * @return la persistenza aperta
+     * @throws IOException se i file non possono essere letti o sono corrotti
+     */
+    public static PersistenzaAutonoleggio apri(Path cartella, String nomeAzienda) throws IOException {
+        if (cartella == null) {
+            throw new IllegalArgumentException("cartella != null");
+        }
+        Files.createDirectories(cartella);
+
+        GestioneAutonoleggio gestione;
+        long generazione = 0;
+        Path fotografia = cartella.resolve(FOTOGRAFIA);
+
+        if (Files.exists(fotografia)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fotografia), 65536))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSIONE) {
+                    throw new IOException("fotografia non riconosciuta: " + fotografia);
+                }
+                generazione = in.readLong();
+                gestione = new GestioneAutonoleggio(in.readUTF());
+                leggiFotografia(in, gestione);
+            }
+        } else {
+            gestione = new GestioneAutonoleggio(nomeAzienda);
+        }
+
+        Path file = fileGiornale(cartella, generazione);
+        if (Files.exists(file)) {
+            long valido = riesegui(file, gestione);
+            try (FileChannel canale = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                canale.truncate(valido);  // scarto la coda scritta a metà
+            }
+        }
+        eliminaGiornaliTranne(cartella, generazione);
+
+        PersistenzaAutonoleggio persistenza = new PersistenzaAutonoleggio(cartella, gestione, new GiornaleEventi(file), generazione);
+        gestione.setRegistroEventi(persistenza);
+        return persistenza;
+    }
+
+    public GestioneAutonoleggio getGestione() {
+        return gestione;
+    }
+
+    /**
+     * Salva una fotografia dello stato attuale e riparte con un giornale
+     * vuoto. Gli sportelli restano fermi solo per il tempo della scrittura.
+     *
+     * @throws IOException in caso di errore di scrittura
+     */
+    public synchronized void scattaFotografia() throws IOException {
+        try {
+            gestione.eseguiConFlottaBloccata(() -> {
+                try {
+                    cambiaGenerazione();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Scatta una fotografia a intervalli regolari su un thread di sfondo
+     *
+     * @param periodo intervallo tra due fotografie
+     * @param unita unità di misura del periodo
+     */
+    public synchronized void avviaFotografiePeriodiche(long periodo, TimeUnit unita) {
+        if (periodo <= 0 || unita == null) {
+            throw new IllegalArgumentException("periodo > 0");
+        }
+        if (pianificatore != null) {
+            throw new IllegalStateException("fotografie periodiche gia avviate");
+        }
+
+        pianificatore = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fotografie-autonoleggio");
+            t.setDaemon(true);
+            return t;
+        });
+        pianificatore.scheduleWithFixedDelay(() -> {
+            try {
+                scattaFotografia();
+            } catch (IOException e) {
+                // il giornale resta valido: si riprova al prossimo giro
+                System.err.println("Fotografia non riuscita: " + e.getMessage());
+            }
+        }, periodo, periodo, unita);
+    }
+
+    /**
+     * Scollega la persistenza e chiude il giornale dopo aver scritto gli
+     * ultimi eventi
+     *
+     * @throws IOException in caso di errore di scrittura
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (pianificatore != null) {
+                pianificatore.shutdownNow();
+                pianificatore = null;
+            }
+        }
+        gestione.eseguiConFlottaBloccata(() -> gestione.setRegistroEventi(null));
+        giornale.close();
+    }
+
+    /**
+     * Va chiamato con la flotta bloccata: nessun evento arriva mentre cambio giornale
+     */
+    private void cambiaGenerazione() throws IOException {
+        long nuova = generazione + 1;
+        Path fileNuovo = fileGiornale(cartella, nuova);
+        Files.deleteIfExists(fileNuovo);  // avanzo di un tentativo fallito
+        GiornaleEventi giornaleNuovo = new GiornaleEventi(fileNuovo);
+
+        Path temporaneo = cartella.resolve(FOTOGRAFIA + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporaneo.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSIONE);
+                out.writeLong(nuova);
+                out.writeUTF(gestione.getNomeAzienda());
+                scriviFotografia(out, gestione);
+                out.flush();
+                file.getFD().sync();
+            }
+            // da qui il ripristino usa la nuova fotografia e il giornale nuovo (vuoto)
+            Files.move(temporaneo, cartella.resolve(FOTOGRAFIA), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            giornaleNuovo.close();
+            Files.deleteIfExists(temporaneo);
+            throw e;
+        }
+
+        GiornaleEventi vecchio = giornale;
+        giornale = giornaleNuovo;
+        generazione = nuova;
+        vecchio.close();
+        Files.deleteIfExists(fileGiornale(cartella, nuova - 1));
+    }
+
+    private static void scriviFotografia(DataOutputStream out, GestioneAutonoleggio gestione) throws IOException {
+        ArrayList<Veicolo> flotta = new ArrayList<>(gestione.getVeicoliPerTipo(Veicolo.class));
+        HashMap<Veicolo, Boolean> inFlotta = new HashMap<>();
+        out.writeInt(flotta.size());
+        for (Veicolo v : flotta) {
+            GiornaleEventi.scriviVeicolo(v, out);
+            inFlotta.put(v, Boolean.TRUE);
+        }
+
+        ArrayList<Noleggio> conclusi = gestione.getNoleggiConclusi();
+        out.writeInt(conclusi.size());
+        for (Noleggio n : conclusi) {
+            // un veicolo già rimosso dalla flotta va salvato per intero
+            if (inFlotta.containsKey(n.getVeicolo())) {
+                out.writeBoolean(true);
+                out.writeInt(n.getVeicolo().getNumeroMatricola());
+            } else {
+                out.writeBoolean(false);
+                GiornaleEventi.scriviVeicolo(n.getVeicolo(), out);
+            }
+            out.writeUTF(n.getNomeCliente());
+            out.writeLong(n.getDataInizio().toEpochDay());
+            out.writeLong(n.getDataFine().toEpochDay());
+            out.writeDouble(n.getKmPercorsi());
+            out.writeDouble(n.getLitriMancanti());
+        }
+
+        ArrayList<Prenotazione> prenotazioni = gestione.getPrenotazioni();
+        out.writeInt(prenotazioni.size());
+        for (Prenotazione p : prenotazioni) {
+            out.writeInt(p.getVeicolo().getNumeroMatricola());
+            out.writeUTF(p.getNomeCliente());
+            out.writeLong(p.getDataInizio().toEpochDay());
+            out.writeLong(p.getDataFine().toEpochDay());
+        }
+
+        // anche i noleggi appena conclusi ma non ancora spostati nello
+        // storico (aspettano il lock) sono salvati come attivi: la loro
+        // conclusione finirà nel giornale nuovo
+        ArrayList<Noleggio> attivi = gestione.getNoleggiAttivi();
+        out.writeInt(attivi.size());
+        for (Noleggio n : attivi) {
+            out.writeInt(n.getVeicolo().getNumeroMatricola());
+            out.writeUTF(n.getNomeCliente());
+            out.writeLong(n.getDataInizio().toEpochDay());
+        }
+    }
+
+    private static void leggiFotografia(DataInputStream in, GestioneAutonoleggio gestione) throws IOException {
+        int veicoli = in.readInt();
+        for (int i = 0; i < veicoli; i++) {
+            gestione.aggiungiVeicolo(GiornaleEventi.leggiVeicolo(in));
+        }
+
+        int conclusi = in.readInt();
+        for (int i = 0; i < conclusi; i++) {
+            Veicolo v = in.readBoolean() ? gestione.cercaVeicolo(in.readInt()) : GiornaleEventi.leggiVeicolo(in);
+            if (v == null) {
+                throw new IOException("fotografia corrotta: veicolo di un noleggio non trovato");
+            }
+            Noleggio n = new Noleggio(v, in.readUTF(), GiornaleEventi.leggiData(in));
+            n.concludiNoleggio(GiornaleEventi.leggiData(in), in.readDouble(), in.readDouble());
+            gestione.ripristinaNoleggioConcluso(n);
+        }
+
+        // prima le prenotazioni: un veicolo in noleggio non si può prenotare
+        int prenotazioni = in.readInt();
+        for (int i = 0; i < prenotazioni; i++) {
+            gestione.prenota(in.readInt(), in.readUTF(), GiornaleEventi.leggiData(in), GiornaleEventi.leggiData(in));
+        }
+
+        int attivi = in.readInt();
+        for (int i = 0; i < attivi; i++) {
+            gestione.avviaNoleggio(in.readInt(), in.readUTF(), GiornaleEventi.leggiData(in));
+        }
+    }
+
+    /**
+     * Riesegue gli eventi del giornale sulla gestione
+     *
+     * @return lunghezza in byte della parte valida del giornale
+     */
+    private static long riesegui(Path file, GestioneAutonoleggio gestione) throws IOException {
+        HashMap<Integer, Noleggio> attivi = new HashMap<>();  // matricola -> noleggio in corso
+        for (Noleggio n : gestione.getNoleggiAttivi()) {
+            attivi.put(n.getVeicolo().getNumeroMatricola(), n);
+        }
+
+        long valido = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            byte[] record;
+            while ((record = GiornaleEventi.leggiRecord(in)) != null) {
+                try {
+                    applica(record, gestione, attivi);
+                } catch (RuntimeException e) {
+                    throw new IOException("evento del giornale non applicabile a " + valido + ": " + e.getMessage(), e);
+                }
+                valido += GiornaleEventi.dimensioneRecord(record);
+            }
+        }
+        return valido;
+    }
+
+    private static void applica(byte[] record, GestioneAutonoleggio gestione, HashMap<Integer, Noleggio> attivi) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte tipo = in.readByte();
+
+        switch (tipo) {
+            case GiornaleEventi.VEICOLO_AGGIUNTO:
+                gestione.aggiungiVeicolo(GiornaleEventi.leggiVeicolo(in));
+                break;
+            case GiornaleEventi.VEICOLO_RIMOSSO:
+                gestione.rimuoviVeicolo(in.readInt());
+                break;
+            case GiornaleEventi.NOLEGGIO_AVVIATO: {
+                Noleggio n = gestione.avviaNoleggio(in.readInt(), in.readUTF(), GiornaleEventi.leggiData(in));
+                attivi.put(n.getVeicolo().getNumeroMatricola(), n);
+                break;
+            }
+            case GiornaleEventi.NOLEGGIO_CONCLUSO: {
+                Noleggio n = attivi.remove(in.readInt());
+                if (n == null) {
+                    throw new IllegalStateException("noleggio attivo non trovato");
+                }
+                n.concludiNoleggio(GiornaleEventi.leggiData(in), in.readDouble(), in.readDouble());
+                break;
+            }
+            case GiornaleEventi.PRENOTAZIONE_AGGIUNTA:
+                gestione.prenota(in.readInt(), in.readUTF(), GiornaleEventi.leggiData(in), GiornaleEventi.leggiData(in));
+                break;
+            case GiornaleEventi.PRENOTAZIONE_ANNULLATA:
+                gestione.annullaPrenotazione(cercaPrenotazione(gestione, in.readInt(), GiornaleEventi.leggiData(in)));
+                break;
+            case GiornaleEventi.PRENOTAZIONE_RITIRATA: {
+                Noleggio n = gestione.ritiraPrenotazione(cercaPrenotazione(gestione, in.readInt(), GiornaleEventi.leggiData(in)));
+                attivi.put(n.getVeicolo().getNumeroMatricola(), n);
+                break;
+            }
+            case GiornaleEventi.PRENOTAZIONI_SCADUTE:
+                gestione.pulisciPrenotazioniScadute(GiornaleEventi.leggiData(in));
+                break;
+            default:
+                throw new IOException("tipo evento sconosciuto: " + tipo);
+        }
+    }
+
+    private static Prenotazione cercaPrenotazione(GestioneAutonoleggio gestione, int numeroMatricola, LocalDate dal) {
+        Prenotazione p = gestione.cercaPrenotazione(numeroMatricola, dal);
+        if (p == null || !p.getDataInizio().equals(dal)) {
+            throw new IllegalStateException("prenotazione " + numeroMatricola + " dal " + dal + " non trovata");
+        }
+        return p;
+    }
+
+    private static Path fileGiornale(Path cartella, long generazione) {
+        return cartella.resolve(PREFISSO_GIORNALE + generazione + ESTENSIONE_GIORNALE);
+    }
+
+    private static void eliminaGiornaliTranne(Path cartella, long generazione) throws IOException {
+        String tenere = fileGiornale(cartella, generazione).getFileName().toString();
+        try (DirectoryStream<Path> giornali = Files.newDirectoryStream(cartella, PREFISSO_GIORNALE + "*" + ESTENSIONE_GIORNALE)) {
+            for (Path p : giornali) {
+                if (!p.getFileName().toString().equals(tenere)) {
+                    Files.delete(p);  // di generazioni vecchie o di una fotografia mai completata
+                }
+            }
+        }
+    }
+
+    // eventi della gestione, inoltrati al giornale della generazione corrente
+
+    @Override
+    public void veicoloAggiunto(Veicolo veicolo) {
+        giornale.veicoloAggiunto(veicolo);
+    }
+
+    @Override
+    public void veicoloRimosso(int numeroMatricola) {
+        giornale.veicoloRimosso(numeroMatricola);
+    }
+
+    @Override
+    public void noleggioAvviato(Noleggio noleggio) {
+        giornale.noleggioAvviato(noleggio);
+    }
+
+    @Override
+    public void noleggioConcluso(Noleggio noleggio) {
+        giornale.noleggioConcluso(noleggio);
+    }
+
+    @Override
+    public void prenotazioneAggiunta(Prenotazione prenotazione) {
+        giornale.prenotazioneAggiunta(prenotazione);
+    }
+
+    @Override
+    public void prenotazioneAnnullata(Prenotazione prenotazione) {
+        giornale.prenotazioneAnnullata(prenotazione);
+    }
+
+    @Override
+    public void prenotazioneRitirata(Prenotazione prenotazione) {
+        giornale.prenotazioneRitirata(prenotazione);
+    }
+
+    @Override
+    public void prenotazioniScaduteEliminate(LocalDate oggi) {
+        giornale.prenotazioniScaduteEliminate(oggi);
+    }
+}
@@ -0,0 +1,77 @@
+import java.time.LocalDate;
+
+/**
+ * Classe che rappresenta la prenotazione di un veicolo per un periodo futuro.
+ * Il periodo comprende sia il giorno di inizio sia quello di fine.
+ *
+ * @author giordii.dev
+ */
+public class Prenotazione {
+
+    private final Veicolo veicolo;
+    private final String nomeCliente;
+    private final LocalDate dataInizio;
+    private final LocalDate dataFine;
+
+    /**
+     * Costruttore della classe Prenotazione
+     *
+     * @param veicolo il veicolo prenotato
+     * @param nomeCliente nome del cliente
+     * @param dataInizio primo giorno di noleggio
+     * @param dataFine ultimo giorno di noleggio (compreso)
+     */
+    public Prenotazione(Veicolo veicolo, String nomeCliente, LocalDate dataInizio, LocalDate dataFine) {
+        if (veicolo == null) {
+            throw new IllegalArgumentException("veicolo != null");
+        }
+        if (nomeCliente == null || nomeCliente.trim().isEmpty()) {
+            throw new IllegalArgumentException("nome cliente != null");
+        }
+        if (dataInizio == null || dataFine == null) {
+            throw new IllegalArgumentException("date != null");
+        }
+        if (dataFine.isBefore(dataInizio)) {
+            throw new IllegalArgumentException("data fine >= data inizio");
+        }
+
+        this.veicolo = veicolo;
+        this.nomeCliente = nomeCliente;
+        this.dataInizio = dataInizio;
+        this.dataFine = dataFine;
+    }
+
+    /**
+     * Verifica se la prenotazione si sovrappone a un periodo
+     *
+     * @param dal primo giorno del periodo
+     * @param al ultimo giorno del periodo (compreso)
+     * @return true se almeno un giorno è in comune
+     */
+    public boolean siSovrappone(LocalDate dal, LocalDate al) {
+        return !dataInizio.isAfter(al) && !dataFine.isBefore(dal);
+    }
+
+    // Getters
+    public Veicolo getVeicolo() {
+        return veicolo;
+    }
+
+    public String getNomeCliente() {
+        return nomeCliente;
+    }
+
+    public LocalDate getDataInizio() {
+        return dataInizio;
+    }
+
+    public LocalDate getDataFine() {
+        return dataFine;
+    }
+
+    @Override
+    public String toString() {
+        return "Prenotazione - Cliente: " + nomeCliente + " | Veicolo: " + veicolo.getTarga()
+                + " | " + dataInizio + " → " + dataFine;
+    }
+}
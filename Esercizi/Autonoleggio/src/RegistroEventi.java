@@ -0,0 +1,30 @@
+import java.time.LocalDate;
+
+/**
+ * Riceve gli eventi che modificano lo stato di GestioneAutonoleggio, nello
+ * stesso ordine in cui vengono applicati. Usato dal giornale su disco per
+ * poter ricostruire flotta e noleggi dopo un riavvio.
+ *
+ * Se un metodo lancia un'eccezione, l'operazione dello sportello fallisce:
+ * dove possibile GestioneAutonoleggio annulla la modifica appena fatta.
+ *
+ * @author giordii.dev
+ */
+public interface RegistroEventi {
+
+    void veicoloAggiunto(Veicolo veicolo);
+
+    void veicoloRimosso(int numeroMatricola);
+
+    void noleggioAvviato(Noleggio noleggio);
+
+    void noleggioConcluso(Noleggio noleggio);
+
+    void prenotazioneAggiunta(Prenotazione prenotazione);
+
+    void prenotazioneAnnullata(Prenotazione prenotazione);
+
+    void prenotazioneRitirata(Prenotazione prenotazione);
+
+    void prenotazioniScaduteEliminate(LocalDate oggi);
+}
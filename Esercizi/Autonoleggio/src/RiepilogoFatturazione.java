@@ -0,0 +1,170 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Risultato di un giro di fatturazione: totale generale e totali per tipo di
+ * veicolo e per cliente. Gli importi sono tenuti in centesimi (long), così la
+ * somma non dipende dall'ordine in cui vengono sommati i noleggi e il calcolo
+ * parallelo dà esattamente lo stesso risultato di quello sequenziale.
+ *
+ * @author giordii.dev
+ */
+public class RiepilogoFatturazione {
+
+    // valore = {centesimi, numero noleggi}: array mutabile, niente Long/Integer
+    private final HashMap<String, long[]> perTipo;
+    private final HashMap<String, long[]> perCliente;
+    private long totaleCentesimi;
+    private int numeroNoleggi;
+
+    RiepilogoFatturazione() {
+        this.perTipo = new HashMap<>();
+        this.perCliente = new HashMap<>();
+        this.totaleCentesimi = 0;
+        this.numeroNoleggi = 0;
+    }
+
+    /**
+     * Converte un importo in euro nei centesimi fatturati, con lo stesso
+     * arrotondamento della ricevuta (FormattatoreNoleggi): 224.70499999999998
+     * è stampato "224.70" e fatturato 22470 centesimi
+     *
+     * @param euro importo in euro
+     * @return importo in centesimi
+     */
+    public static long inCentesimi(double euro) {
+        if (Double.isNaN(euro) || Double.isInfinite(euro)) {
+            throw new IllegalArgumentException("importo finito");
+        }
+        return FormattatoreNoleggi.centesimi(euro);
+    }
+
+    void aggiungi(String tipo, String cliente, long centesimi) {
+        totaleCentesimi += centesimi;
+        numeroNoleggi++;
+        accumula(perTipo, tipo, centesimi, 1);
+        accumula(perCliente, cliente, centesimi, 1);
+    }
+
+    void unisci(RiepilogoFatturazione altro) {
+        totaleCentesimi += altro.totaleCentesimi;
+        numeroNoleggi += altro.numeroNoleggi;
+        for (Map.Entry<String, long[]> e : altro.perTipo.entrySet()) {
+            accumula(perTipo, e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+        for (Map.Entry<String, long[]> e : altro.perCliente.entrySet()) {
+            accumula(perCliente, e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+    }
+
+    private static void accumula(HashMap<String, long[]> mappa, String chiave, long centesimi, long quanti) {
+        long[] valore = mappa.get(chiave);
+        if (valore == null) {
+            valore = new long[2];
+            mappa.put(chiave, valore);
+        }
+        valore[0] += centesimi;
+        valore[1] += quanti;
+    }
+
+    public long getTotaleCentesimi() {
+        return totaleCentesimi;
+    }
+
+    public double getTotale() {
+        return totaleCentesimi / 100.0;
+    }
+
+    public int getNumeroNoleggi() {
+        return numeroNoleggi;
+    }
+
+    /**
+     * @return i tipi di veicolo fatturati, in ordine alfabetico
+     */
+    public Set<String> getTipiVeicolo() {
+        return Collections.unmodifiableSet(new TreeSet<>(perTipo.keySet()));
+    }
+
+    /**
+     * @return i clienti fatturati, in ordine alfabetico
+     */
+    public Set<String> getClienti() {
+        return Collections.unmodifiableSet(new TreeSet<>(perCliente.keySet()));
+    }
+
+    /**
+     * @param tipo tipo di veicolo (nome della classe, es. "Furgone")
+     * @return totale in centesimi per quel tipo, 0 se assente
+     */
+    public long getTotalePerTipo(String tipo) {
+        long[] valore = perTipo.get(tipo);
+        return valore == null ? 0 : valore[0];
+    }
+
+    /**
+     * @param cliente nome del cliente
+     * @return totale in centesimi per quel cliente, 0 se assente
+     */
+    public long getTotalePerCliente(String cliente) {
+        long[] valore = perCliente.get(cliente);
+        return valore == null ? 0 : valore[0];
+    }
+
+    /**
+     * @param cliente nome del cliente
+     * @return numero di noleggi fatturati al cliente
+     */
+    public int getNoleggiPerCliente(String cliente) {
+        long[] valore = perCliente.get(cliente);
+        return valore == null ? 0 : (int) valore[1];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RiepilogoFatturazione)) {
+            return false;
+        }
+
+        RiepilogoFatturazione altro = (RiepilogoFatturazione) o;
+        return totaleCentesimi == altro.totaleCentesimi
+                && numeroNoleggi == altro.numeroNoleggi
+                && stessiTotali(perTipo, altro.perTipo)
+                && stessiTotali(perCliente, altro.perCliente);
+    }
+
+    private static boolean stessiTotali(HashMap<String, long[]> a, HashMap<String, long[]> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<String, long[]> e : a.entrySet()) {
+            long[] altro = b.get(e.getKey());
+            if (altro == null || altro[0] != e.getValue()[0] || altro[1] != e.getValue()[1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(totaleCentesimi) * 31 + numeroNoleggi;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Fatturazione: %d noleggi | Totale: %.2f €\n", numeroNoleggi, getTotale()));
+        for (Map.Entry<String, long[]> e : new TreeMap<>(perTipo).entrySet()) {
+            sb.append(String.format("- %s: %d noleggi, %.2f €\n", e.getKey(), e.getValue()[1], e.getValue()[0] / 100.0));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,278 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prova di carico di GestioneAutonoleggio con più sportelli insieme.
+ *
+ * Prima parte: ogni sportello avvia e conclude noleggi su veicoli scelti a
+ * caso e interroga la flotta per tipo (veicoli liberi, vista per tipo,
+ * conteggi), mentre un altro thread aggiunge e rimuove veicoli. Ogni thread
+ * usa un seme fisso, quindi la sequenza di operazioni è sempre la stessa;
+ * cambia solo l'intreccio tra i thread. Alla fine controlla che nessun
+ * veicolo sia stato noleggiato due volte e che contatori e indici tornino.
+ *
+ * Seconda parte: misura i cicli noleggio/riconsegna al secondo con 1, 2, 4
+ * e 8 sportelli, prima su veicoli diversi per sportello e poi tutti sugli
+ * stessi pochi veicoli (contesa massima).
+ *
+ * Esce con codice 1 se un controllo fallisce.
+ *
+ * @author giordii.dev
+ */
+public class TestConcorrenza {
+
+    private static final int SPORTELLI = 8;
+    private static final int OPERAZIONI_PER_SPORTELLO = 60_000;
+    private static final int AUTO = 150;
+    private static final int FURGONI = 150;
+    private static final int MATRICOLA_PASSANTI = 100_000;  // veicoli aggiunti e tolti durante la prova
+    private static final long SEME = 20240601L;
+    private static final LocalDate OGGI = LocalDate.of(2024, 6, 1);
+
+    private static final ConcurrentLinkedQueue<String> errori = new ConcurrentLinkedQueue<>();
+
+    public static void main(String[] args) throws InterruptedException {
+        provaDiCarico();
+        esciSeErrori();
+
+        System.out.println();
+        System.out.println("cicli noleggio/riconsegna al secondo");
+        System.out.println("sportelli   veicoli diversi   stessi 4 veicoli");
+        for (int sportelli : new int[] {1, 2, 4, 8}) {
+            long separati = misura(sportelli, false);
+            long contesi = misura(sportelli, true);
+            System.out.printf("%9d   %15d   %16d%n", sportelli, separati, contesi);
+        }
+        esciSeErrori();
+    }
+
+    private static void esciSeErrori() {
+        for (String e : errori) {
+            System.out.println("ERRORE: " + e);
+        }
+        if (!errori.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static GestioneAutonoleggio flotta(int auto, int furgoni) {
+        GestioneAutonoleggio g = new GestioneAutonoleggio("Prova");
+        for (int i = 1; i <= auto; i++) {
+            g.aggiungiVeicolo(new Autovettura("AU" + i, i, "Fiat", "Panda", 1200, 2022, 40.0, 5));
+        }
+        for (int i = 1; i <= furgoni; i++) {
+            g.aggiungiVeicolo(new Furgone("FU" + i, auto + i, "Iveco", "Daily", 2300, 2021, 80.0, 1500.0));
+        }
+        return g;
+    }
+
+    private static void provaDiCarico() throws InterruptedException {
+        GestioneAutonoleggio g = flotta(AUTO, FURGONI);
+        int flottaBase = AUTO + FURGONI;
+        AtomicIntegerArray fuori = new AtomicIntegerArray(flottaBase + 1);  // noleggi aperti per matricola
+        AtomicLong avviati = new AtomicLong();
+        AtomicLong rifiutati = new AtomicLong();
+        AtomicLong interrogazioni = new AtomicLong();
+        CountDownLatch via = new CountDownLatch(1);
+        CountDownLatch sportelliFiniti = new CountDownLatch(SPORTELLI);
+
+        ArrayList<Thread> thread = new ArrayList<>();
+        for (int t = 0; t < SPORTELLI; t++) {
+            long seme = SEME + t;
+            thread.add(new Thread(() -> {
+                SplittableRandom caso = new SplittableRandom(seme);
+                ArrayList<Noleggio> miei = new ArrayList<>();
+                try {
+                    via.await();
+                    for (int op = 0; op < OPERAZIONI_PER_SPORTELLO; op++) {
+                        int scelta = caso.nextInt(10);
+                        if (scelta < 5) {
+                            int m = caso.nextInt(1, flottaBase + 1);
+                            try {
+                                Noleggio n = g.avviaNoleggio(m, "Cliente" + seme, OGGI);
+                                if (fuori.getAndIncrement(m) != 0) {
+                                    errori.add("veicolo " + m + " noleggiato due volte");
+                                }
+                                miei.add(n);
+                                avviati.incrementAndGet();
+                            } catch (IllegalStateException e) {
+                                rifiutati.incrementAndGet();  // già fuori: normale
+                            }
+                        } else if (scelta < 8) {
+                            if (!miei.isEmpty()) {
+                                riconsegna(miei.remove(caso.nextInt(miei.size())), fuori);
+                            }
+                        } else {
+                            interroga(g, caso, flottaBase);
+                            interrogazioni.incrementAndGet();
+                        }
+                    }
+                    for (Noleggio n : miei) {
+                        riconsegna(n, fuori);
+                    }
+                } catch (Throwable e) {
+                    errori.add("sportello " + seme + ": " + e);
+                } finally {
+                    sportelliFiniti.countDown();
+                }
+            }));
+        }
+
+        // aggiunge e toglie veicoli finché gli sportelli lavorano: cambia gli indici per tipo
+        Thread officina = new Thread(() -> {
+            SplittableRandom caso = new SplittableRandom(SEME - 1);
+            int prossima = MATRICOLA_PASSANTI;
+            ArrayList<Integer> presenti = new ArrayList<>();
+            try {
+                via.await();
+                while (sportelliFiniti.getCount() > 0) {
+                    if (presenti.size() < 20 && caso.nextBoolean()) {
+                        int m = prossima++;
+                        g.aggiungiVeicolo(caso.nextBoolean()
+                                ? new Autovettura("PA" + m, m, "Fiat", "Tipo", 1400, 2023, 45.0, 5)
+                                : new Furgone("PF" + m, m, "Ford", "Transit", 2000, 2023, 70.0, 1200.0));
+                        presenti.add(m);
+                    } else if (!presenti.isEmpty()) {
+                        g.rimuoviVeicolo(presenti.remove(caso.nextInt(presenti.size())));
+                    }
+                    Thread.yield();
+                }
+                for (int m : presenti) {
+                    g.rimuoviVeicolo(m);
+                }
+            } catch (Throwable e) {
+                errori.add("officina: " + e);
+            }
+        });
+
+        long inizio = System.nanoTime();
+        for (Thread t : thread) {
+            t.start();
+        }
+        officina.start();
+        via.countDown();
+        for (Thread t : thread) {
+            t.join();
+        }
+        officina.join();
+        long ms = (System.nanoTime() - inizio) / 1_000_000;
+
+        // tutto riconsegnato: nessun noleggio aperto, tutti nello storico
+        for (int m = 1; m <= flottaBase; m++) {
+            if (fuori.get(m) != 0) {
+                errori.add("veicolo " + m + " risulta ancora fuori");
+            }
+        }
+        controlla(g.contaVeicoliInNoleggio() == 0, "veicoli in noleggio: " + g.contaVeicoliInNoleggio());
+        controlla(g.getNoleggiAttivi().isEmpty(), "noleggi attivi: " + g.getNoleggiAttivi().size());
+        controlla(g.contaNoleggi() == avviati.get(), "noleggi " + g.contaNoleggi() + " invece di " + avviati.get());
+        controlla(g.getNoleggiConclusi().size() == avviati.get(), "conclusi: " + g.getNoleggiConclusi().size());
+
+        // indici per tipo coerenti con la flotta
+        controlla(g.contaVeicoli() == flottaBase, "veicoli in flotta: " + g.contaVeicoli());
+        controlla(g.contaPerTipo(Veicolo.class) == flottaBase, "Veicolo: " + g.contaPerTipo(Veicolo.class));
+        controlla(g.contaPerTipo(Autovettura.class) == AUTO, "Autovettura: " + g.contaPerTipo(Autovettura.class));
+        controlla(g.contaPerTipo(Furgone.class) == FURGONI, "Furgone: " + g.contaPerTipo(Furgone.class));
+        controlla(g.getVeicoliPerTipo(Veicolo.class).size() == flottaBase, "vista Veicolo");
+        controlla(g.getVeicoliLiberi(Veicolo.class, OGGI, OGGI).size() == flottaBase, "liberi a fine prova");
+
+        System.out.println("TestConcorrenza: " + SPORTELLI + " sportelli, " + avviati.get() + " noleggi, "
+                + rifiutati.get() + " rifiutati (veicolo fuori), " + interrogazioni.get() + " interrogazioni in "
+                + ms + " ms, " + errori.size() + " errori");
+    }
+
+    private static void riconsegna(Noleggio n, AtomicIntegerArray fuori) {
+        // prima di concludere: appena concluso, un altro sportello può già riprenderlo
+        fuori.decrementAndGet(n.getVeicolo().getNumeroMatricola());
+        n.concludiNoleggio(OGGI.plusDays(3), 250.0, 5.0);
+    }
+
+    private static void interroga(GestioneAutonoleggio g, SplittableRandom caso, int flottaBase) {
+        switch (caso.nextInt(4)) {
+            case 0: {
+                ArrayList<Furgone> liberi = g.getVeicoliLiberi(Furgone.class, OGGI, OGGI.plusDays(2));
+                for (Furgone f : liberi) {
+                    controlla(f != null, "furgone null tra i liberi");
+                }
+                break;
+            }
+            case 1: {
+                // la vista si scorre mentre l'officina cambia la flotta
+                int n = 0;
+                Collection<Autovettura> auto = g.getVeicoliPerTipo(Autovettura.class);
+                for (Autovettura a : auto) {
+                    controlla(a != null, "auto null nella vista");
+                    n++;
+                }
+                controlla(n >= AUTO, "vista Autovettura con " + n + " veicoli");
+                break;
+            }
+            case 2: {
+                int n = g.contaPerTipo(Veicolo.class);
+                controlla(n >= flottaBase && n <= flottaBase + 20, "contaPerTipo(Veicolo) = " + n);
+                break;
+            }
+            default: {
+                controlla(g.getFurgoni().size() >= FURGONI, "getFurgoni");
+                break;
+            }
+        }
+    }
+
+    private static void controlla(boolean condizione, String messaggio) {
+        if (!condizione) {
+            errori.add(messaggio);
+        }
+    }
+
+    /**
+     * Cicli noleggio/riconsegna al secondo. Con contesa tutti gli sportelli
+     * provano sugli stessi 4 veicoli; senza, ognuno ha i suoi.
+     */
+    private static long misura(int sportelli, boolean contesa) throws InterruptedException {
+        int veicoliPerSportello = 16;
+        GestioneAutonoleggio g = flotta(contesa ? 4 : sportelli * veicoliPerSportello, 0);
+        AtomicLong cicli = new AtomicLong();
+        long durataNs = 300_000_000L;
+        CountDownLatch via = new CountDownLatch(1);
+
+        ArrayList<Thread> thread = new ArrayList<>();
+        for (int t = 0; t < sportelli; t++) {
+            int primo = contesa ? 1 : t * veicoliPerSportello + 1;
+            int quanti = contesa ? 4 : veicoliPerSportello;
+            thread.add(new Thread(() -> {
+                long fatti = 0;
+                try {
+                    via.await();
+                    long fine = System.nanoTime() + durataNs;
+                    for (int i = 0; System.nanoTime() < fine; i++) {
+                        try {
+                            Noleggio n = g.avviaNoleggio(primo + i % quanti, "Cliente", OGGI);
+                            n.concludiNoleggio(OGGI, 10.0, 0.0);
+                            fatti++;
+                        } catch (IllegalStateException e) {
+                            // preso da un altro sportello
+                        }
+                    }
+                } catch (Throwable e) {
+                    errori.add("misura: " + e);
+                }
+                cicli.addAndGet(fatti);
+            }));
+        }
+        for (Thread t : thread) {
+            t.start();
+        }
+        via.countDown();
+        for (Thread t : thread) {
+            t.join();
+        }
+        return cicli.get() * 1_000_000_000L / durataNs;
+    }
+}
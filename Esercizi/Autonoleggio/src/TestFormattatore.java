@@ -0,0 +1,105 @@
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Confronta FormattatoreNoleggi con String.format su milioni di valori
+ * (seme fisso, quindi sempre gli stessi): importi qualunque, mezzi
+ * centesimi esatti e i double subito prima e dopo, negativi, grandezze
+ * diverse; per ognuno controlla anche che i centesimi fatturati siano
+ * quelli stampati. Il confronto è fatto nel Locale predefinito e poi ripetuto in
+ * alcuni Locale con separatori e cifre diversi. Esce con codice 1 alla
+ * prima serie di differenze.
+ *
+ * @author giordii.dev
+ */
+public class TestFormattatore {
+
+    private static final int VALORI_PER_TIPO = 1_000_000;
+
+    private static long provati;
+    private static long diversi;
+
+    public static void main(String[] args) {
+        SplittableRandom caso = new SplittableRandom(20240501L);
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < VALORI_PER_TIPO; i++) {
+            // importo qualunque fino a 100k euro
+            controlla(caso.nextDouble() * 100_000, sb);
+
+            // mezzo centesimo esatto in decimale (es. 224.705) e i suoi vicini
+            double mezzo = (caso.nextLong(100_000_000L) * 10 + 5) / 1000.0;
+            controlla(mezzo, sb);
+            controlla(Math.nextUp(mezzo), sb);
+            controlla(Math.nextDown(mezzo), sb);
+
+            // somme e prodotti come quelli dei costi, con errori di arrotondamento veri
+            double costo = caso.nextInt(1, 60) * 45.5 + caso.nextInt(0, 3000) * 0.15 + caso.nextInt(0, 80) * 1.85;
+            controlla(costo, sb);
+            controlla(costo * 1.22, sb);
+
+            // negativi e grandezze da 1e-6 a 1e14
+            controlla(-caso.nextDouble() * 1000, sb);
+            controlla(Math.pow(10, caso.nextDouble() * 20 - 6), sb);
+        }
+
+        double[] particolari = {0.0, -0.0, 0.005, -0.005, 0.015, 1.005, 2.675, 36.105,
+            224.70499999999998, 465.03499999999997, -0.001, 1e-300, 999999999.995,
+            1e9, 1e15, -1e15, 9.999999999999999e14, Double.NaN,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE};
+        for (double v : particolari) {
+            controlla(v, sb);
+        }
+
+        // stesso testo di String.format anche dove il separatore non è il punto
+        Locale predefinito = Locale.getDefault(Locale.Category.FORMAT);
+        for (Locale l : new Locale[] {Locale.ITALY, Locale.US, Locale.GERMANY, Locale.forLanguageTag("ar-EG")}) {
+            Locale.setDefault(Locale.Category.FORMAT, l);
+            for (double v : particolari) {
+                controlla(v, sb);
+            }
+            for (int i = 0; i < 1000; i++) {
+                controlla(caso.nextDouble() * 100_000, sb);
+            }
+        }
+        Locale.setDefault(Locale.Category.FORMAT, predefinito);
+
+        // riga completa di un noleggio concluso, contro il vecchio testo con String.format
+        Noleggio n = new Noleggio(new Autovettura("AB123CD", 1, "Fiat", "Panda", 1200, 2022, 40.0, 5),
+                "Rossi", LocalDate.of(2024, 3, 1));
+        n.concludiNoleggio(LocalDate.of(2024, 3, 9), 613.7, 12.35);
+        String atteso = String.format("Noleggio CONCLUSO - Cliente: %s | Veicolo: %s | %s → %s | Costo: %.2f €",
+                n.getNomeCliente(), n.getVeicolo().getTarga(), n.getDataInizio(), n.getDataFine(), n.calcolaCostoTotale());
+        provati++;
+        if (!atteso.equals(n.toString())) {
+            diversi++;
+            System.out.println("riga diversa:\n  " + atteso + "\n  " + n);
+        }
+
+        System.out.println("TestFormattatore: " + provati + " valori, " + diversi + " diversi da String.format");
+        if (diversi > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void controlla(double v, StringBuilder sb) {
+        sb.setLength(0);
+        FormattatoreNoleggi.scriviImporto(v, sb);
+        String atteso = String.format("%.2f", v);
+        provati++;
+        if (!atteso.contentEquals(sb)) {
+            if (diversi++ < 20) {
+                System.out.println(v + ": atteso " + atteso + ", scritto " + sb);
+            }
+        }
+
+        // il centesimo fatturato deve essere quello stampato
+        if (!Double.isNaN(v) && Math.abs(v) < 1e15) {
+            long stampati = Long.parseLong(String.format(Locale.ROOT, "%.2f", v).replace(".", ""));
+            if (RiepilogoFatturazione.inCentesimi(v) != stampati && diversi++ < 20) {
+                System.out.println(v + ": fatturati " + RiepilogoFatturazione.inCentesimi(v) + ", stampati " + stampati);
+            }
+        }
+    }
+}
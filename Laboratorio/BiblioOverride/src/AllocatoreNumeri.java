@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distribuisce i numeri progressivi delle pubblicazioni. Ogni Biblioteca
+ * ne ha uno suo, indipendente dagli altri; le pubblicazioni create senza
+ * indicare numero né allocatore usano quello predefinito, condiviso, che
+ * non sa nulla dei cataloghi. Thread-safe: chi carica molte
+ * pubblicazioni insieme si prende un intervallo intero con riserva()
+ * invece di un numero alla volta.
+ * @author giordii.dev
+ */
+public class AllocatoreNumeri {
+    private static final AllocatoreNumeri PREDEFINITO = new AllocatoreNumeri();
+
+    private final AtomicInteger prossimo;
+
+    public AllocatoreNumeri() {
+        this(1);
+    }
+
+    /**
+     * @param primo il primo numero da assegnare
+     */
+    public AllocatoreNumeri(int primo) {
+        if (primo <= 0) {
+            throw new IllegalArgumentException("primo numero > 0");
+        }
+        this.prossimo = new AtomicInteger(primo);
+    }
+
+    /**
+     * @return l'allocatore usato dai costruttori senza numero
+     */
+    public static AllocatoreNumeri predefinito() {
+        return PREDEFINITO;
+    }
+
+    public int prossimo() {
+        return riserva(1);
+    }
+
+    /**
+     * Riserva un intervallo di numeri consecutivi
+     * @param quanti quanti numeri servono
+     * @return il primo numero dell'intervallo, gli altri seguono
+     * @throws IllegalStateException se i numeri sono finiti
+     */
+    public int riserva(int quanti) {
+        if (quanti <= 0) {
+            throw new IllegalArgumentException("quanti > 0");
+        }
+        while (true) {
+            int primo = prossimo.get();
+            if (primo > Integer.MAX_VALUE - quanti) {
+                throw new IllegalStateException("numeri progressivi esauriti");
+            }
+            if (prossimo.compareAndSet(primo, primo + quanti)) {
+                return primo;
+            }
+        }
+    }
+
+    /**
+     * Si assicura che i prossimi numeri siano oltre quello dato (per le
+     * pubblicazioni numerate altrove che entrano in un catalogo)
+     * @param numero un numero già in uso
+     */
+    public void occupato(int numero) {
+        if (numero == Integer.MAX_VALUE) {
+            prossimo.set(Integer.MAX_VALUE);  // dopo non c'è più niente
+            return;
+        }
+        prossimo.accumulateAndGet(numero + 1, Math::max);
+    }
+
+    /**
+     * Riparte da un numero dato. Solo se si sa che i numeri da lì in poi
+     * sono liberi (catalogo svuotato, test), altrimenti arrivano doppioni.
+     * @param primo il prossimo numero da assegnare
+     */
+    public void reimposta(int primo) {
+        if (primo <= 0) {
+            throw new IllegalArgumentException("primo numero > 0");
+        }
+        prossimo.set(primo);
+    }
+
+    /**
+     * @return il numero che verrà assegnato adesso (può cambiare subito dopo)
+     */
+    public int getProssimo() {
+        return prossimo.get();
+    }
+}
@@ -1,13 +1,28 @@
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Gestione biblioteca con prestiti di libri e riviste
+ * Gestione biblioteca con prestiti di libri e riviste.
+ * Prestiti e restituzioni si possono fare da più sportelli insieme: la
+ * pubblicazione decide chi vince con un compare-and-set, gli indici si
+ * aggiornano dopo. Aggiungere o togliere pubblicazioni blocca il catalogo.
  * @author giordii.dev
  */
 public class Biblioteca {
     private final String nome;  // nome della biblioteca
-    private final ArrayList<Pubblicazione> pubbl;  // catalogo completo con libri e riviste
+    private final CatalogoIndicizzato pubbl;  // catalogo completo con libri e riviste, indicizzato per numero
+    private final IndiceTesto indiceTesto;  // parole di titolo, autore e isbn
+    private final IndicePrestiti prestiti;  // prestiti in corso per utente e scadenza
+    private final StoricoPrestiti storico;  // prestiti conclusi
+    private final AllocatoreNumeri numeri;  // numeri progressivi di questo catalogo
+    private final CodaPrenotazioni prenotazioni;  // chi aspetta le pubblicazioni in prestito
+    private final ReentrantReadWriteLock lockCatalogo;  // scrittura solo per aggiunte e rimozioni
     
     /**
      * Crea una nuova biblioteca
@@ -18,18 +33,81 @@ public class Biblioteca {
             throw new IllegalArgumentException("nome != null");
         }
         this.nome = nome;
-        this.pubbl = new ArrayList<>();  // inizia vuoto, si riempie dopo
+        this.pubbl = new CatalogoIndicizzato();  // inizia vuoto, si riempie dopo
+        this.indiceTesto = new IndiceTesto();
+        this.prestiti = new IndicePrestiti();
+        this.storico = new StoricoPrestiti();
+        this.numeri = new AllocatoreNumeri();
+        this.prenotazioni = new CodaPrenotazioni();
+        this.lockCatalogo = new ReentrantReadWriteLock();
     }
     
     /**
      * Aggiunge una pubblicazione al catalogo
      * @param p la pubblicazione da aggiungere
+     * @throws IllegalArgumentException se il numero progressivo è già nel catalogo
      */
     public void aggiungiPubblicazione(Pubblicazione p) {
         if (p == null) {
             throw new IllegalArgumentException("pubblicazione != null");
         }
-        pubbl.add(p);  // aggiungi al catalogo
+        lockCatalogo.writeLock().lock();
+        try {
+            pubbl.aggiungi(p);  // aggiungi al catalogo
+            numeri.occupato(p.getNumeroProgressivo());  // l'allocatore non lo ridarà
+            synchronized (indiceTesto) {
+                indiceTesto.aggiungi(p);
+            }
+            long stato = p.getStatoPrestito();
+            if (stato != Pubblicazione.LIBERA) {
+                prestiti.prestitoIniziato(p, stato);  // arriva già prestata
+            }
+        } finally {
+            lockCatalogo.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Aggiunge molte pubblicazioni insieme: il catalogo viene bloccato e
+     * allargato una volta sola. Prima controlla tutto, quindi o entrano
+     * tutte o nessuna.
+     * @param nuove le pubblicazioni da aggiungere, in ordine di catalogo
+     * @throws IllegalArgumentException se una è null, ripetuta o già nel catalogo
+     */
+    public void aggiungiPubblicazioni(List<? extends Pubblicazione> nuove) {
+        if (nuove == null) {
+            throw new IllegalArgumentException("pubblicazioni != null");
+        }
+        lockCatalogo.writeLock().lock();
+        try {
+            int numeroMassimo = 0;
+            HashSet<Integer> visti = new HashSet<>(nuove.size() * 2);
+            for (Pubblicazione p : nuove) {
+                if (p == null) {
+                    throw new IllegalArgumentException("pubblicazione != null");
+                }
+                int numero = p.getNumeroProgressivo();
+                if (!visti.add(numero) || pubbl.cerca(numero) != null) {
+                    throw new IllegalArgumentException("pubblicazione #" + numero + " gia presente");
+                }
+                numeroMassimo = Math.max(numeroMassimo, numero);
+            }
+            
+            pubbl.riserva(nuove.size());
+            numeri.occupato(numeroMassimo);
+            synchronized (indiceTesto) {
+                for (Pubblicazione p : nuove) {
+                    pubbl.aggiungi(p);
+                    indiceTesto.aggiungi(p);
+                    long stato = p.getStatoPrestito();
+                    if (stato != Pubblicazione.LIBERA) {
+                        prestiti.prestitoIniziato(p, stato);
+                    }
+                }
+            }
+        } finally {
+            lockCatalogo.writeLock().unlock();
+        }
     }
     
     /**
@@ -37,8 +115,19 @@ public class Biblioteca {
      * @param numeroProgressivo l'ID della pubblicazione
      */
     public void rimuoviPubblicazione(int numeroProgressivo) {
-        pubbl.removeIf(p -> p.getNumeroProgressivo() == numeroProgressivo);
-        // usa lambda per rimozione efficiente, java 8+
+        lockCatalogo.writeLock().lock();
+        try {
+            Pubblicazione p = pubbl.rimuovi(numeroProgressivo);  // O(1), niente scansione del catalogo
+            if (p != null) {
+                synchronized (indiceTesto) {
+                    indiceTesto.rimuovi(p);
+                }
+                prestiti.prestitoTerminato(p, p.getStatoPrestito());
+                prenotazioni.annullaTutte(numeroProgressivo);
+            }
+        } finally {
+            lockCatalogo.writeLock().unlock();
+        }
     }
     
     /**
@@ -47,52 +136,249 @@ public class Biblioteca {
      * @return la pubblicazione trovata o null
      */
     public Pubblicazione cercaPerNumero(int numeroProgressivo) {
-        for (Pubblicazione p : pubbl) {
-            if (p.getNumeroProgressivo() == numeroProgressivo) {
-                return p;  // trovata!
+        lockCatalogo.readLock().lock();
+        try {
+            return pubbl.cerca(numeroProgressivo);  // null se non esiste nel catalogo
+        } finally {
+            lockCatalogo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Ricerca testuale su titolo, autore e isbn: trova le pubblicazioni che
+     * contengono tutte le parole, anche solo come inizio di parola
+     * ("signore anel" trova "Il Signore degli Anelli"), senza badare a
+     * maiuscole e accenti
+     * @param testo le parole da cercare
+     * @param max numero massimo di risultati
+     * @return le pubblicazioni trovate, dalla più rilevante
+     */
+    public ArrayList<Pubblicazione> cerca(String testo, int max) {
+        lockCatalogo.readLock().lock();
+        try {
+            int[] trovati;
+            synchronized (indiceTesto) {
+                trovati = indiceTesto.cerca(testo, max);  // usa array di lavoro interni
             }
+            ArrayList<Pubblicazione> risultato = new ArrayList<>(trovati.length);
+            for (int numero : trovati) {
+                risultato.add(pubbl.cerca(numero));
+            }
+            return risultato;
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
-        return null;  // non esiste nel catalogo
     }
     
     /**
-     * Effettua il prestito di una pubblicazione
+     * Effettua il prestito di una pubblicazione. I prestiti vanno fatti da
+     * qui e non direttamente sulla pubblicazione, altrimenti l'indice dei
+     * prestiti non li vede.
      * @param numeroProgressivo ID della pubblicazione
      * @param utente nome dell'utente
      * @param dataInizio data inizio prestito
+     * @throws IllegalStateException se è in prestito o prenotata da altri
      */
     public void effettuaPrestito(int numeroProgressivo, String utente, LocalDate dataInizio) {
-        Pubblicazione p = cercaPerNumero(numeroProgressivo);
-        if (p == null) {
-            throw new IllegalArgumentException("Pubblicazione non trovata");
+        lockCatalogo.readLock().lock();  // basta la lettura: il catalogo non cambia
+        try {
+            Pubblicazione p = pubbl.cerca(numeroProgressivo);
+            if (p == null) {
+                throw new IllegalArgumentException("Pubblicazione non trovata");
+            }
+            // sotto lo stesso lock della promozione: tra il controllo della coda e il
+            // prestito nessuno può prenotare e vedersi passare avanti al rientro
+            synchronized (prenotazioni) {
+                // le scadute si tolgono solo rispetto a oggi; alla data del prestito,
+                // magari futura, la coda si guarda senza toccarla
+                prenotazioni.prima(numeroProgressivo, LocalDate.now());
+                if (dataInizio != null && prenotazioni.primaValida(numeroProgressivo, dataInizio) != -1) {
+                    throw new IllegalStateException("La pubblicazione è prenotata");  // tocca a chi è in coda
+                }
+                long stato = p.prendiInPrestito(utente, dataInizio);  // delega alla pubblicazione
+                prestiti.prestitoIniziato(p, stato);
+            }
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
-        p.prestito(utente, dataInizio);  // delega alla pubblicazione
     }
     
+    /**
+     * Restituzione in data odierna (o alla data di inizio, se il prestito
+     * è registrato nel futuro)
+     * @param numeroProgressivo ID della pubblicazione
+     */
     public void effettuaRestituzione(int numeroProgressivo) {
-        Pubblicazione p = cercaPerNumero(numeroProgressivo);
-        if (p == null) {
-            throw new IllegalArgumentException("Pubblicazione non trovata");
+        effettuaRestituzione(numeroProgressivo, null);
+    }
+    
+    /**
+     * Restituisce una pubblicazione e salva il prestito nello storico. Se
+     * qualcuno l'ha prenotata, passa subito in prestito al primo in coda.
+     * @param numeroProgressivo ID della pubblicazione
+     * @param dataRestituzione quando è rientrata (null = oggi)
+     */
+    public void effettuaRestituzione(int numeroProgressivo, LocalDate dataRestituzione) {
+        lockCatalogo.readLock().lock();
+        try {
+            Pubblicazione p = pubbl.cerca(numeroProgressivo);
+            if (p == null) {
+                throw new IllegalArgumentException("Pubblicazione non trovata");
+            }
+            long stato = p.getStatoPrestito();
+            if (stato != Pubblicazione.LIBERA && dataRestituzione != null
+                    && dataRestituzione.isBefore(Pubblicazione.inizioDi(stato))) {
+                throw new IllegalArgumentException("data restituzione >= data inizio");
+            }
+            
+            stato = p.restituisci();  // lancia se non è in prestito
+            prestiti.prestitoTerminato(p, stato);
+            
+            LocalDate inizio = Pubblicazione.inizioDi(stato);
+            LocalDate fine = dataRestituzione;
+            if (fine == null || fine.isBefore(inizio)) {
+                LocalDate oggi = LocalDate.now();
+                fine = oggi.isBefore(inizio) ? inizio : oggi;
+            }
+            storico.registra(numeroProgressivo, Pubblicazione.utenteDi(stato), inizio, fine);
+            passaAlPrimoInCoda(p, fine);
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
-        p.restituzione();
     }
     
-    public ArrayList<Pubblicazione> getPubblicazioniInPrestito() {
-        ArrayList<Pubblicazione> inPrestito = new ArrayList<>();
-        for (Pubblicazione p : pubbl) {
-            if (p.isInPrestito()) {
-                inPrestito.add(p);  // fuori in giro da qualche parte
+    /**
+     * Presta la pubblicazione appena rientrata alla prima prenotazione valida
+     */
+    private void passaAlPrimoInCoda(Pubblicazione p, LocalDate data) {
+        synchronized (prenotazioni) {
+            long id = prenotazioni.prima(p.getNumeroProgressivo(), data);
+            if (id == -1) {
+                return;
+            }
+            long stato;
+            try {
+                stato = p.prendiInPrestito(prenotazioni.getUtente(id), data);
+            } catch (IllegalStateException e) {
+                return;  // già ripresa da un altro sportello, la prenotazione resta in coda
             }
+            prenotazioni.annulla(id);
+            prestiti.prestitoIniziato(p, stato);
+        }
+    }
+    
+    /**
+     * Prenota una pubblicazione in prestito: al rientro passerà al primo in
+     * coda che non ha lasciato scadere la prenotazione
+     * @param numeroProgressivo ID della pubblicazione
+     * @param utente chi prenota
+     * @param scadenza ultimo giorno in cui la vuole ancora
+     * @return id della prenotazione, per annullarla
+     * @throws IllegalStateException se è disponibile (basta il prestito) o l'utente è già in coda
+     */
+    public long prenota(int numeroProgressivo, String utente, LocalDate scadenza) {
+        lockCatalogo.readLock().lock();
+        try {
+            Pubblicazione p = pubbl.cerca(numeroProgressivo);
+            if (p == null) {
+                throw new IllegalArgumentException("Pubblicazione non trovata");
+            }
+            synchronized (prenotazioni) {  // la restituzione promuove sotto lo stesso lock
+                if (!p.isInPrestito()) {
+                    throw new IllegalStateException("La pubblicazione è disponibile");
+                }
+                if (utente != null && utente.equals(p.getUtentePrestito())) {
+                    throw new IllegalStateException("L'utente ha già la pubblicazione in prestito");
+                }
+                return prenotazioni.prenota(numeroProgressivo, utente, scadenza);
+            }
+        } finally {
+            lockCatalogo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @param idPrenotazione id restituito da prenota()
+     * @return true se era ancora in coda
+     */
+    public boolean annullaPrenotazione(long idPrenotazione) {
+        return prenotazioni.annulla(idPrenotazione);
+    }
+    
+    /**
+     * Pubblicazioni in prestito, nell'ordine del catalogo
+     * @return lista delle pubblicazioni fuori in giro da qualche parte
+     */
+    public ArrayList<Pubblicazione> getPubblicazioniInPrestito() {
+        lockCatalogo.readLock().lock();
+        try {
+            ArrayList<Pubblicazione> inPrestito = prestiti.getInPrestito();  // dall'indice, senza scorrere il catalogo
+            inPrestito.sort(Comparator.comparingInt(p -> pubbl.posizioneDi(p.getNumeroProgressivo())));
+            return inPrestito;
+        } finally {
+            lockCatalogo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Prestiti in corso di un utente
+     * @param utente nome dell'utente
+     * @return le pubblicazioni che ha in prestito
+     */
+    public ArrayList<Pubblicazione> getPrestitiUtente(String utente) {
+        return prestiti.getPrestitiUtente(utente);
+    }
+    
+    /**
+     * Prestiti scaduti: data di restituzione prevista prima di oggi
+     * @param oggi data di riferimento
+     * @return i prestiti scaduti, dal ritardo più lungo
+     */
+    public ArrayList<Pubblicazione> getPrestitiScaduti(LocalDate oggi) {
+        if (oggi == null) {
+            throw new IllegalArgumentException("data != null");
         }
-        return inPrestito;
+        return prestiti.getScaduti(oggi);
+    }
+    
+    public int contaInPrestito() {
+        return prestiti.size();
+    }
+    
+    /**
+     * Numeri progressivi per le pubblicazioni nuove di questo catalogo:
+     * non si sovrappongono a quelli già presenti
+     * @return l'allocatore della biblioteca
+     */
+    public AllocatoreNumeri getAllocatoreNumeri() {
+        return numeri;
+    }
+    
+    /**
+     * @return le code di prenotazione (per la pulizia delle scadute e le statistiche)
+     */
+    public CodaPrenotazioni getPrenotazioni() {
+        return prenotazioni;
+    }
+    
+    /**
+     * @return lo storico dei prestiti conclusi
+     */
+    public StoricoPrestiti getStorico() {
+        return storico;
     }
     
     public ArrayList<Pubblicazione> getPubblicazioniDisponibili() {
         ArrayList<Pubblicazione> disponibili = new ArrayList<>();
-        for (Pubblicazione p : pubbl) {
-            if (!p.isInPrestito()) {
-                disponibili.add(p);  // sullo scaffale pronte
+        lockCatalogo.readLock().lock();
+        try {
+            for (Pubblicazione p : pubbl) {
+                if (!p.isInPrestito()) {
+                    disponibili.add(p);  // sullo scaffale pronte
+                }
             }
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
         return disponibili;
     }
@@ -103,10 +389,15 @@ public class Biblioteca {
      */
     public ArrayList<Libro> getLibri() {
         ArrayList<Libro> libri = new ArrayList<>();
-        for (Pubblicazione p : pubbl) {
-            if (p instanceof Libro) {
-                libri.add((Libro) p);  // cast sicuro dopo instanceof check
+        lockCatalogo.readLock().lock();
+        try {
+            for (Pubblicazione p : pubbl) {
+                if (p instanceof Libro) {
+                    libri.add((Libro) p);  // cast sicuro dopo instanceof check
+                }
             }
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
         return libri;
     }
@@ -117,10 +408,15 @@ public class Biblioteca {
      */
     public ArrayList<Rivista> getRiviste() {
         ArrayList<Rivista> riviste = new ArrayList<>();
-        for (Pubblicazione p : pubbl) {
-            if (p instanceof Rivista) {
-                riviste.add((Rivista) p);  // downcast sicuro, instanceof garantisce
+        lockCatalogo.readLock().lock();
+        try {
+            for (Pubblicazione p : pubbl) {
+                if (p instanceof Rivista) {
+                    riviste.add((Rivista) p);  // downcast sicuro, instanceof garantisce
+                }
             }
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
         return riviste;
     }
@@ -129,17 +425,84 @@ public class Biblioteca {
         return pubbl.size();
     }
     
+    /**
+     * Una pagina del catalogo, per chi lo mostra a pezzi
+     * @param numeroPagina quale pagina (da 0)
+     * @param perPagina pubblicazioni per pagina
+     * @return le pubblicazioni della pagina, vuota dopo l'ultima
+     */
+    public ArrayList<Pubblicazione> getPagina(int numeroPagina, int perPagina) {
+        if (numeroPagina < 0 || perPagina <= 0) {
+            throw new IllegalArgumentException("pagina >= 0, per pagina > 0");
+        }
+        lockCatalogo.readLock().lock();
+        try {
+            long da = (long) numeroPagina * perPagina;
+            if (da >= pubbl.size()) {
+                return new ArrayList<>();
+            }
+            return pubbl.intervallo((int) da, perPagina);
+        } finally {
+            lockCatalogo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @param perPagina pubblicazioni per pagina
+     * @return quante pagine servono per tutto il catalogo
+     */
+    public int contaPagine(int perPagina) {
+        if (perPagina <= 0) {
+            throw new IllegalArgumentException("per pagina > 0");
+        }
+        return (contaPubblicazioni() + perPagina - 1) / perPagina;
+    }
+    
+    /**
+     * Scrive tutto il catalogo sul canale, una pubblicazione per riga (lo
+     * stesso testo di stampaCatalogo, senza intestazione). Il catalogo
+     * resta bloccato solo il tempo di copiarne l'elenco.
+     * @param canale dove scrivere, resta aperto
+     * @return byte scritti
+     * @throws IOException in caso di errore di scrittura
+     */
+    public long esportaCatalogo(WritableByteChannel canale) throws IOException {
+        ArrayList<Pubblicazione> tutte;
+        lockCatalogo.readLock().lock();
+        try {
+            tutte = pubbl.intervallo(0, pubbl.size());
+        } finally {
+            lockCatalogo.readLock().unlock();
+        }
+        return new EsportatoreCatalogo().esporta(tutte, canale);
+    }
+    
+    /**
+     * Come esportaCatalogo, solo le pubblicazioni in prestito
+     * @param canale dove scrivere, resta aperto
+     * @return byte scritti
+     * @throws IOException in caso di errore di scrittura
+     */
+    public long esportaPrestiti(WritableByteChannel canale) throws IOException {
+        return new EsportatoreCatalogo().esporta(getPubblicazioniInPrestito(), canale);
+    }
+    
     public void stampaCatalogo() {
         System.out.println("\n=== CATALOGO BIBLIOTECA: " + nome + " ===");
-        System.out.println("Totale pubblicazioni: " + pubbl.size());
-        System.out.println();
-        
-        if (pubbl.isEmpty()) {
-            System.out.println("Nessuna pubblicazione presente.");  // scaffali vuoti...
-        } else {
-            for (Pubblicazione p : pubbl) {
-                System.out.println(p);
+        lockCatalogo.readLock().lock();
+        try {
+            System.out.println("Totale pubblicazioni: " + pubbl.size());
+            System.out.println();
+            
+            if (pubbl.isEmpty()) {
+                System.out.println("Nessuna pubblicazione presente.");  // scaffali vuoti...
+            } else {
+                for (Pubblicazione p : pubbl) {
+                    System.out.println(p);
+                }
             }
+        } finally {
+            lockCatalogo.readLock().unlock();
         }
         System.out.println("==========================================");
     }
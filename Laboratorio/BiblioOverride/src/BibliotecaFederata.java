@@ -0,0 +1,275 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Più sedi viste come un solo catalogo. Ogni sede è una Biblioteca con il
+ * suo lock, quindi prestiti e modifiche in sedi diverse non si aspettano
+ * a vicenda. Una pubblicazione sta in una sola sede: scelta esplicitamente
+ * o, se non indicata, dal numero progressivo (numero % sedi).
+ *
+ * Le ricerche per numero vanno dritte alla sede grazie a un indice
+ * numero -> sede; le liste (libri, riviste, disponibili...) vengono
+ * chieste a tutte le sedi in parallelo e unite nell'ordine delle sedi.
+ * Le pubblicazioni vanno aggiunte e tolte da qui, non dalle singole sedi,
+ * altrimenti l'indice non le vede.
+ * @author giordii.dev
+ */
+public class BibliotecaFederata implements AutoCloseable {
+    private final Biblioteca[] sedi;
+    private final ConcurrentHashMap<Integer, Integer> sedeDi;  // numero progressivo -> indice della sede
+    private final AllocatoreNumeri numeri;  // unico per tutte le sedi
+    private final ExecutorService pool;
+
+    /**
+     * Federa delle sedi esistenti; le pubblicazioni che hanno già entrano nell'indice
+     * @param sedi le biblioteche da unire (almeno una)
+     * @throws IllegalArgumentException se due sedi hanno lo stesso numero progressivo
+     */
+    public BibliotecaFederata(List<Biblioteca> sedi) {
+        if (sedi == null || sedi.isEmpty()) {
+            throw new IllegalArgumentException("sedi non vuote");
+        }
+        this.sedi = sedi.toArray(new Biblioteca[0]);
+        this.sedeDi = new ConcurrentHashMap<>();
+        this.numeri = new AllocatoreNumeri();
+
+        for (int i = 0; i < this.sedi.length; i++) {
+            if (this.sedi[i] == null) {
+                throw new IllegalArgumentException("sede != null");
+            }
+            for (Pubblicazione p : this.sedi[i].getLibri()) {
+                registra(p.getNumeroProgressivo(), i);
+            }
+            for (Pubblicazione p : this.sedi[i].getRiviste()) {
+                registra(p.getNumeroProgressivo(), i);
+            }
+        }
+
+        int numThread = Math.min(this.sedi.length, Runtime.getRuntime().availableProcessors());
+        this.pool = Executors.newFixedThreadPool(numThread, r -> {
+            Thread t = new Thread(r, "federazione-biblioteche");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Crea una federazione di sedi nuove e vuote
+     * @param nome nome della rete, le sedi si chiamano "nome 1", "nome 2"...
+     * @param numeroSedi quante sedi
+     */
+    public static BibliotecaFederata conSediVuote(String nome, int numeroSedi) {
+        if (numeroSedi <= 0) {
+            throw new IllegalArgumentException("numero sedi > 0");
+        }
+        ArrayList<Biblioteca> sedi = new ArrayList<>(numeroSedi);
+        for (int i = 1; i <= numeroSedi; i++) {
+            sedi.add(new Biblioteca(nome + " " + i));
+        }
+        return new BibliotecaFederata(sedi);
+    }
+
+    private void registra(int numero, int sede) {
+        Integer altra = sedeDi.putIfAbsent(numero, sede);
+        if (altra != null) {
+            throw new IllegalArgumentException("pubblicazione #" + numero + " gia presente nella sede " + altra);
+        }
+        numeri.occupato(numero);
+    }
+
+    /**
+     * Aggiunge una pubblicazione nella sede scelta dal suo numero progressivo
+     * @param p la pubblicazione da aggiungere
+     */
+    public void aggiungiPubblicazione(Pubblicazione p) {
+        if (p == null) {
+            throw new IllegalArgumentException("pubblicazione != null");
+        }
+        aggiungiPubblicazione(Math.floorMod(p.getNumeroProgressivo(), sedi.length), p);
+    }
+
+    /**
+     * Aggiunge una pubblicazione in una sede precisa
+     * @param sede indice della sede (da 0)
+     * @param p la pubblicazione da aggiungere
+     * @throws IllegalArgumentException se il numero progressivo è già in una sede
+     */
+    public void aggiungiPubblicazione(int sede, Pubblicazione p) {
+        controllaSede(sede);
+        if (p == null) {
+            throw new IllegalArgumentException("pubblicazione != null");
+        }
+        registra(p.getNumeroProgressivo(), sede);  // prima l'indice: due sedi non possono prendere lo stesso numero
+        try {
+            sedi[sede].aggiungiPubblicazione(p);
+        } catch (RuntimeException e) {
+            sedeDi.remove(p.getNumeroProgressivo(), sede);
+            throw e;
+        }
+    }
+
+    /**
+     * Rimuove una pubblicazione da qualunque sede sia
+     * @param numeroProgressivo l'ID della pubblicazione
+     */
+    public void rimuoviPubblicazione(int numeroProgressivo) {
+        Integer sede = sedeDi.get(numeroProgressivo);
+        if (sede != null) {
+            sedi[sede].rimuoviPubblicazione(numeroProgressivo);
+            sedeDi.remove(numeroProgressivo, sede);
+        }
+    }
+
+    /**
+     * @param numeroProgressivo l'ID univoco
+     * @return la pubblicazione trovata o null
+     */
+    public Pubblicazione cercaPerNumero(int numeroProgressivo) {
+        Integer sede = sedeDi.get(numeroProgressivo);
+        return sede == null ? null : sedi[sede].cercaPerNumero(numeroProgressivo);
+    }
+
+    /**
+     * @param numeroProgressivo l'ID univoco
+     * @return indice della sede che la possiede o -1
+     */
+    public int sedeDi(int numeroProgressivo) {
+        Integer sede = sedeDi.get(numeroProgressivo);
+        return sede == null ? -1 : sede;
+    }
+
+    /**
+     * @param numeroProgressivo l'ID univoco
+     * @return true se esiste ed è sullo scaffale
+     */
+    public boolean isDisponibile(int numeroProgressivo) {
+        Pubblicazione p = cercaPerNumero(numeroProgressivo);
+        return p != null && !p.isInPrestito();
+    }
+
+    public void effettuaPrestito(int numeroProgressivo, String utente, LocalDate dataInizio) {
+        sedeOppureErrore(numeroProgressivo).effettuaPrestito(numeroProgressivo, utente, dataInizio);
+    }
+
+    public void effettuaRestituzione(int numeroProgressivo) {
+        sedeOppureErrore(numeroProgressivo).effettuaRestituzione(numeroProgressivo);
+    }
+
+    private Biblioteca sedeOppureErrore(int numeroProgressivo) {
+        Integer sede = sedeDi.get(numeroProgressivo);
+        if (sede == null) {
+            throw new IllegalArgumentException("Pubblicazione non trovata");
+        }
+        return sedi[sede];
+    }
+
+    public ArrayList<Libro> getLibri() {
+        return daTutte(Biblioteca::getLibri);
+    }
+
+    public ArrayList<Rivista> getRiviste() {
+        return daTutte(Biblioteca::getRiviste);
+    }
+
+    public ArrayList<Pubblicazione> getPubblicazioniDisponibili() {
+        return daTutte(Biblioteca::getPubblicazioniDisponibili);
+    }
+
+    public ArrayList<Pubblicazione> getPubblicazioniInPrestito() {
+        return daTutte(Biblioteca::getPubblicazioniInPrestito);
+    }
+
+    /**
+     * @param utente nome dell'utente
+     * @return quello che ha in prestito in tutte le sedi
+     */
+    public ArrayList<Pubblicazione> getPrestitiUtente(String utente) {
+        return daTutte(b -> b.getPrestitiUtente(utente));
+    }
+
+    /**
+     * @param oggi data di riferimento
+     * @return i prestiti scaduti di tutte le sedi, sede per sede
+     */
+    public ArrayList<Pubblicazione> getPrestitiScaduti(LocalDate oggi) {
+        if (oggi == null) {
+            throw new IllegalArgumentException("data != null");
+        }
+        return daTutte(b -> b.getPrestitiScaduti(oggi));
+    }
+
+    public int contaPubblicazioni() {
+        return sedeDi.size();
+    }
+
+    /**
+     * Numeri progressivi validi per tutta la rete: usarli per le
+     * pubblicazioni nuove evita doppioni tra sedi
+     * @return l'allocatore della federazione
+     */
+    public AllocatoreNumeri getAllocatoreNumeri() {
+        return numeri;
+    }
+
+    public int getNumeroSedi() {
+        return sedi.length;
+    }
+
+    /**
+     * @param sede indice della sede (da 0)
+     * @return la biblioteca di quella sede
+     */
+    public Biblioteca getSede(int sede) {
+        controllaSede(sede);
+        return sedi[sede];
+    }
+
+    private void controllaSede(int sede) {
+        if (sede < 0 || sede >= sedi.length) {
+            throw new IllegalArgumentException("sede tra 0 e " + (sedi.length - 1));
+        }
+    }
+
+    /**
+     * Fa la stessa domanda a tutte le sedi in parallelo (la prima la fa
+     * questo thread, intanto che aspetta) e unisce le risposte in ordine di sede
+     */
+    private <T> ArrayList<T> daTutte(Function<Biblioteca, ? extends List<? extends T>> domanda) {
+        ArrayList<Future<? extends List<? extends T>>> risposte = new ArrayList<>(sedi.length - 1);
+        for (int i = 1; i < sedi.length; i++) {
+            Biblioteca sede = sedi[i];
+            risposte.add(pool.submit(() -> domanda.apply(sede)));
+        }
+
+        ArrayList<T> risultato = new ArrayList<>(domanda.apply(sedi[0]));
+        try {
+            for (Future<? extends List<? extends T>> risposta : risposte) {
+                risultato.addAll(risposta.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ricerca interrotta", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();  // stessa eccezione della sede singola
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return risultato;
+    }
+
+    /**
+     * Ferma i thread delle ricerche; le sedi restano utilizzabili
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,455 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * Catalogo salvato "per colonne" invece che come oggetti: ogni campo ha il
+ * suo array di primitivi (data come giorno intero, pagine, stato del
+ * prestito), titoli e codici stanno tutti in un unico array di byte, e
+ * autori e periodicità, che si ripetono moltissimo, sono salvati una volta
+ * sola in un dizionario e nelle righe c'è solo il loro numero. Con milioni
+ * di pubblicazioni occupa una frazione della memoria degli oggetti Libro e
+ * Rivista.
+ *
+ * Le pubblicazioni si leggono con una Vista, un cursore riutilizzabile che
+ * legge le colonne senza creare oggetti, oppure si "materializzano" in un
+ * Libro o una Rivista vera quando servono (copie: modificarle non cambia
+ * il catalogo). Come CatalogoIndicizzato non è thread-safe.
+ * @author giordii.dev
+ */
+public class CatalogoColonnare {
+    private static final byte RIMOSSA = 0;
+    private static final byte LIBRO = 1;
+    private static final byte RIVISTA = 2;
+
+    // colonne, una riga per pubblicazione in ordine di inserimento
+    private byte[] tipo;  // RIMOSSA = buco lasciato da una rimozione
+    private int[] numero;
+    private int[] giornoPubblicazione;  // epochDay
+    private int[] pagine;
+    private int[] inizioTitolo;  // posizione in testi
+    private int[] lunghezzaTitolo;
+    private int[] inizioCodice;  // isbn o numero/volume
+    private int[] lunghezzaCodice;
+    private int[] nome;  // autore o periodicità, numero nel dizionario
+    private long[] statoPrestito;  // stesso formato di Pubblicazione
+    private int usati;
+    private int size;
+
+    private byte[] testi;  // titoli e codici in UTF-8, uno dopo l'altro
+    private int testiUsati;
+    private final Dizionario autori;
+    private final Dizionario periodicita;
+    private final TabellaNumeri posizione;  // numero progressivo -> riga, cresce con le righe e non col numero più alto
+
+    /**
+     * Stringhe ripetute salvate una volta sola
+     */
+    private static class Dizionario {
+        private final HashMap<String, Integer> codici = new HashMap<>();
+        private String[] valori = new String[16];
+        private int size;
+
+        int codifica(String valore) {
+            Integer codice = codici.get(valore);
+            if (codice != null) {
+                return codice;
+            }
+            if (size == valori.length) {
+                valori = Arrays.copyOf(valori, size * 2);
+            }
+            valori[size] = valore;
+            codici.put(valore, size);
+            return size++;
+        }
+
+        String valore(int codice) {
+            return valori[codice];
+        }
+
+        long byteOccupati() {
+            long totale = 16L + 4L * valori.length + 48L * codici.size();  // array, voci della mappa
+            for (int i = 0; i < size; i++) {
+                totale += 24 + 16 + valori[i].length();  // String + byte[] (latin1)
+            }
+            return totale;
+        }
+    }
+
+    /**
+     * Cursore su una riga del catalogo: legge le colonne senza creare una
+     * pubblicazione. Si sposta con vai() e si può riusare quante volte si
+     * vuole; non va usato dopo aver modificato il catalogo.
+     */
+    public class Vista {
+        private int riga = -1;
+
+        /**
+         * @param numeroProgressivo la pubblicazione da leggere
+         * @return false se non è nel catalogo (la vista resta dov'era)
+         */
+        public boolean vai(int numeroProgressivo) {
+            int r = rigaDi(numeroProgressivo);
+            if (r < 0) {
+                return false;
+            }
+            riga = r;
+            return true;
+        }
+
+        private int riga() {
+            if (riga < 0 || riga >= usati || tipo[riga] == RIMOSSA) {
+                throw new IllegalStateException("vista non posizionata");
+            }
+            return riga;
+        }
+
+        public int getNumeroProgressivo() {
+            return numero[riga()];
+        }
+
+        public boolean isLibro() {
+            return tipo[riga()] == LIBRO;
+        }
+
+        public String getTitolo() {
+            int r = riga();
+            return testo(inizioTitolo[r], lunghezzaTitolo[r]);
+        }
+
+        /**
+         * @return la data di pubblicazione come epochDay, senza creare LocalDate
+         */
+        public int getGiornoPubblicazione() {
+            return giornoPubblicazione[riga()];
+        }
+
+        public LocalDate getDataPubblicazione() {
+            return LocalDate.ofEpochDay(giornoPubblicazione[riga()]);
+        }
+
+        public int getNumeroPagine() {
+            return pagine[riga()];
+        }
+
+        /**
+         * @return isbn per i libri, numero/volume per le riviste
+         */
+        public String getCodice() {
+            int r = riga();
+            return testo(inizioCodice[r], lunghezzaCodice[r]);
+        }
+
+        /**
+         * @return autore per i libri, periodicità per le riviste (dal dizionario, nessuna copia)
+         */
+        public String getNome() {
+            int r = riga();
+            return tipo[r] == LIBRO ? autori.valore(nome[r]) : periodicita.valore(nome[r]);
+        }
+
+        public boolean isInPrestito() {
+            return statoPrestito[riga()] != Pubblicazione.LIBERA;
+        }
+
+        /**
+         * @return un Libro o una Rivista con i dati di questa riga
+         */
+        public Pubblicazione materializza() {
+            return materializzaRiga(riga());
+        }
+    }
+
+    public CatalogoColonnare() {
+        this.tipo = new byte[16];
+        this.numero = new int[16];
+        this.giornoPubblicazione = new int[16];
+        this.pagine = new int[16];
+        this.inizioTitolo = new int[16];
+        this.lunghezzaTitolo = new int[16];
+        this.inizioCodice = new int[16];
+        this.lunghezzaCodice = new int[16];
+        this.nome = new int[16];
+        this.statoPrestito = new long[16];
+        this.testi = new byte[1024];
+        this.autori = new Dizionario();
+        this.periodicita = new Dizionario();
+        this.posizione = new TabellaNumeri();
+    }
+
+    /**
+     * Copia una pubblicazione nel catalogo, stato del prestito compreso
+     * @param p un Libro o una Rivista
+     */
+    public void aggiungi(Pubblicazione p) {
+        if (p instanceof Libro) {
+            Libro l = (Libro) p;
+            aggiungi(LIBRO, l.getNumeroProgressivo(), l.getTitolo(), l.getDataPubblicazione(),
+                l.getNumeroPagine(), l.getIsbn(), autori.codifica(l.getAutore()), l.getStatoPrestito());
+        } else if (p instanceof Rivista) {
+            Rivista r = (Rivista) p;
+            aggiungi(RIVISTA, r.getNumeroProgressivo(), r.getTitolo(), r.getDataPubblicazione(),
+                r.getNumeroPagine(), r.getNumeroVolume(), periodicita.codifica(r.getPeriodicita()), r.getStatoPrestito());
+        } else {
+            throw new IllegalArgumentException("pubblicazione: libro o rivista");
+        }
+    }
+
+    /**
+     * Aggiunge un libro senza creare l'oggetto (stessi controlli del costruttore)
+     */
+    public void aggiungiLibro(int numeroProgressivo, String titolo, LocalDate dataPubbl, int numPagine,
+                              String isbn, String autore) {
+        Pubblicazione.controllaCampi(titolo, dataPubbl, numPagine);
+        Libro.controllaCampi(isbn, autore);
+        aggiungi(LIBRO, numeroProgressivo, titolo, dataPubbl, numPagine, isbn, autori.codifica(autore), Pubblicazione.LIBERA);
+    }
+
+    /**
+     * Aggiunge una rivista senza creare l'oggetto (stessi controlli del costruttore)
+     */
+    public void aggiungiRivista(int numeroProgressivo, String titolo, LocalDate dataPubbl, int numPagine,
+                                String numVol, String periodicitaRivista) {
+        Pubblicazione.controllaCampi(titolo, dataPubbl, numPagine);
+        Rivista.controllaCampi(numVol, periodicitaRivista);
+        aggiungi(RIVISTA, numeroProgressivo, titolo, dataPubbl, numPagine, numVol,
+            periodicita.codifica(periodicitaRivista), Pubblicazione.LIBERA);
+    }
+
+    private void aggiungi(byte t, int num, String titolo, LocalDate dataPubbl, int numPagine,
+                          String codice, int codiceNome, long stato) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("numero progressivo > 0");
+        }
+        if (rigaDi(num) >= 0) {
+            throw new IllegalArgumentException("pubblicazione #" + num + " gia presente");
+        }
+
+        if (usati == tipo.length) {
+            if (size < usati / 2) {
+                compatta();  // bastano i buchi
+            } else {
+                allarga(usati * 2);
+            }
+        }
+
+        int r = usati;
+        tipo[r] = t;
+        numero[r] = num;
+        giornoPubblicazione[r] = Math.toIntExact(dataPubbl.toEpochDay());
+        pagine[r] = numPagine;
+        inizioTitolo[r] = scriviTesto(titolo);
+        lunghezzaTitolo[r] = testiUsati - inizioTitolo[r];
+        inizioCodice[r] = scriviTesto(codice);
+        lunghezzaCodice[r] = testiUsati - inizioCodice[r];
+        nome[r] = codiceNome;
+        statoPrestito[r] = stato;
+        posizione.put(num, usati++);
+        size++;
+    }
+
+    private int scriviTesto(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (testiUsati + b.length > testi.length) {
+            long nuova = Math.max((long) testi.length * 2, (long) testiUsati + b.length);
+            if (nuova > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("spazio per i testi esaurito");
+            }
+            testi = Arrays.copyOf(testi, (int) nuova);
+        }
+        int inizio = testiUsati;
+        System.arraycopy(b, 0, testi, inizio, b.length);
+        testiUsati += b.length;
+        return inizio;
+    }
+
+    private String testo(int inizio, int lunghezza) {
+        return new String(testi, inizio, lunghezza, StandardCharsets.UTF_8);
+    }
+
+    private void allarga(int capacita) {
+        tipo = Arrays.copyOf(tipo, capacita);
+        numero = Arrays.copyOf(numero, capacita);
+        giornoPubblicazione = Arrays.copyOf(giornoPubblicazione, capacita);
+        pagine = Arrays.copyOf(pagine, capacita);
+        inizioTitolo = Arrays.copyOf(inizioTitolo, capacita);
+        lunghezzaTitolo = Arrays.copyOf(lunghezzaTitolo, capacita);
+        inizioCodice = Arrays.copyOf(inizioCodice, capacita);
+        lunghezzaCodice = Arrays.copyOf(lunghezzaCodice, capacita);
+        nome = Arrays.copyOf(nome, capacita);
+        statoPrestito = Arrays.copyOf(statoPrestito, capacita);
+    }
+
+    /**
+     * Toglie una pubblicazione; lo spazio del titolo si recupera alla prossima compattazione
+     * @param numeroProgressivo l'ID della pubblicazione
+     * @return true se c'era
+     */
+    public boolean rimuovi(int numeroProgressivo) {
+        int r = rigaDi(numeroProgressivo);
+        if (r < 0) {
+            return false;
+        }
+        tipo[r] = RIMOSSA;
+        posizione.rimuovi(numeroProgressivo);
+        size--;
+
+        if (size == 0) {
+            usati = 0;
+            testiUsati = 0;
+        } else if (usati > 64 && size < usati / 4) {
+            compatta();
+        }
+        return true;
+    }
+
+    /**
+     * Sposta le righe in testa eliminando i buchi e riscrive i testi senza
+     * quelli delle pubblicazioni rimosse
+     */
+    private void compatta() {
+        byte[] nuoviTesti = new byte[Math.max(1024, testiUsati)];
+        int scritti = 0;
+        int j = 0;
+        for (int i = 0; i < usati; i++) {
+            if (tipo[i] == RIMOSSA) {
+                continue;
+            }
+            tipo[j] = tipo[i];
+            numero[j] = numero[i];
+            giornoPubblicazione[j] = giornoPubblicazione[i];
+            pagine[j] = pagine[i];
+            nome[j] = nome[i];
+            statoPrestito[j] = statoPrestito[i];
+
+            System.arraycopy(testi, inizioTitolo[i], nuoviTesti, scritti, lunghezzaTitolo[i]);
+            inizioTitolo[j] = scritti;
+            lunghezzaTitolo[j] = lunghezzaTitolo[i];
+            scritti += lunghezzaTitolo[i];
+            System.arraycopy(testi, inizioCodice[i], nuoviTesti, scritti, lunghezzaCodice[i]);
+            inizioCodice[j] = scritti;
+            lunghezzaCodice[j] = lunghezzaCodice[i];
+            scritti += lunghezzaCodice[i];
+
+            posizione.put(numero[j], j++);
+        }
+        Arrays.fill(tipo, j, usati, RIMOSSA);
+        usati = j;
+        testi = nuoviTesti;
+        testiUsati = scritti;
+    }
+
+    private int rigaDi(int numeroProgressivo) {
+        return posizione.get(numeroProgressivo, -1);
+    }
+
+    public boolean contiene(int numeroProgressivo) {
+        return rigaDi(numeroProgressivo) >= 0;
+    }
+
+    /**
+     * @return una vista nuova, da posizionare con vai()
+     */
+    public Vista vista() {
+        return new Vista();
+    }
+
+    /**
+     * Passa tutte le pubblicazioni, in ordine di inserimento, con la stessa
+     * vista (niente oggetti per riga)
+     * @param azione cosa fare su ogni riga
+     */
+    public void perOgni(Consumer<Vista> azione) {
+        Vista v = new Vista();
+        for (int r = 0; r < usati; r++) {
+            if (tipo[r] != RIMOSSA) {
+                v.riga = r;
+                azione.accept(v);
+            }
+        }
+    }
+
+    /**
+     * @param numeroProgressivo l'ID della pubblicazione
+     * @return un Libro o una Rivista con i dati del catalogo, o null
+     */
+    public Pubblicazione materializza(int numeroProgressivo) {
+        int r = rigaDi(numeroProgressivo);
+        return r < 0 ? null : materializzaRiga(r);
+    }
+
+    private Pubblicazione materializzaRiga(int r) {
+        Pubblicazione p;
+        if (tipo[r] == LIBRO) {
+            p = new Libro(numero[r], testo(inizioTitolo[r], lunghezzaTitolo[r]),
+                LocalDate.ofEpochDay(giornoPubblicazione[r]), pagine[r],
+                testo(inizioCodice[r], lunghezzaCodice[r]), autori.valore(nome[r]));
+        } else {
+            p = new Rivista(numero[r], testo(inizioTitolo[r], lunghezzaTitolo[r]),
+                LocalDate.ofEpochDay(giornoPubblicazione[r]), pagine[r],
+                testo(inizioCodice[r], lunghezzaCodice[r]), periodicita.valore(nome[r]));
+        }
+        p.ripristinaStatoPrestito(statoPrestito[r]);
+        return p;
+    }
+
+    /**
+     * Presta una pubblicazione del catalogo
+     * @param numeroProgressivo l'ID della pubblicazione
+     * @param utente nome dell'utente
+     * @param dataInizio data inizio prestito
+     */
+    public void prestito(int numeroProgressivo, String utente, LocalDate dataInizio) {
+        int r = rigaOppureErrore(numeroProgressivo);
+        if (utente == null || utente.trim().isEmpty()) {
+            throw new IllegalArgumentException("Il nome dell'utente non può essere vuoto");
+        }
+        if (dataInizio == null) {
+            throw new IllegalArgumentException("La data di inizio prestito non può essere null");
+        }
+        if (statoPrestito[r] != Pubblicazione.LIBERA) {
+            throw new IllegalStateException("La pubblicazione è già in prestito");
+        }
+        statoPrestito[r] = Pubblicazione.componi(RegistroUtenti.numeroDi(utente), dataInizio);
+    }
+
+    public void restituzione(int numeroProgressivo) {
+        int r = rigaOppureErrore(numeroProgressivo);
+        if (statoPrestito[r] == Pubblicazione.LIBERA) {
+            throw new IllegalStateException("La pubblicazione non è in prestito");
+        }
+        statoPrestito[r] = Pubblicazione.LIBERA;
+    }
+
+    private int rigaOppureErrore(int numeroProgressivo) {
+        int r = rigaDi(numeroProgressivo);
+        if (r < 0) {
+            throw new IllegalArgumentException("Pubblicazione non trovata");
+        }
+        return r;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Stima della memoria usata da colonne, testi e dizionari (header degli
+     * array compresi, JVM a 64 bit con puntatori compressi)
+     * @return byte occupati
+     */
+    public long byteOccupati() {
+        long colonne = 16L * 10  // header degli array
+            + tipo.length
+            + 4L * tipo.length * 8  // numero, giorno, pagine, titolo e codice (inizio e lunghezza), nome
+            + 8L * statoPrestito.length
+            + posizione.byteOccupati();
+        return colonne + 16 + testi.length + autori.byteOccupati() + periodicita.byteOccupati();
+    }
+}
@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Catalogo con indice sul numero progressivo: una tabella hash numero ->
+ * posizione a indirizzamento aperto (due array di int, niente Integer) dà
+ * ricerca, inserimento e rimozione in O(1). La tabella cresce con le
+ * pubblicazioni presenti e non con il numero più alto: le sedi di una
+ * BibliotecaFederata hanno numeri sparsi su tutta la rete, e un array
+ * indicizzato dal numero costerebbe a ogni sede quanto il catalogo intero.
+ * L'ordine di inserimento viene mantenuto: una rimozione lascia un buco
+ * che viene recuperato quando i buchi diventano troppi.
+ * @author giordii.dev
+ */
+public class CatalogoIndicizzato implements Iterable<Pubblicazione> {
+    private static final int VUOTA = 0;
+
+    private Pubblicazione[] elementi;  // in ordine di inserimento, null = rimossa
+    private int usati;  // posizioni occupate in elementi (buchi compresi)
+    private int[] numeri;  // tabella hash: numero progressivo + 1, VUOTA = cella libera
+    private int[] posizioni;  // posizione in elementi, nella stessa cella del numero
+    private int maschera;  // celle - 1, le celle sono una potenza di 2
+    private int size;
+
+    public CatalogoIndicizzato() {
+        this.elementi = new Pubblicazione[16];
+        this.numeri = new int[32];
+        this.posizioni = new int[32];
+        this.maschera = 31;
+    }
+
+    /**
+     * Aggiunge una pubblicazione in fondo al catalogo
+     * @param p la pubblicazione da aggiungere
+     */
+    public void aggiungi(Pubblicazione p) {
+        int numero = p.getNumeroProgressivo();
+        if (numero < 0) {
+            throw new IllegalArgumentException("numero progressivo >= 0");
+        }
+        if (cella(numero) >= 0) {
+            throw new IllegalArgumentException("pubblicazione #" + numero + " gia presente");
+        }
+
+        if (usati == elementi.length) {
+            if (size < usati / 2) {
+                compatta();  // basta recuperare i buchi
+            } else {
+                elementi = Arrays.copyOf(elementi, elementi.length * 2);
+            }
+        }
+        if ((size + 1) * 2 > numeri.length) {
+            allargaIndice(numeri.length * 2);  // carico massimo 50%
+        }
+
+        elementi[usati] = p;
+        indicizza(numero, usati++);
+        size++;
+    }
+
+    /**
+     * Prepara lo spazio per un caricamento in blocco, così gli array
+     * crescono una volta sola invece di raddoppiare più volte
+     * @param altri quante pubblicazioni stanno per arrivare
+     */
+    public void riserva(int altri) {
+        if (altri < 0) {
+            throw new IllegalArgumentException("altri >= 0");
+        }
+        if (usati + altri > elementi.length) {
+            if (size + altri <= usati) {
+                compatta();  // i buchi bastano, forse
+            }
+            if (usati + altri > elementi.length) {
+                elementi = Arrays.copyOf(elementi, usati + altri);
+            }
+        }
+        int celle = numeri.length;
+        while (celle < (long) (size + altri) * 2) {
+            celle *= 2;
+        }
+        if (celle > numeri.length) {
+            allargaIndice(celle);
+        }
+    }
+    
+    /**
+     * Rimuove una pubblicazione
+     * @param numero numero progressivo
+     * @return la pubblicazione rimossa o null se non c'era
+     */
+    public Pubblicazione rimuovi(int numero) {
+        int c = cella(numero);
+        if (c < 0) {
+            return null;
+        }
+
+        int i = posizioni[c];
+        Pubblicazione p = elementi[i];
+        elementi[i] = null;  // lascio il buco, l'ordine degli altri non cambia
+        libera(c);
+        size--;
+
+        if (size == 0) {
+            usati = 0;  // catalogo vuoto, riparto dall'inizio
+        } else if (usati > 64 && size < usati / 4) {
+            compatta();
+        }
+        return p;
+    }
+
+    /**
+     * Cerca una pubblicazione per numero progressivo
+     * @param numero numero progressivo
+     * @return la pubblicazione o null se non presente
+     */
+    public Pubblicazione cerca(int numero) {
+        int c = cella(numero);
+        return c < 0 ? null : elementi[posizioni[c]];
+    }
+
+    /**
+     * Posizione nell'ordine del catalogo, per ordinare sottoinsiemi senza
+     * scorrerlo tutto (cambia con le compattazioni, non va conservata)
+     * @param numero numero progressivo
+     * @return la posizione o -1 se non presente
+     */
+    int posizioneDi(int numero) {
+        int c = cella(numero);
+        return c < 0 ? -1 : posizioni[c];
+    }
+
+    /**
+     * Un pezzo del catalogo, in ordine: senza buchi si va dritti alla
+     * posizione, altrimenti bisogna contare quelle prima
+     * @param da quante pubblicazioni saltare
+     * @param quante quante prenderne al massimo
+     * @return le pubblicazioni dell'intervallo
+     */
+    public ArrayList<Pubblicazione> intervallo(int da, int quante) {
+        if (da < 0 || quante < 0) {
+            throw new IllegalArgumentException("da >= 0, quante >= 0");
+        }
+        ArrayList<Pubblicazione> risultato = new ArrayList<>(Math.min(quante, Math.max(0, size - da)));
+        int i = 0;
+        if (size == usati) {
+            i = da;  // nessun buco
+        } else {
+            for (int saltate = 0; i < usati && saltate < da; i++) {
+                if (elementi[i] != null) {
+                    saltate++;
+                }
+            }
+        }
+        for (; i < usati && risultato.size() < quante; i++) {
+            if (elementi[i] != null) {
+                risultato.add(elementi[i]);
+            }
+        }
+        return risultato;
+    }
+    
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Sposta le pubblicazioni in testa eliminando i buchi; costa O(n) ma si
+     * fa solo dopo almeno n/2 rimozioni, quindi in media O(1) per rimozione
+     */
+    private void compatta() {
+        int j = 0;
+        for (int i = 0; i < usati; i++) {
+            Pubblicazione p = elementi[i];
+            if (p != null) {
+                elementi[j] = p;
+                posizioni[cella(p.getNumeroProgressivo())] = j++;
+            }
+        }
+        Arrays.fill(elementi, j, usati, null);
+        usati = j;
+    }
+
+    /**
+     * @return la cella della tabella che contiene il numero, -1 se non c'è
+     */
+    private int cella(int numero) {
+        if (numero < 0) {
+            return -1;
+        }
+        int chiave = numero + 1;
+        for (int c = inizio(chiave); numeri[c] != VUOTA; c = (c + 1) & maschera) {
+            if (numeri[c] == chiave) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    // il numero non deve esserci già, e deve esserci posto
+    private void indicizza(int numero, int pos) {
+        int chiave = numero + 1;
+        int c = inizio(chiave);
+        while (numeri[c] != VUOTA) {
+            c = (c + 1) & maschera;
+        }
+        numeri[c] = chiave;
+        posizioni[c] = pos;
+    }
+
+    /**
+     * Svuota la cella c riportando indietro i numeri che la seguono nella
+     * stessa catena, così le ricerche non si fermano su un buco
+     */
+    private void libera(int c) {
+        int vuota = c;
+        for (int j = (c + 1) & maschera; numeri[j] != VUOTA; j = (j + 1) & maschera) {
+            int ideale = inizio(numeri[j]);
+            // j può scendere in "vuota" solo se la sua cella ideale non sta tra le due
+            boolean scende = vuota <= j ? (ideale <= vuota || ideale > j) : (ideale <= vuota && ideale > j);
+            if (scende) {
+                numeri[vuota] = numeri[j];
+                posizioni[vuota] = posizioni[j];
+                vuota = j;
+            }
+        }
+        numeri[vuota] = VUOTA;
+    }
+
+    private void allargaIndice(int celle) {
+        int[] vecchiNumeri = numeri;
+        int[] vecchiePosizioni = posizioni;
+        numeri = new int[celle];
+        posizioni = new int[celle];
+        maschera = celle - 1;
+        for (int c = 0; c < vecchiNumeri.length; c++) {
+            if (vecchiNumeri[c] != VUOTA) {
+                indicizza(vecchiNumeri[c] - 1, vecchiePosizioni[c]);
+            }
+        }
+    }
+
+    private int inizio(int chiave) {
+        int h = chiave * 0x9E3779B9;  // i numeri sono spesso consecutivi: mescolo i bit
+        return (h ^ (h >>> 16)) & maschera;
+    }
+
+    @Override
+    public Iterator<Pubblicazione> iterator() {
+        return new Iterator<Pubblicazione>() {
+            private int prossimo = avanza(0);
+
+            private int avanza(int da) {
+                while (da < usati && elementi[da] == null) {
+                    da++;  // salto i buchi
+                }
+                return da;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return prossimo < usati;
+            }
+
+            @Override
+            public Pubblicazione next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Pubblicazione p = elementi[prossimo];
+                prossimo = avanza(prossimo + 1);
+                return p;
+            }
+        };
+    }
+}
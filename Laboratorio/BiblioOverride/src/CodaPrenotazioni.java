@@ -0,0 +1,363 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prenotazioni delle pubblicazioni in prestito: una coda per pubblicazione,
+ * il primo arrivato è il primo servito. Ogni prenotazione ha una scadenza,
+ * dopo la quale l'utente non la vuole più.
+ *
+ * Le prenotazioni non sono oggetti: stanno in un gruppo di array (un nodo
+ * = una posizione) riusati con una lista dei nodi liberi, e ogni nodo è
+ * collegato in due liste doppie, la coda della sua pubblicazione e le
+ * prenotazioni che scadono lo stesso giorno. Così aggiungere, annullare,
+ * servire il primo e togliere le scadute costa O(1) a prenotazione anche
+ * con migliaia di utenti in coda per lo stesso titolo. Il numero massimo
+ * di prenotazioni è fissato alla creazione.
+ *
+ * Tutti i metodi sono synchronized.
+ * @author giordii.dev
+ */
+public class CodaPrenotazioni implements AutoCloseable {
+    private static final int NESSUNO = -1;
+
+    private final int capacitaMassima;
+
+    // un nodo per prenotazione
+    private int[] pubblicazione;
+    private int[] utente;
+    private int[] scadenza;  // epochDay, ultimo giorno valido
+    private int[] generazione;  // cambia quando il nodo viene riusato, invalida i vecchi id
+    private int[] prossimo;  // nella coda della pubblicazione (o nella lista dei liberi)
+    private int[] precedente;
+    private int[] prossimoGiorno;  // tra quelle che scadono lo stesso giorno
+    private int[] precedenteGiorno;
+    private int allocati;  // nodi mai usati oltre questo indice
+    private int liberi = NESSUNO;  // testa della lista dei nodi liberi
+    private int size;
+
+    private final HashMap<Integer, int[]> code;  // numero -> {primo, ultimo, quanti}
+    private final TreeMap<Integer, Integer> perScadenza;  // giorno -> primo nodo che scade quel giorno
+    private final HashSet<Long> inCoda;  // (numero, utente): niente doppie prenotazioni
+
+    private ScheduledExecutorService pulizia;
+
+    public CodaPrenotazioni() {
+        this(1 << 20);
+    }
+
+    /**
+     * @param capacitaMassima prenotazioni attive al massimo (la memoria cresce fino a lì)
+     */
+    public CodaPrenotazioni(int capacitaMassima) {
+        if (capacitaMassima <= 0) {
+            throw new IllegalArgumentException("capacita > 0");
+        }
+        this.capacitaMassima = capacitaMassima;
+        int iniziale = Math.min(64, capacitaMassima);
+        this.pubblicazione = new int[iniziale];
+        this.utente = new int[iniziale];
+        this.scadenza = new int[iniziale];
+        this.generazione = new int[iniziale];
+        this.prossimo = new int[iniziale];
+        this.precedente = new int[iniziale];
+        this.prossimoGiorno = new int[iniziale];
+        this.precedenteGiorno = new int[iniziale];
+        this.code = new HashMap<>();
+        this.perScadenza = new TreeMap<>();
+        this.inCoda = new HashSet<>();
+    }
+
+    /**
+     * Mette un utente in fondo alla coda di una pubblicazione
+     * @param numeroPubblicazione numero progressivo
+     * @param nomeUtente chi prenota
+     * @param scadenzaPrenotazione ultimo giorno in cui la vuole ancora
+     * @return l'id della prenotazione, per annullarla
+     * @throws IllegalStateException se l'utente è già in coda o non c'è più posto
+     */
+    public synchronized long prenota(int numeroPubblicazione, String nomeUtente, LocalDate scadenzaPrenotazione) {
+        if (nomeUtente == null || nomeUtente.trim().isEmpty()) {
+            throw new IllegalArgumentException("Il nome dell'utente non può essere vuoto");
+        }
+        if (scadenzaPrenotazione == null) {
+            throw new IllegalArgumentException("scadenza != null");
+        }
+        int u = RegistroUtenti.numeroDi(nomeUtente);
+        if (inCoda.contains(chiave(numeroPubblicazione, u))) {
+            throw new IllegalStateException("L'utente ha già prenotato questa pubblicazione");
+        }
+
+        int nodo = nuovoNodo();
+        int giorno = Math.toIntExact(scadenzaPrenotazione.toEpochDay());
+        pubblicazione[nodo] = numeroPubblicazione;
+        utente[nodo] = u;
+        scadenza[nodo] = giorno;
+
+        // in fondo alla coda della pubblicazione
+        int[] coda = code.computeIfAbsent(numeroPubblicazione, n -> new int[] {NESSUNO, NESSUNO, 0});
+        precedente[nodo] = coda[1];
+        prossimo[nodo] = NESSUNO;
+        if (coda[1] == NESSUNO) {
+            coda[0] = nodo;
+        } else {
+            prossimo[coda[1]] = nodo;
+        }
+        coda[1] = nodo;
+        coda[2]++;
+
+        // in testa alla lista del giorno di scadenza (l'ordine lì non conta)
+        Integer testa = perScadenza.put(giorno, nodo);
+        precedenteGiorno[nodo] = NESSUNO;
+        prossimoGiorno[nodo] = testa == null ? NESSUNO : testa;
+        if (testa != null) {
+            precedenteGiorno[testa] = nodo;
+        }
+
+        inCoda.add(chiave(numeroPubblicazione, u));
+        size++;
+        return id(nodo);
+    }
+
+    /**
+     * @param idPrenotazione id restituito da prenota()
+     * @return true se era ancora in coda
+     */
+    public synchronized boolean annulla(long idPrenotazione) {
+        int nodo = nodoDi(idPrenotazione);
+        if (nodo == NESSUNO) {
+            return false;
+        }
+        togli(nodo);
+        return true;
+    }
+
+    /**
+     * Prima prenotazione ancora valida di una pubblicazione; quelle scadute
+     * prima di oggi che si trovano in testa vengono tolte
+     * @param numeroPubblicazione numero progressivo
+     * @param oggi data di riferimento
+     * @return l'id della prenotazione o -1 se la coda è vuota
+     */
+    public synchronized long prima(int numeroPubblicazione, LocalDate oggi) {
+        long giorno = oggi.toEpochDay();
+        int[] coda = code.get(numeroPubblicazione);
+        while (coda != null && coda[0] != NESSUNO) {
+            int nodo = coda[0];
+            if (scadenza[nodo] >= giorno) {
+                return id(nodo);
+            }
+            togli(nodo);  // scaduta
+            coda = code.get(numeroPubblicazione);
+        }
+        return -1;
+    }
+
+    /**
+     * Come prima(), ma non toglie niente: le scadute prima del giorno dato
+     * vengono solo saltate. Per controllare la coda a una data che non è
+     * oggi (es. un prestito che parte tra una settimana) senza buttare
+     * prenotazioni che oggi valgono ancora.
+     * @param numeroPubblicazione numero progressivo
+     * @param giorno data a cui la prenotazione deve essere ancora valida
+     * @return l'id della prenotazione o -1 se nessuna vale a quella data
+     */
+    public synchronized long primaValida(int numeroPubblicazione, LocalDate giorno) {
+        long limite = giorno.toEpochDay();
+        int[] coda = code.get(numeroPubblicazione);
+        for (int n = coda == null ? NESSUNO : coda[0]; n != NESSUNO; n = prossimo[n]) {
+            if (scadenza[n] >= limite) {
+                return id(n);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param idPrenotazione id di una prenotazione in coda
+     * @return chi ha prenotato
+     */
+    public synchronized String getUtente(long idPrenotazione) {
+        int nodo = nodoDi(idPrenotazione);
+        if (nodo == NESSUNO) {
+            throw new IllegalArgumentException("prenotazione non in coda");
+        }
+        return RegistroUtenti.nomeDi(utente[nodo]);
+    }
+
+    /**
+     * @param numeroPubblicazione numero progressivo
+     * @return quante prenotazioni ha, scadute non ancora tolte comprese
+     */
+    public synchronized int contaPrenotazioni(int numeroPubblicazione) {
+        int[] coda = code.get(numeroPubblicazione);
+        return coda == null ? 0 : coda[2];
+    }
+
+    /**
+     * @param numeroPubblicazione numero progressivo
+     * @return gli utenti in coda, dal primo
+     */
+    public synchronized ArrayList<String> getCoda(int numeroPubblicazione) {
+        ArrayList<String> utenti = new ArrayList<>();
+        int[] coda = code.get(numeroPubblicazione);
+        for (int n = coda == null ? NESSUNO : coda[0]; n != NESSUNO; n = prossimo[n]) {
+            utenti.add(RegistroUtenti.nomeDi(utente[n]));
+        }
+        return utenti;
+    }
+
+    /**
+     * Toglie tutte le prenotazioni di una pubblicazione (es. uscita dal catalogo)
+     * @param numeroPubblicazione numero progressivo
+     * @return quante ne ha tolte
+     */
+    public synchronized int annullaTutte(int numeroPubblicazione) {
+        int tolte = 0;
+        int[] coda = code.get(numeroPubblicazione);
+        while (coda != null && coda[0] != NESSUNO) {
+            togli(coda[0]);
+            tolte++;
+            coda = code.get(numeroPubblicazione);
+        }
+        return tolte;
+    }
+
+    /**
+     * Toglie le prenotazioni scadute prima di oggi: legge solo i giorni passati
+     * @param oggi data di riferimento
+     * @return quante ne ha tolte
+     */
+    public synchronized int eliminaScadute(LocalDate oggi) {
+        int tolte = 0;
+        int limite = Math.toIntExact(oggi.toEpochDay());
+        Map.Entry<Integer, Integer> giorno;
+        while ((giorno = perScadenza.firstEntry()) != null && giorno.getKey() < limite) {
+            togli(giorno.getValue());  // la testa cambia (o sparisce) a ogni giro
+            tolte++;
+        }
+        return tolte;
+    }
+
+    /**
+     * Toglie le prenotazioni scadute in background, a intervalli regolari
+     * @param periodo ogni quanto
+     * @param unita unità di misura del periodo
+     */
+    public synchronized void avviaPulizia(long periodo, TimeUnit unita) {
+        if (periodo <= 0 || unita == null) {
+            throw new IllegalArgumentException("periodo > 0");
+        }
+        if (pulizia != null) {
+            throw new IllegalStateException("pulizia gia avviata");
+        }
+        pulizia = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pulizia-prenotazioni");
+            t.setDaemon(true);
+            return t;
+        });
+        pulizia.scheduleWithFixedDelay(() -> eliminaScadute(LocalDate.now()), periodo, periodo, unita);
+    }
+
+    /**
+     * Ferma la pulizia in background, se avviata
+     */
+    @Override
+    public synchronized void close() {
+        if (pulizia != null) {
+            pulizia.shutdownNow();
+            pulizia = null;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int nuovoNodo() {
+        if (liberi != NESSUNO) {
+            int nodo = liberi;
+            liberi = prossimo[nodo];
+            return nodo;
+        }
+        if (allocati == capacitaMassima) {
+            throw new IllegalStateException("troppe prenotazioni (massimo " + capacitaMassima + ")");
+        }
+        if (allocati == pubblicazione.length) {
+            int nuova = (int) Math.min((long) allocati * 2, capacitaMassima);
+            pubblicazione = Arrays.copyOf(pubblicazione, nuova);
+            utente = Arrays.copyOf(utente, nuova);
+            scadenza = Arrays.copyOf(scadenza, nuova);
+            generazione = Arrays.copyOf(generazione, nuova);
+            prossimo = Arrays.copyOf(prossimo, nuova);
+            precedente = Arrays.copyOf(precedente, nuova);
+            prossimoGiorno = Arrays.copyOf(prossimoGiorno, nuova);
+            precedenteGiorno = Arrays.copyOf(precedenteGiorno, nuova);
+        }
+        return allocati++;
+    }
+
+    /**
+     * Scollega il nodo dalle sue due liste e lo rimette tra i liberi
+     */
+    private void togli(int nodo) {
+        int numero = pubblicazione[nodo];
+        int[] coda = code.get(numero);
+        if (precedente[nodo] == NESSUNO) {
+            coda[0] = prossimo[nodo];
+        } else {
+            prossimo[precedente[nodo]] = prossimo[nodo];
+        }
+        if (prossimo[nodo] == NESSUNO) {
+            coda[1] = precedente[nodo];
+        } else {
+            precedente[prossimo[nodo]] = precedente[nodo];
+        }
+        if (--coda[2] == 0) {
+            code.remove(numero);
+        }
+
+        int giorno = scadenza[nodo];
+        if (precedenteGiorno[nodo] == NESSUNO) {
+            if (prossimoGiorno[nodo] == NESSUNO) {
+                perScadenza.remove(giorno);
+            } else {
+                perScadenza.put(giorno, prossimoGiorno[nodo]);
+            }
+        } else {
+            prossimoGiorno[precedenteGiorno[nodo]] = prossimoGiorno[nodo];
+        }
+        if (prossimoGiorno[nodo] != NESSUNO) {
+            precedenteGiorno[prossimoGiorno[nodo]] = precedenteGiorno[nodo];
+        }
+
+        inCoda.remove(chiave(numero, utente[nodo]));
+        generazione[nodo]++;  // i vecchi id non valgono più
+        prossimo[nodo] = liberi;
+        liberi = nodo;
+        size--;
+    }
+
+    private long id(int nodo) {
+        return ((long) generazione[nodo] << 32) | nodo;
+    }
+
+    private int nodoDi(long id) {
+        int nodo = (int) id;
+        if (nodo < 0 || nodo >= allocati || generazione[nodo] != (int) (id >>> 32)) {
+            return NESSUNO;
+        }
+        return nodo;
+    }
+
+    private static long chiave(int numero, int u) {
+        return ((long) numero << 32) | (u & 0xFFFFFFFFL);
+    }
+}
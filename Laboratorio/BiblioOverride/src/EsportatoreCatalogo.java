@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Scrive pubblicazioni su un canale (file, socket...) una per riga, con lo
+ * stesso testo di toString() ma senza passare da String.format e senza
+ * creare stringhe: i campi vengono codificati in UTF-8 direttamente in un
+ * buffer, che va sul canale solo quando è pieno. Per esportare cataloghi
+ * grandi è molto più veloce di un println per pubblicazione.
+ *
+ * Un esportatore non è thread-safe (ha un buffer suo): uno per thread.
+ * @author giordii.dev
+ */
+public class EsportatoreCatalogo {
+    private static final int DIMENSIONE_PREDEFINITA = 1 << 20;
+
+    private final ByteBuffer buffer;  // diretto: il canale lo scrive senza copiarlo
+    private byte[] riga;  // la riga in preparazione
+    private int lunghezza;
+
+    public EsportatoreCatalogo() {
+        this(DIMENSIONE_PREDEFINITA);
+    }
+
+    /**
+     * @param dimensioneBuffer byte accumulati prima di scrivere sul canale
+     */
+    public EsportatoreCatalogo(int dimensioneBuffer) {
+        if (dimensioneBuffer < 1024) {
+            throw new IllegalArgumentException("dimensione buffer >= 1024");
+        }
+        this.buffer = ByteBuffer.allocateDirect(dimensioneBuffer);
+        this.riga = new byte[512];
+    }
+
+    /**
+     * Scrive le pubblicazioni nel file, sostituendolo se esiste
+     * @param elenco cosa scrivere, nell'ordine dato
+     * @param file dove scrivere
+     * @return byte scritti
+     * @throws IOException in caso di errore di scrittura
+     */
+    public long esporta(Iterable<? extends Pubblicazione> elenco, Path file) throws IOException {
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return esporta(elenco, canale);
+        }
+    }
+
+    /**
+     * Scrive le pubblicazioni sul canale, una per riga; il canale resta aperto
+     * @param elenco cosa scrivere, nell'ordine dato
+     * @param canale dove scrivere
+     * @return byte scritti
+     * @throws IOException in caso di errore di scrittura
+     */
+    public long esporta(Iterable<? extends Pubblicazione> elenco, WritableByteChannel canale) throws IOException {
+        if (elenco == null || canale == null) {
+            throw new IllegalArgumentException("elenco != null, canale != null");
+        }
+        buffer.clear();
+        long scritti = 0;
+        for (Pubblicazione p : elenco) {
+            lunghezza = 0;
+            codifica(p);
+            scrivi('\n');
+
+            if (lunghezza > buffer.remaining()) {
+                scritti += svuota(canale);
+                if (lunghezza > buffer.capacity()) {
+                    scritti += scriviTutto(canale, ByteBuffer.wrap(riga, 0, lunghezza));  // riga enorme, va a parte
+                    continue;
+                }
+            }
+            buffer.put(riga, 0, lunghezza);
+        }
+        return scritti + svuota(canale);
+    }
+
+    private long svuota(WritableByteChannel canale) throws IOException {
+        buffer.flip();
+        long n = scriviTutto(canale, buffer);
+        buffer.clear();
+        return n;
+    }
+
+    private static long scriviTutto(WritableByteChannel canale, ByteBuffer b) throws IOException {
+        long n = 0;
+        while (b.hasRemaining()) {
+            n += canale.write(b);
+        }
+        return n;
+    }
+
+    /**
+     * Stesso testo di Libro.toString() e Rivista.toString()
+     */
+    private void codifica(Pubblicazione p) {
+        if (p instanceof Libro) {
+            scrivi("LIBRO: ");
+        } else if (p instanceof Rivista) {
+            scrivi("RIVISTA: ");
+        } else {
+            scrivi(p.toString());  // tipo che non conosco, mi fido di toString
+            return;
+        }
+
+        scrivi("[#");
+        scrivi(p.getNumeroProgressivo());
+        scrivi("] ");
+        scrivi(p.getTitolo());
+        scrivi(" - ");
+        scrivi(p.getDataPubblicazione());
+        scrivi(" - ");
+        scrivi(p.getNumeroPagine());
+        scrivi(" pagine");
+
+        long stato = p.getStatoPrestito();  // letto una volta sola, come in toString
+        if (stato != Pubblicazione.LIBERA) {
+            LocalDate inizio = Pubblicazione.inizioDi(stato);
+            scrivi(" | IN PRESTITO a ");
+            scrivi(RegistroUtenti.nomeDi(Pubblicazione.utenteDi(stato)));
+            scrivi(" (dal ");
+            scrivi(inizio);
+            scrivi(", rientro previsto: ");
+            scrivi(p.calcolaDataRestituzione(inizio));
+            scrivi(')');
+        } else {
+            scrivi(" | DISPONIBILE");
+        }
+
+        if (p instanceof Libro) {
+            Libro l = (Libro) p;
+            scrivi(" | ISBN: ");
+            scrivi(l.getIsbn());
+            scrivi(" | Autore: ");
+            scrivi(l.getAutore());
+        } else {
+            Rivista r = (Rivista) p;
+            scrivi(" | N/Vol: ");
+            scrivi(r.getNumeroVolume());
+            scrivi(" | Periodicità: ");
+            scrivi(r.getPeriodicita());
+        }
+    }
+
+    private void spazio(int byteInPiu) {
+        if (lunghezza + byteInPiu > riga.length) {
+            riga = Arrays.copyOf(riga, Math.max(riga.length * 2, lunghezza + byteInPiu));
+        }
+    }
+
+    private void scrivi(char ascii) {
+        spazio(1);
+        riga[lunghezza++] = (byte) ascii;
+    }
+
+    /**
+     * UTF-8 a mano, carattere per carattere
+     */
+    private void scrivi(String s) {
+        int n = s.length();
+        spazio(n * 3);  // un char non supera mai 3 byte (le coppie surrogate ne fanno 4 in due char)
+        byte[] r = riga;
+        int pos = lunghezza;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                r[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                r[pos++] = (byte) (0xC0 | (c >> 6));
+                r[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    r[pos++] = (byte) (0xF0 | (cp >> 18));
+                    r[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    r[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    r[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    r[pos++] = '?';  // surrogato spaiato, come fa getBytes
+                }
+            } else {
+                r[pos++] = (byte) (0xE0 | (c >> 12));
+                r[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                r[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        lunghezza = pos;
+    }
+
+    private void scrivi(int valore) {
+        spazio(11);
+        if (valore < 0) {
+            if (valore == Integer.MIN_VALUE) {
+                scrivi(Integer.toString(valore));
+                return;
+            }
+            riga[lunghezza++] = '-';
+            valore = -valore;
+        }
+        int cifre = 1;
+        for (int v = valore; v >= 10; v /= 10) {
+            cifre++;
+        }
+        int pos = lunghezza + cifre;
+        lunghezza = pos;
+        do {
+            riga[--pos] = (byte) ('0' + valore % 10);
+            valore /= 10;
+        } while (valore > 0);
+    }
+
+    /**
+     * aaaa-mm-gg come LocalDate.toString()
+     */
+    private void scrivi(LocalDate data) {
+        int anno = data.getYear();
+        if (anno < 0 || anno > 9999) {
+            scrivi(data.toString());  // anni strani: segno e più cifre, lascio fare a LocalDate
+            return;
+        }
+        spazio(10);
+        cifre(anno, 4);
+        riga[lunghezza++] = '-';
+        cifre(data.getMonthValue(), 2);
+        riga[lunghezza++] = '-';
+        cifre(data.getDayOfMonth(), 2);
+    }
+
+    private void cifre(int valore, int quante) {
+        for (int i = lunghezza + quante - 1; i >= lunghezza; i--) {
+            riga[i] = (byte) ('0' + valore % 10);
+            valore /= 10;
+        }
+        lunghezza += quante;
+    }
+}
@@ -0,0 +1,456 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Caricamento del catalogo da file di testo, una pubblicazione per riga:
+ * <pre>
+ * tipo;titolo;data;pagine;codice;nome
+ * LIBRO;Il Nome della Rosa;1980-09-01;503;978-88-452-6647-7;Umberto Eco
+ * RIVISTA;Focus;2024-10-15;98;N. 385;Mensile
+ * </pre>
+ * Per i libri codice e nome sono isbn e autore, per le riviste numero/volume
+ * e periodicità. Un campo tra virgolette può contenere ';' (le virgolette
+ * dentro si scrivono ""). Righe vuote e righe che iniziano con '#' vengono
+ * saltate, così come l'intestazione.
+ *
+ * Il file viene letto a blocchi di un mega: ogni blocco viene diviso in
+ * righe, controllato con le stesse regole dei costruttori e trasformato in
+ * pubblicazioni da un thread del pool, che si riserva un intervallo di
+ * numeri progressivi dall'allocatore della biblioteca. Le pubblicazioni
+ * entrano in biblioteca un blocco alla volta e nell'ordine del file (i
+ * numeri di blocchi diversi possono quindi non essere in ordine); i blocchi in lavorazione sono al massimo due per
+ * thread, quindi la memoria usata non dipende dalla dimensione del file.
+ * Una riga sbagliata finisce tra gli errori e non ferma il caricamento.
+ * @author giordii.dev
+ */
+public class ImportatoreCatalogo {
+    private static final int DIMENSIONE_BLOCCO = 1 << 20;
+    private static final int MAX_ERRORI_SALVATI = 1000;  // oltre li conto e basta
+    private static final int CAMPI = 6;
+
+    private final Biblioteca biblioteca;
+    private final int numThread;
+
+    /**
+     * Errore su una riga del file
+     */
+    public static class ErroreRiga {
+        private final long riga;
+        private final String messaggio;
+
+        ErroreRiga(long riga, String messaggio) {
+            this.riga = riga;
+            this.messaggio = messaggio;
+        }
+
+        public long getRiga() {
+            return riga;
+        }
+
+        public String getMessaggio() {
+            return messaggio;
+        }
+
+        @Override
+        public String toString() {
+            return "riga " + riga + ": " + messaggio;
+        }
+    }
+
+    /**
+     * Risultato di un caricamento
+     */
+    public static class Esito {
+        private long righeLette;
+        private long importate;
+        private long numeroErrori;
+        private final ArrayList<ErroreRiga> errori = new ArrayList<>();
+
+        private void errore(long riga, String messaggio) {
+            numeroErrori++;
+            if (errori.size() < MAX_ERRORI_SALVATI) {
+                errori.add(new ErroreRiga(riga, messaggio));
+            }
+        }
+
+        public long getRigheLette() {
+            return righeLette;
+        }
+
+        public long getImportate() {
+            return importate;
+        }
+
+        public long getNumeroErrori() {
+            return numeroErrori;
+        }
+
+        /**
+         * @return i primi errori, in ordine di riga (al massimo MAX_ERRORI_SALVATI)
+         */
+        public List<ErroreRiga> getErrori() {
+            return Collections.unmodifiableList(errori);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d righe, %d pubblicazioni importate, %d errori",
+                righeLette, importate, numeroErrori);
+        }
+    }
+
+    /**
+     * Righe di un blocco già controllate, pronte per diventare pubblicazioni
+     */
+    private static class Lotto {
+        int righe;  // righe del blocco, anche quelle saltate o sbagliate
+        int validi;
+        boolean[] libro = new boolean[256];
+        String[] titolo = new String[256];
+        LocalDate[] data = new LocalDate[256];
+        int[] pagine = new int[256];
+        String[] codice = new String[256];
+        String[] nome = new String[256];
+        final ArrayList<ErroreRiga> errori = new ArrayList<>();  // riga relativa al blocco
+        ArrayList<Pubblicazione> create;
+
+        void aggiungi(boolean l, String t, LocalDate d, int p, String c, String n) {
+            if (validi == titolo.length) {
+                int nuova = validi * 2;
+                libro = Arrays.copyOf(libro, nuova);
+                titolo = Arrays.copyOf(titolo, nuova);
+                data = Arrays.copyOf(data, nuova);
+                pagine = Arrays.copyOf(pagine, nuova);
+                codice = Arrays.copyOf(codice, nuova);
+                nome = Arrays.copyOf(nome, nuova);
+            }
+            libro[validi] = l;
+            titolo[validi] = t;
+            data[validi] = d;
+            pagine[validi] = p;
+            codice[validi] = c;
+            nome[validi] = n;
+            validi++;
+        }
+
+        static Lotto rigaTroppoLunga() {
+            Lotto lotto = new Lotto();
+            lotto.righe = 1;
+            lotto.errori.add(new ErroreRiga(1, "riga piu lunga di " + DIMENSIONE_BLOCCO + " byte"));
+            lotto.create = new ArrayList<>();
+            return lotto;
+        }
+    }
+
+    /**
+     * @param biblioteca dove caricare le pubblicazioni
+     */
+    public ImportatoreCatalogo(Biblioteca biblioteca) {
+        this(biblioteca, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param biblioteca dove caricare le pubblicazioni
+     * @param numThread thread che controllano le righe
+     */
+    public ImportatoreCatalogo(Biblioteca biblioteca, int numThread) {
+        if (biblioteca == null) {
+            throw new IllegalArgumentException("biblioteca != null");
+        }
+        if (numThread <= 0) {
+            throw new IllegalArgumentException("numero thread > 0");
+        }
+        this.biblioteca = biblioteca;
+        this.numThread = numThread;
+    }
+
+    /**
+     * Carica tutte le pubblicazioni valide del file
+     * @param file il file da leggere (UTF-8)
+     * @return righe lette, pubblicazioni importate ed errori
+     * @throws IOException se il file non si legge
+     */
+    public Esito importa(Path file) throws IOException {
+        Esito esito = new Esito();
+        AllocatoreNumeri numeri = biblioteca.getAllocatoreNumeri();
+        ExecutorService pool = Executors.newFixedThreadPool(numThread);
+        ArrayDeque<Future<Lotto>> inLavorazione = new ArrayDeque<>();
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DIMENSIONE_BLOCCO);
+            boolean scarta = false;  // sto saltando il resto di una riga troppo lunga
+            boolean finito = false;
+            while (!finito) {
+                finito = canale.read(buffer) < 0;
+                buffer.flip();
+
+                if (scarta) {
+                    int aCapo = primoACapo(buffer);
+                    if (aCapo < 0) {
+                        buffer.clear();
+                        continue;
+                    }
+                    buffer.position(aCapo + 1);
+                    scarta = false;
+                }
+
+                int fine = finito ? buffer.limit() : ultimoACapo(buffer) + 1;  // solo righe intere
+                if (fine <= buffer.position()) {
+                    if (!finito && buffer.remaining() == buffer.capacity()) {
+                        inLavorazione.add(CompletableFuture.completedFuture(Lotto.rigaTroppoLunga()));
+                        scarta = true;
+                        buffer.clear();
+                        continue;
+                    }
+                    buffer.compact();  // riga a metà, aspetto il resto
+                    continue;
+                }
+
+                byte[] blocco = new byte[fine - buffer.position()];
+                buffer.get(blocco);
+                buffer.compact();  // il pezzo di riga rimasto va in testa
+
+                if (inLavorazione.size() >= numThread * 2) {
+                    inserisci(inLavorazione.poll(), esito);  // aspetto il più vecchio, non riempio la memoria
+                }
+                inLavorazione.add(pool.submit(() -> analizza(blocco, numeri)));
+            }
+
+            while (!inLavorazione.isEmpty()) {
+                inserisci(inLavorazione.poll(), esito);
+            }
+        } finally {
+            for (Future<Lotto> f : inLavorazione) {
+                f.cancel(true);  // solo se si esce per un errore
+            }
+            pool.shutdownNow();
+        }
+        return esito;
+    }
+
+    private static int primoACapo(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int ultimoACapo(ByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= buffer.position(); i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Aggiunge le pubblicazioni del lotto in un colpo solo
+     */
+    private void inserisci(Future<Lotto> futuro, Esito esito) throws IOException {
+        Lotto lotto;
+        try {
+            lotto = futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("importazione interrotta", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("errore nel controllo delle righe", e.getCause());
+        }
+
+        ArrayList<Pubblicazione> nuove = lotto.create;
+        biblioteca.aggiungiPubblicazioni(nuove);
+
+        for (ErroreRiga e : lotto.errori) {
+            esito.errore(esito.righeLette + e.getRiga(), e.getMessaggio());
+        }
+        esito.righeLette += lotto.righe;
+        esito.importate += nuove.size();
+    }
+
+    /**
+     * Divide il blocco in righe, le controlla e crea le pubblicazioni
+     * (gira nei thread del pool)
+     */
+    private static Lotto analizza(byte[] blocco, AllocatoreNumeri numeri) {
+        Lotto lotto = new Lotto();
+        String[] campi = new String[CAMPI];
+        int inizio = 0;
+        while (inizio < blocco.length) {
+            int fine = inizio;
+            while (fine < blocco.length && blocco[fine] != '\n') {
+                fine++;
+            }
+            int fineRiga = fine > inizio && blocco[fine - 1] == '\r' ? fine - 1 : fine;
+            lotto.righe++;
+
+            String riga = new String(blocco, inizio, fineRiga - inizio, StandardCharsets.UTF_8);
+            try {
+                analizzaRiga(riga, campi, lotto);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                lotto.errori.add(new ErroreRiga(lotto.righe, e.getMessage()));
+            }
+            inizio = fine + 1;
+        }
+
+        lotto.create = new ArrayList<>(lotto.validi);
+        if (lotto.validi > 0) {
+            int numero = numeri.riserva(lotto.validi);  // un intervallo per tutto il blocco
+            for (int i = 0; i < lotto.validi; i++, numero++) {
+                if (lotto.libro[i]) {
+                    lotto.create.add(new Libro(numero, lotto.titolo[i], lotto.data[i], lotto.pagine[i], lotto.codice[i], lotto.nome[i]));
+                } else {
+                    lotto.create.add(new Rivista(numero, lotto.titolo[i], lotto.data[i], lotto.pagine[i], lotto.codice[i], lotto.nome[i]));
+                }
+            }
+        }
+        return lotto;
+    }
+
+    private static void analizzaRiga(String riga, String[] campi, Lotto lotto) {
+        if (!riga.isEmpty() && riga.charAt(0) == '\uFEFF') {
+            riga = riga.substring(1);  // BOM dei file salvati da Excel
+        }
+        if (riga.isBlank() || riga.charAt(0) == '#') {
+            return;
+        }
+        int n = dividi(riga, campi);
+        if (campi[0].equalsIgnoreCase("tipo")) {
+            return;  // intestazione
+        }
+        if (n != CAMPI) {
+            throw new IllegalArgumentException("attesi " + CAMPI + " campi, trovati " + n);
+        }
+
+        boolean libro;
+        if (campi[0].equalsIgnoreCase("LIBRO") || campi[0].equalsIgnoreCase("L")) {
+            libro = true;
+        } else if (campi[0].equalsIgnoreCase("RIVISTA") || campi[0].equalsIgnoreCase("R")) {
+            libro = false;
+        } else {
+            throw new IllegalArgumentException("tipo sconosciuto: " + campi[0]);
+        }
+        LocalDate data = leggiData(campi[2]);
+        int pagine = leggiIntero(campi[3]);
+
+        // stesse regole dei costruttori, prima di consumare numeri progressivi
+        Pubblicazione.controllaCampi(campi[1], data, pagine);
+        if (libro) {
+            Libro.controllaCampi(campi[4], campi[5]);
+        } else {
+            Rivista.controllaCampi(campi[4], campi[5]);
+        }
+        lotto.aggiungi(libro, campi[1], data, pagine, campi[4], campi[5]);
+    }
+
+    /**
+     * Divide la riga sui ';' rispettando le virgolette
+     * @return quanti campi ci sono (quelli oltre campi.length vengono contati ma non salvati)
+     */
+    private static int dividi(String riga, String[] campi) {
+        Arrays.fill(campi, "");
+        int n = 0;
+        int i = 0;
+        int lunghezza = riga.length();
+        StringBuilder virgolettato = null;
+        while (true) {
+            String campo;
+            if (i < lunghezza && riga.charAt(i) == '"') {
+                if (virgolettato == null) {
+                    virgolettato = new StringBuilder();
+                }
+                virgolettato.setLength(0);
+                i++;
+                while (true) {
+                    if (i >= lunghezza) {
+                        throw new IllegalArgumentException("virgolette non chiuse");
+                    }
+                    char c = riga.charAt(i++);
+                    if (c == '"') {
+                        if (i < lunghezza && riga.charAt(i) == '"') {
+                            virgolettato.append('"');  // "" dentro le virgolette
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        virgolettato.append(c);
+                    }
+                }
+                campo = virgolettato.toString();
+                if (i < lunghezza && riga.charAt(i) != ';') {
+                    throw new IllegalArgumentException("testo dopo le virgolette nel campo " + (n + 1));
+                }
+            } else {
+                int fine = riga.indexOf(';', i);
+                if (fine < 0) {
+                    fine = lunghezza;
+                }
+                campo = riga.substring(i, fine).trim();
+                i = fine;
+            }
+
+            if (n < campi.length) {
+                campi[n] = campo;
+            }
+            n++;
+            if (i >= lunghezza) {
+                return n;
+            }
+            i++;  // salto il ';'
+        }
+    }
+
+    /**
+     * Data nel formato aaaa-mm-gg, senza passare dal parser generico
+     */
+    private static LocalDate leggiData(String testo) {
+        if (testo.length() != 10 || testo.charAt(4) != '-' || testo.charAt(7) != '-') {
+            throw new IllegalArgumentException("data non valida (aaaa-mm-gg): " + testo);
+        }
+        int anno = cifre(testo, 0, 4);
+        int mese = cifre(testo, 5, 7);
+        int giorno = cifre(testo, 8, 10);
+        if (anno < 0 || mese < 0 || giorno < 0) {
+            throw new IllegalArgumentException("data non valida (aaaa-mm-gg): " + testo);
+        }
+        return LocalDate.of(anno, mese, giorno);  // DateTimeException per 31 febbraio & co.
+    }
+
+    private static int leggiIntero(String testo) {
+        int valore = testo.isEmpty() || testo.length() > 9 ? -1 : cifre(testo, 0, testo.length());
+        if (valore < 0) {
+            throw new IllegalArgumentException("numero pagine non valido: " + testo);
+        }
+        return valore;
+    }
+
+    private static int cifre(String testo, int da, int a) {
+        int valore = 0;
+        for (int i = da; i < a; i++) {
+            char c = testo.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            valore = valore * 10 + (c - '0');
+        }
+        return valore;
+    }
+}
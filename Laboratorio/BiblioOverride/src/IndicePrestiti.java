@@ -0,0 +1,129 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Indice dei prestiti in corso: per utente e per data di restituzione.
+ * Le scadenze sono raggruppate per giorno in una mappa ordinata, quindi
+ * "cosa è scaduto oggi" legge solo i giorni già passati invece di
+ * calcolare la data di restituzione di tutto il catalogo.
+ *
+ * Ogni voce ricorda lo stato del prestito con cui è stata registrata
+ * (vedi Pubblicazione): con più sportelli un prestito può chiudersi
+ * prima di essere indicizzato, e lo stato dice se l'aggiornamento che
+ * arriva è ancora quello giusto: anche lo stesso utente che riprende la
+ * stessa copia lo stesso giorno scrive uno stato nuovo, grazie al turno.
+ * I metodi sono synchronized.
+ * @author giordii.dev
+ */
+public class IndicePrestiti {
+    private final LinkedHashMap<Integer, Pubblicazione> inPrestito;  // numero -> pubblicazione, in ordine di prestito
+    private final HashMap<String, LinkedHashSet<Pubblicazione>> perUtente;
+    private final TreeMap<Long, LinkedHashSet<Pubblicazione>> perScadenza;  // giorno (epochDay) -> prestiti in scadenza
+    private final HashMap<Integer, Long> stati;  // numero -> stato del prestito indicizzato
+
+    public IndicePrestiti() {
+        this.inPrestito = new LinkedHashMap<>();
+        this.perUtente = new HashMap<>();
+        this.perScadenza = new TreeMap<>();
+        this.stati = new HashMap<>();
+    }
+
+    /**
+     * Registra un prestito appena iniziato
+     * @param p la pubblicazione prestata
+     * @param stato lo stato scritto dal prestito (Pubblicazione.prendiInPrestito)
+     */
+    public synchronized void prestitoIniziato(Pubblicazione p, long stato) {
+        if (stato == Pubblicazione.LIBERA) {
+            throw new IllegalStateException("pubblicazione non in prestito");
+        }
+        if (p.getStatoPrestito() != stato) {
+            return;  // già restituita da un altro sportello
+        }
+        Long vecchio = stati.get(p.getNumeroProgressivo());
+        if (vecchio != null) {
+            if (vecchio == stato) {
+                return;  // già registrato
+            }
+            togli(p, vecchio);  // la restituzione del prestito precedente non è ancora arrivata
+        }
+
+        stati.put(p.getNumeroProgressivo(), stato);
+        inPrestito.put(p.getNumeroProgressivo(), p);
+        perUtente.computeIfAbsent(utente(stato), u -> new LinkedHashSet<>()).add(p);
+        perScadenza.computeIfAbsent(scadenza(p, stato), g -> new LinkedHashSet<>()).add(p);
+    }
+
+    /**
+     * Toglie un prestito dall'indice
+     * @param p la pubblicazione restituita
+     * @param stato lo stato del prestito chiuso (Pubblicazione.restituisci)
+     */
+    public synchronized void prestitoTerminato(Pubblicazione p, long stato) {
+        Long indicizzato = stati.get(p.getNumeroProgressivo());
+        if (indicizzato == null || indicizzato != stato) {
+            return;  // mai indicizzato, o è un altro prestito
+        }
+
+        togli(p, stato);
+    }
+
+    private void togli(Pubblicazione p, long stato) {
+        stati.remove(p.getNumeroProgressivo());
+        inPrestito.remove(p.getNumeroProgressivo());
+        togli(perUtente, utente(stato), p);
+        togli(perScadenza, scadenza(p, stato), p);
+    }
+
+    private static String utente(long stato) {
+        return RegistroUtenti.nomeDi(Pubblicazione.utenteDi(stato));
+    }
+
+    private static long scadenza(Pubblicazione p, long stato) {
+        return p.calcolaDataRestituzione(Pubblicazione.inizioDi(stato)).toEpochDay();
+    }
+
+    private static <K> void togli(Map<K, LinkedHashSet<Pubblicazione>> mappa, K chiave, Pubblicazione p) {
+        LinkedHashSet<Pubblicazione> gruppo = mappa.get(chiave);
+        if (gruppo != null) {
+            gruppo.remove(p);
+            if (gruppo.isEmpty()) {
+                mappa.remove(chiave);  // niente gruppi vuoti
+            }
+        }
+    }
+
+    public synchronized ArrayList<Pubblicazione> getInPrestito() {
+        return new ArrayList<>(inPrestito.values());
+    }
+
+    /**
+     * @param utente nome dell'utente
+     * @return le pubblicazioni che ha in prestito
+     */
+    public synchronized ArrayList<Pubblicazione> getPrestitiUtente(String utente) {
+        LinkedHashSet<Pubblicazione> prestiti = perUtente.get(utente);
+        return prestiti == null ? new ArrayList<>() : new ArrayList<>(prestiti);
+    }
+
+    /**
+     * @param oggi data di riferimento
+     * @return i prestiti da restituire prima di oggi, dalla scadenza più vecchia
+     */
+    public synchronized ArrayList<Pubblicazione> getScaduti(LocalDate oggi) {
+        ArrayList<Pubblicazione> scaduti = new ArrayList<>();
+        for (LinkedHashSet<Pubblicazione> gruppo : perScadenza.headMap(oggi.toEpochDay(), false).values()) {
+            scaduti.addAll(gruppo);  // solo i giorni già passati
+        }
+        return scaduti;
+    }
+
+    public synchronized int size() {
+        return inPrestito.size();
+    }
+}
@@ -0,0 +1,613 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Indice invertito per la ricerca testuale nel catalogo: per ogni parola
+ * (di titolo, autore e ISBN) tiene la lista delle pubblicazioni che la
+ * contengono. Le parole sono normalizzate: minuscole e senza accenti,
+ * quindi "perché" e "PERCHE" sono la stessa parola.
+ *
+ * Le liste sono compresse: numeri progressivi in ordine crescente salvati
+ * come differenza dal precedente in pochi byte (varint), più un byte con i
+ * campi in cui compare la parola. Le pubblicazioni rimosse vengono saltate
+ * e le liste si ripuliscono quando i morti superano i vivi.
+ * @author giordii.dev
+ */
+public class IndiceTesto {
+    // campi in cui può comparire una parola, usati anche come peso
+    private static final int TITOLO = 1;
+    private static final int AUTORE = 2;
+    private static final int ISBN = 4;
+    private static final int VOCI_PER_SALTO = 64;
+    private static final int PROVA_SE_CANDIDATI_PER = 16;  // sonda la lista invece di scorrerla se è 16 volte più lunga
+    private static final int CELLE_MINIME = 16;
+    private static final Pattern ACCENTI = Pattern.compile("\\p{M}+");
+    private static final char LIMITE_LATINO = 0x250;  // fino a Latin Extended-B
+    private static final String[] LATINO_NORMALIZZATO = new String[LIMITE_LATINO];
+
+    static {
+        // tabella pronta per i caratteri latini, Normalizer costa troppo per ogni titolo
+        for (char c = 0; c < LIMITE_LATINO; c++) {
+            LATINO_NORMALIZZATO[c] = normalizzaUnicode(String.valueOf(c));
+        }
+    }
+
+    private final HashMap<String, ListaPosting> termini;  // parola -> lista
+    private final TreeMap<String, ListaPosting> perPrefisso;  // stesse voci, ordinate per le ricerche per prefisso
+    private final TabellaNumeri vivi;  // numeri progressivi attualmente indicizzati (il valore non conta)
+
+    // spazio di lavoro delle ricerche, riusato (l'indice non è thread-safe): una tabella
+    // a indirizzamento aperto sui soli candidati, grande quanto la lista più corta della
+    // ricerca e non quanto il numero progressivo più alto
+    private int[] candidatoDi;  // numero progressivo nella cella
+    private int[] punti;
+    private int[] parziali;
+    private int[] marca;  // passo della ricerca in cui è stata scritta la cella
+    private int mascheraCandidati;
+    private int generazione;
+    private int inizioRicerca;  // celle con marca fino a questa sono libere
+    private int[] nuoviCandidati;  // celle dei candidati rimasti
+
+    public IndiceTesto() {
+        this.termini = new HashMap<>();
+        this.perPrefisso = new TreeMap<>();
+        this.vivi = new TabellaNumeri();
+    }
+
+    /**
+     * Indicizza una pubblicazione
+     * @param p la pubblicazione da indicizzare
+     */
+    public void aggiungi(Pubblicazione p) {
+        int id = p.getNumeroProgressivo();
+        if (vivi.contiene(id)) {
+            throw new IllegalArgumentException("pubblicazione #" + id + " gia indicizzata");
+        }
+
+        for (Map.Entry<String, Integer> e : paroleDi(p).entrySet()) {
+            ListaPosting lista = termini.get(e.getKey());
+            if (lista == null) {
+                lista = new ListaPosting();
+                termini.put(e.getKey(), lista);
+                perPrefisso.put(e.getKey(), lista);  // l'albero si tocca solo per le parole nuove
+            }
+            lista.aggiungi(id, e.getValue());
+        }
+        vivi.put(id, 0);
+    }
+
+    /**
+     * Toglie una pubblicazione dall'indice
+     * @param p la pubblicazione da togliere
+     */
+    public void rimuovi(Pubblicazione p) {
+        int id = p.getNumeroProgressivo();
+        if (!vivi.rimuovi(id)) {
+            return;
+        }
+
+        // le voci restano nelle liste finché non conviene ripulirle
+        for (String parola : paroleDi(p).keySet()) {
+            ListaPosting lista = termini.get(parola);
+            lista.morti++;
+            if (lista.morti * 2 > lista.conteggio) {
+                lista.ripulisci(vivi);
+                if (lista.conteggio == 0) {
+                    termini.remove(parola);
+                    perPrefisso.remove(parola);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cerca le pubblicazioni che contengono tutte le parole della ricerca.
+     * Ogni parola vale anche come prefisso ("tolk" trova "Tolkien"); i
+     * risultati sono ordinati per rilevanza: parola intera meglio di un
+     * prefisso, titolo meglio di autore meglio di ISBN.
+     * @param testo le parole da cercare
+     * @param k numero massimo di risultati
+     * @return i numeri progressivi trovati, dal più rilevante
+     */
+    public int[] cerca(String testo, int k) {
+        if (testo == null) {
+            throw new IllegalArgumentException("testo != null");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k > 0");
+        }
+
+        ArrayList<String> parole = new ArrayList<>();
+        for (String parola : dividi(normalizza(testo))) {
+            if (!parole.contains(parola)) {
+                parole.add(parola);
+            }
+        }
+        if (parole.isEmpty()) {
+            return new int[0];
+        }
+
+        // parto dalla parola con meno voci: gli insiemi intermedi restano piccoli
+        ArrayList<NavigableMap<String, ListaPosting>> gruppi = new ArrayList<>();
+        ArrayList<Long> dimensioni = new ArrayList<>();
+        for (String parola : parole) {
+            NavigableMap<String, ListaPosting> gruppo = perPrefisso.subMap(parola, true, parola + Character.MAX_VALUE, false);
+            long dimensione = 0;
+            for (ListaPosting lista : gruppo.values()) {
+                dimensione += lista.conteggio;
+            }
+            if (dimensione == 0) {
+                return new int[0];  // una parola non c'è: nessun risultato
+            }
+            gruppi.add(gruppo);
+            dimensioni.add(dimensione);
+        }
+        Integer[] ordine = new Integer[parole.size()];
+        for (int i = 0; i < ordine.length; i++) {
+            ordine[i] = i;
+        }
+        Arrays.sort(ordine, (a, b) -> Long.compare(dimensioni.get(a), dimensioni.get(b)));
+
+        preparaPunteggi(dimensioni.get(ordine[0]), parole.size());
+        int[] candidati = null;
+        int numCandidati = 0;
+        for (int i : ordine) {
+            numCandidati = interseca(candidati, numCandidati, parole.get(i), gruppi.get(i));
+            if (numCandidati == 0) {
+                return new int[0];
+            }
+            candidati = Arrays.copyOf(nuoviCandidati, numCandidati);
+        }
+
+        return migliori(candidati, numCandidati, k);
+    }
+
+    /**
+     * Le celle dei punteggi sono riusate tra una ricerca e l'altra: invece
+     * di azzerarle ogni volta, "marca" dice in quale passo della ricerca è
+     * stata scritta una cella, e quelle scritte prima di questa ricerca
+     * contano come libere. Entrano in tabella solo i candidati della prima
+     * parola, quindi bastano il doppio delle voci della lista più corta.
+     * @param candidatiMassimi voci della lista più corta
+     * @param passi parole della ricerca
+     */
+    private void preparaPunteggi(long candidatiMassimi, int passi) {
+        int celle = CELLE_MINIME;
+        while (celle < candidatiMassimi * 2) {
+            celle *= 2;
+        }
+        // una ricerca molto più grande di questa non si tiene la sua tabella
+        if (marca == null || marca.length < celle || marca.length > celle * 8) {
+            candidatoDi = new int[celle];
+            punti = new int[celle];
+            parziali = new int[celle];
+            marca = new int[celle];
+            mascheraCandidati = celle - 1;
+            generazione = 0;
+        }
+        if (generazione > Integer.MAX_VALUE - passi - 1) {
+            Arrays.fill(marca, 0);
+            generazione = 0;
+        }
+        inizioRicerca = generazione;
+    }
+
+    /**
+     * @return la cella del candidato, oppure ~cella libera in cui andrebbe
+     */
+    private int cellaDi(int id) {
+        int h = id * 0x9E3779B9;  // i numeri sono spesso consecutivi: mescolo i bit
+        int c = (h ^ (h >>> 16)) & mascheraCandidati;
+        while (marca[c] > inizioRicerca) {
+            if (candidatoDi[c] == id) {
+                return c;
+            }
+            c = (c + 1) & mascheraCandidati;
+        }
+        return ~c;
+    }
+
+    /**
+     * Somma al punteggio dei candidati quello della parola; i candidati che
+     * non la contengono vengono scartati. Con candidati null parte da tutte
+     * le pubblicazioni che contengono la parola.
+     * @param candidati celle dei candidati
+     * @return numero di candidati rimasti, le loro celle in nuoviCandidati
+     */
+    private int interseca(int[] candidati, int numCandidati, String parola,
+                          NavigableMap<String, ListaPosting> gruppo) {
+        int precedente = generazione;
+        int corrente = ++generazione;
+        int trovati = 0;
+        if (nuoviCandidati == null) {
+            nuoviCandidati = new int[64];
+        }
+
+        for (Map.Entry<String, ListaPosting> e : gruppo.entrySet()) {
+            boolean esatta = e.getKey().length() == parola.length();
+            ListaPosting lista = e.getValue();
+            byte[] dati = lista.dati;
+
+            if (candidati != null && (long) numCandidati * PROVA_SE_CANDIDATI_PER < lista.conteggio) {
+                // pochi candidati e lista lunga: cerco ogni candidato nella lista
+                for (int i = 0; i < numCandidati; i++) {
+                    int c = candidati[i];
+                    int campi = lista.campiDi(candidatoDi[c]);
+                    if (campi < 0) {
+                        continue;
+                    }
+                    if (marca[c] == corrente) {
+                        parziali[c] = Math.max(parziali[c], peso(campi, esatta));
+                    } else {
+                        marca[c] = corrente;
+                        parziali[c] = peso(campi, esatta);
+                        if (trovati == nuoviCandidati.length) {
+                            nuoviCandidati = Arrays.copyOf(nuoviCandidati, trovati * 2);
+                        }
+                        nuoviCandidati[trovati++] = c;
+                    }
+                }
+                continue;
+            }
+
+            int pos = 0;
+            int id = 0;
+            while (pos < lista.lunghezza) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = dati[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                int campi = dati[pos++];
+
+                int c = cellaDi(id);
+                if (c >= 0 && marca[c] == corrente) {
+                    // più parole dello stesso prefisso: conta la migliore
+                    parziali[c] = Math.max(parziali[c], peso(campi, esatta));
+                } else if (c >= 0 ? marca[c] == precedente : candidati == null && vivi.contiene(id)) {
+                    if (c < 0) {
+                        // prima parola: il candidato entra in tabella
+                        c = ~c;
+                        candidatoDi[c] = id;
+                        punti[c] = 0;
+                    }
+                    marca[c] = corrente;
+                    parziali[c] = peso(campi, esatta);
+                    if (trovati == nuoviCandidati.length) {
+                        nuoviCandidati = Arrays.copyOf(nuoviCandidati, trovati * 2);
+                    }
+                    nuoviCandidati[trovati++] = c;
+                }
+            }
+        }
+
+        for (int i = 0; i < trovati; i++) {
+            punti[nuoviCandidati[i]] += parziali[nuoviCandidati[i]];
+        }
+        return trovati;
+    }
+
+    private static int peso(int campi, boolean esatta) {
+        int punti;
+        if ((campi & TITOLO) != 0) {
+            punti = 6;
+        } else if ((campi & AUTORE) != 0) {
+            punti = 4;
+        } else {
+            punti = 2;
+        }
+        return esatta ? punti + 1 : punti;
+    }
+
+    /**
+     * Primi k per punteggio (a parità, numero progressivo più basso) con un
+     * heap di k celle in un array di int, invece di ordinare tutti i candidati
+     */
+    private int[] migliori(int[] candidati, int numCandidati, int k) {
+        // il peggiore in cima, così si scarta in O(log k)
+        int[] heap = new int[Math.min(k, numCandidati)];
+        int n = 0;
+        for (int i = 0; i < numCandidati; i++) {
+            int c = candidati[i];
+            if (n < heap.length) {
+                heap[n] = c;
+                sali(heap, n++);
+            } else if (peggiore(heap[0], c)) {
+                heap[0] = c;
+                scendi(heap, 0, n);
+            }
+        }
+
+        int[] risultato = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            risultato[i] = candidatoDi[heap[0]];
+            heap[0] = heap[i];
+            scendi(heap, 0, i);
+        }
+        return risultato;
+    }
+
+    // a vale meno di b: punteggio più basso o, a parità, numero più alto
+    private boolean peggiore(int a, int b) {
+        return punti[a] != punti[b] ? punti[a] < punti[b] : candidatoDi[a] > candidatoDi[b];
+    }
+
+    private void sali(int[] heap, int i) {
+        int c = heap[i];
+        while (i > 0) {
+            int padre = (i - 1) >>> 1;
+            if (!peggiore(c, heap[padre])) {
+                break;
+            }
+            heap[i] = heap[padre];
+            i = padre;
+        }
+        heap[i] = c;
+    }
+
+    private void scendi(int[] heap, int i, int n) {
+        int c = heap[i];
+        while (true) {
+            int figlio = 2 * i + 1;
+            if (figlio >= n) {
+                break;
+            }
+            if (figlio + 1 < n && peggiore(heap[figlio + 1], heap[figlio])) {
+                figlio++;
+            }
+            if (!peggiore(heap[figlio], c)) {
+                break;
+            }
+            heap[i] = heap[figlio];
+            i = figlio;
+        }
+        heap[i] = c;
+    }
+
+    public int numeroTermini() {
+        return termini.size();
+    }
+
+    /**
+     * Parole della pubblicazione con i campi in cui compaiono
+     */
+    private static HashMap<String, Integer> paroleDi(Pubblicazione p) {
+        HashMap<String, Integer> parole = new HashMap<>();
+        for (String parola : dividi(normalizza(p.getTitolo()))) {
+            parole.merge(parola, TITOLO, (a, b) -> a | b);
+        }
+        if (p instanceof Libro) {
+            Libro l = (Libro) p;
+            for (String parola : dividi(normalizza(l.getAutore()))) {
+                parole.merge(parola, AUTORE, (a, b) -> a | b);
+            }
+            String isbn = normalizza(l.getIsbn());
+            for (String parola : dividi(isbn)) {
+                parole.merge(parola, ISBN, (a, b) -> a | b);
+            }
+            // anche l'ISBN tutto attaccato, come lo scrive chi lo legge dal codice a barre
+            StringBuilder cifre = new StringBuilder(isbn.length());
+            for (int i = 0; i < isbn.length(); i++) {
+                char c = isbn.charAt(i);
+                if ((c >= '0' && c <= '9') || c == 'x') {
+                    cifre.append(c);
+                }
+            }
+            if (cifre.length() > 0) {
+                parole.merge(cifre.toString(), ISBN, (a, b) -> a | b);
+            }
+        }
+        return parole;
+    }
+
+    /**
+     * Minuscole e senza accenti (Locale.ROOT, così non dipende dal sistema)
+     */
+    static String normalizza(String testo) {
+        StringBuilder sb = null;
+        for (int i = 0; i < testo.length(); i++) {
+            char c = testo.charAt(i);
+            if (c >= LIMITE_LATINO) {
+                return normalizzaUnicode(testo);  // altri alfabeti: strada lenta
+            }
+            if (c >= 'A' && c <= 'Z' || c >= 128) {
+                if (sb == null) {
+                    sb = new StringBuilder(testo.length());
+                    sb.append(testo, 0, i);
+                }
+                sb.append(LATINO_NORMALIZZATO[c]);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? testo : sb.toString();  // già minuscolo e senza accenti
+    }
+
+    private static String normalizzaUnicode(String testo) {
+        // separo le lettere dagli accenti e butto gli accenti
+        return ACCENTI.matcher(Normalizer.normalize(testo, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static ArrayList<String> dividi(String testo) {
+        ArrayList<String> parole = new ArrayList<>();
+        int inizio = -1;
+        for (int i = 0; i <= testo.length(); i++) {
+            boolean lettera = i < testo.length() && Character.isLetterOrDigit(testo.charAt(i));
+            if (lettera && inizio < 0) {
+                inizio = i;
+            } else if (!lettera && inizio >= 0) {
+                parole.add(testo.substring(inizio, i));
+                inizio = -1;
+            }
+        }
+        return parole;
+    }
+
+    /**
+     * Lista compressa dei numeri progressivi che contengono una parola
+     */
+    private static class ListaPosting {
+        byte[] dati = new byte[8];
+        int lunghezza;
+        int ultimo;  // ultimo numero progressivo scritto
+        int conteggio;  // voci nella lista, morti compresi
+        int morti;  // voci di pubblicazioni rimosse
+        // ogni VOCI_PER_SALTO voci: numero progressivo precedente e posizione
+        // in dati, per saltare direttamente vicino a un numero cercato
+        int[] salti;
+        int numSalti;
+
+        void aggiungi(int id, int campi) {
+            if (conteggio > 0 && id <= ultimo) {
+                inserisciInOrdine(id, campi);  // raro: pubblicazione rimessa dopo altre più nuove
+                return;
+            }
+            accoda(id, campi);
+        }
+
+        private void accoda(int id, int campi) {
+            if (conteggio % VOCI_PER_SALTO == 0 && conteggio > 0) {
+                if (salti == null) {
+                    salti = new int[8];
+                } else if (numSalti * 2 == salti.length) {
+                    salti = Arrays.copyOf(salti, salti.length * 2);
+                }
+                salti[numSalti * 2] = ultimo;
+                salti[numSalti * 2 + 1] = lunghezza;
+                numSalti++;
+            }
+            scrivi(id - ultimo, campi);
+            ultimo = id;
+            conteggio++;
+        }
+
+        /**
+         * Cerca un numero progressivo senza scorrere tutta la lista: salta al
+         * blocco giusto e scorre al massimo VOCI_PER_SALTO voci
+         * @return i campi della voce, -1 se il numero non c'è
+         */
+        int campiDi(int cercato) {
+            if (cercato > ultimo) {
+                return -1;
+            }
+
+            // ultimo blocco che parte prima del numero cercato
+            int basso = 0;
+            int alto = numSalti - 1;
+            int pos = 0;
+            int id = 0;
+            while (basso <= alto) {
+                int medio = (basso + alto) >>> 1;
+                if (salti[medio * 2] < cercato) {
+                    id = salti[medio * 2];
+                    pos = salti[medio * 2 + 1];
+                    basso = medio + 1;
+                } else {
+                    alto = medio - 1;
+                }
+            }
+
+            while (pos < lunghezza) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = dati[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                if (id >= cercato) {
+                    return id == cercato ? dati[pos] : -1;
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        private void scrivi(int delta, int campi) {
+            if (lunghezza + 6 > dati.length) {
+                dati = Arrays.copyOf(dati, dati.length * 2);
+            }
+            while ((delta & ~0x7F) != 0) {
+                dati[lunghezza++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            dati[lunghezza++] = (byte) delta;
+            dati[lunghezza++] = (byte) campi;
+        }
+
+        private void inserisciInOrdine(int id, int campi) {
+            int[][] voci = decodifica();
+            ArrayList<int[]> nuove = new ArrayList<>(voci.length + 1);
+            boolean inserita = false;
+            for (int[] v : voci) {
+                if (v[0] == id) {
+                    morti--;  // era la voce morta della stessa pubblicazione
+                    continue;
+                }
+                if (!inserita && v[0] > id) {
+                    nuove.add(new int[]{id, campi});
+                    inserita = true;
+                }
+                nuove.add(v);
+            }
+            if (!inserita) {
+                nuove.add(new int[]{id, campi});
+            }
+            ricodifica(nuove);
+        }
+
+        void ripulisci(TabellaNumeri vivi) {
+            ArrayList<int[]> rimaste = new ArrayList<>();
+            for (int[] v : decodifica()) {
+                if (vivi.contiene(v[0])) {
+                    rimaste.add(v);
+                }
+            }
+            ricodifica(rimaste);
+            morti = 0;
+        }
+
+        private int[][] decodifica() {
+            int[][] voci = new int[conteggio][];
+            int pos = 0;
+            int id = 0;
+            for (int i = 0; i < conteggio; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = dati[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                voci[i] = new int[]{id, dati[pos++]};
+            }
+            return voci;
+        }
+
+        private void ricodifica(ArrayList<int[]> voci) {
+            dati = new byte[Math.max(8, voci.size() * 3)];
+            lunghezza = 0;
+            ultimo = 0;
+            conteggio = 0;
+            numSalti = 0;
+            for (int[] v : voci) {
+                accoda(v[0], v[1]);
+            }
+        }
+    }
+}
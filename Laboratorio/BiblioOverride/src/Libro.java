@@ -11,19 +11,55 @@ public class Libro extends Pubblicazione {
     // Durata standard del prestito per i libri: 30 giorni
     private static final int DURATA_PRESTITO_GIORNI = 30;  // un mese pieno per leggerlo con calma
     
+    /**
+     * Numero progressivo dall'allocatore predefinito
+     * @deprecated può ripetere i numeri di un catalogo: usare il costruttore
+     * con l'allocatore, es. Biblioteca.getAllocatoreNumeri()
+     */
+    @Deprecated
     public Libro(String titolo, LocalDate dataPubbl, int numPagine, 
                  String isbn, String autore) {
-        super(titolo, dataPubbl, numPagine);
+        super(AllocatoreNumeri.predefinito(), titolo, dataPubbl, numPagine);
+        controllaCampi(isbn, autore);
+        
+        this.isbn = isbn;
+        this.autore = autore;
+    }
+    
+    /**
+     * Numero progressivo dall'allocatore del catalogo in cui entrerà
+     */
+    public Libro(AllocatoreNumeri numeri, String titolo, LocalDate dataPubbl, int numPagine, 
+                 String isbn, String autore) {
+        super(numeri, titolo, dataPubbl, numPagine);
+        controllaCampi(isbn, autore);
         
+        this.isbn = isbn;
+        this.autore = autore;
+    }
+    
+    /**
+     * Con un numero progressivo già assegnato (es. da Biblioteca.getAllocatoreNumeri)
+     */
+    public Libro(int numeroProgressivo, String titolo, LocalDate dataPubbl, int numPagine, 
+                 String isbn, String autore) {
+        super(numeroProgressivo, titolo, dataPubbl, numPagine);
+        controllaCampi(isbn, autore);
+        
+        this.isbn = isbn;
+        this.autore = autore;
+    }
+    
+    /**
+     * Controlli del costruttore sui campi propri
+     */
+    static void controllaCampi(String isbn, String autore) {
         if (isbn == null || isbn.trim().isEmpty()) {
             throw new IllegalArgumentException("isbn != null");
         }
         if (autore == null || autore.trim().isEmpty()) {
             throw new IllegalArgumentException("autore != null");
         }
-        
-        this.isbn = isbn;
-        this.autore = autore;
     }
     
     /**
@@ -11,9 +11,11 @@ public class Main {
         // creazione biblioteca comunale
         Biblioteca biblioteca = new Biblioteca("Biblioteca Comunale");
         // come quella del mio paese
+        AllocatoreNumeri numeri = biblioteca.getAllocatoreNumeri();  // numeri del suo catalogo
         
         // libri classici che trovi in ogni biblioteca
         Libro libro1 = new Libro(
+            numeri,
             "Il Signore degli Anelli",
             LocalDate.of(1954, 7, 29),
             1216,  // un mattone da 1216 pagine... ma ne vale la pena
@@ -22,6 +24,7 @@ public class Main {
         );
         
         Libro libro2 = new Libro(
+            numeri,
             "1984",
             LocalDate.of(1949, 6, 8),
             328,  // distopia profetica, più attuale che mai
@@ -30,6 +33,7 @@ public class Main {
         );
         
         Libro libro3 = new Libro(
+            numeri,
             "Il Nome della Rosa",
             LocalDate.of(1980, 9, 1),
             503,  // giallo medievale italiano, orgoglio nazionale
@@ -39,6 +43,7 @@ public class Main {
         
         // riviste scientifiche per i nerd
         Rivista rivista1 = new Rivista(
+            numeri,
             "National Geographic Italia",
             LocalDate.of(2024, 11, 1),
             120,  // foto stupende, vale la pena solo per quelle
@@ -47,6 +52,7 @@ public class Main {
         );
         
         Rivista rivista2 = new Rivista(
+            numeri,
             "Focus",
             LocalDate.of(2024, 10, 15),
             98,  // scienza e tecnologia, quella italiana
@@ -55,6 +61,7 @@ public class Main {
         );
         
         Rivista rivista3 = new Rivista(
+            numeri,
             "Le Scienze",
             LocalDate.of(2024, 11, 20),
             88,  // edizione italiana di Scientific American, roba seria
@@ -119,8 +126,8 @@ public class Main {
         
         System.out.println("--- VERIFICA OVERRIDE CALCOLO DATA ---");
         // test del polimorfismo: stesso metodo, comportamenti diversi
-        Libro libroTest = new Libro("Test Libro", LocalDate.now(), 100, "123-456", "Autore Test");
-        Rivista rivistaTest = new Rivista("Test Rivista", LocalDate.now(), 50, "N.1", "Settimanale");
+        Libro libroTest = new Libro(numeri, "Test Libro", LocalDate.now(), 100, "123-456", "Autore Test");
+        Rivista rivistaTest = new Rivista(numeri, "Test Rivista", LocalDate.now(), 50, "N.1", "Settimanale");
         
         LocalDate dataTest = LocalDate.of(2024, 12, 1);
         System.out.println("Data inizio prestito: " + dataTest);
@@ -1,23 +1,82 @@
 import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Classe astratta per pubblicazioni (libri e riviste)
+ * Classe astratta per pubblicazioni (libri e riviste).
+ * Lo stato del prestito (chi e da quando) sta in un solo long aggiornato
+ * con compare-and-set: due sportelli che prestano la stessa copia nello
+ * stesso momento non possono vincere entrambi.
  * @author giordii.dev
  */
 public abstract class Pubblicazione {
-    private static int contatore = 1;  // auto-increment per ID univoco
+    static final long LIBERA = 0;
     
-    private final int numProgressivo;  // ID generato automaticamente
+    private static final int BIT_GIORNO = 24;  // con segno: circa 23000 anni attorno al 1970
+    private static final int BIT_UTENTE = 28;
+    private static final int BIT_TURNO = 64 - BIT_UTENTE - BIT_GIORNO;
+    private static final AtomicIntegerFieldUpdater<Pubblicazione> TURNI =
+            AtomicIntegerFieldUpdater.newUpdater(Pubblicazione.class, "turni");
+    
+    private final int numProgressivo;  // ID univoco, vedi AllocatoreNumeri
     private final String titolo;
     private final LocalDate dataPubbl;  // quando è uscita
     private final int numPagine;  // spessore del mattone
     
-    // stato del prestito
-    private boolean inPrestito;  // true se qualcuno se l'è presa
-    private LocalDate dataInizioPrestitoAttuale;  // quando è stata prestata
-    private String utentePrestito;  // chi l'ha in questo momento
+    // stato del prestito: 0 = disponibile, altrimenti turno | numero utente + 1 | giorno di inizio.
+    // il turno cambia a ogni prestito della copia: lo stesso utente che la riprende lo stesso
+    // giorno scrive uno stato diverso, e gli indici non scambiano il prestito nuovo per il vecchio
+    private final AtomicLong statoPrestito;
+    private volatile int turni;  // prestiti tentati, il turno sono i suoi bit bassi
     
+    /**
+     * Numero progressivo dall'allocatore predefinito
+     * @deprecated il predefinito non conosce i numeri dati dagli allocatori
+     * dei cataloghi e può ripeterli: usare il costruttore con l'allocatore,
+     * es. Biblioteca.getAllocatoreNumeri()
+     */
+    @Deprecated
     public Pubblicazione(String titolo, LocalDate dataPubbl, int numPagine) {
+        this(AllocatoreNumeri.predefinito(), titolo, dataPubbl, numPagine);
+    }
+    
+    /**
+     * Numero progressivo preso dall'allocatore del catalogo in cui entrerà
+     * @param numeri allocatore del catalogo (es. Biblioteca.getAllocatoreNumeri)
+     */
+    public Pubblicazione(AllocatoreNumeri numeri, String titolo, LocalDate dataPubbl, int numPagine) {
+        this(nuovoNumero(numeri, titolo, dataPubbl, numPagine), titolo, dataPubbl, numPagine);
+    }
+    
+    /**
+     * @param numeroProgressivo numero già assegnato (es. dall'allocatore di una Biblioteca)
+     */
+    public Pubblicazione(int numeroProgressivo, String titolo, LocalDate dataPubbl, int numPagine) {
+        if (numeroProgressivo <= 0) {
+            throw new IllegalArgumentException("numero progressivo > 0");
+        }
+        controllaCampi(titolo, dataPubbl, numPagine);
+        
+        this.numProgressivo = numeroProgressivo;
+        this.titolo = titolo;
+        this.dataPubbl = dataPubbl;
+        this.numPagine = numPagine;
+        this.statoPrestito = new AtomicLong(LIBERA);  // inizialmente disponibile
+    }
+    
+    private static int nuovoNumero(AllocatoreNumeri numeri, String titolo, LocalDate dataPubbl, int numPagine) {
+        if (numeri == null) {
+            throw new IllegalArgumentException("allocatore != null");
+        }
+        controllaCampi(titolo, dataPubbl, numPagine);  // prima: un oggetto non valido non consuma numeri
+        return numeri.prossimo();
+    }
+    
+    /**
+     * Controlli del costruttore, usabili anche senza creare l'oggetto
+     * (l'importazione valida le righe in parallelo e crea dopo)
+     */
+    static void controllaCampi(String titolo, LocalDate dataPubbl, int numPagine) {
         if (titolo == null || titolo.trim().isEmpty()) {
             throw new IllegalArgumentException("titolo != null");
         }
@@ -27,14 +86,6 @@ public abstract class Pubblicazione {
         if (numPagine <= 0) {
             throw new IllegalArgumentException("numero pagine > 0");
         }
-        
-        this.numProgressivo = contatore++;
-        this.titolo = titolo;
-        this.dataPubbl = dataPubbl;
-        this.numPagine = numPagine;
-        this.inPrestito = false;  // inizialmente disponibile
-        this.dataInizioPrestitoAttuale = null;
-        this.utentePrestito = null;
     }
     
     /**
@@ -44,9 +95,13 @@ public abstract class Pubblicazione {
     public abstract LocalDate calcolaDataRestituzione(LocalDate dataInizio);
     
     public void prestito(String utente, LocalDate dataInizio) {
-        if (inPrestito) {
-            throw new IllegalStateException("La pubblicazione è già in prestito");
-        }
+        prendiInPrestito(utente, dataInizio);
+    }
+    
+    /**
+     * Come prestito(), ma restituisce lo stato scritto (per gli indici di Biblioteca)
+     */
+    long prendiInPrestito(String utente, LocalDate dataInizio) {
         if (utente == null || utente.trim().isEmpty()) {
             throw new IllegalArgumentException("Il nome dell'utente non può essere vuoto");
         }
@@ -54,38 +109,89 @@ public abstract class Pubblicazione {
             throw new IllegalArgumentException("La data di inizio prestito non può essere null");
         }
         
-        this.inPrestito = true;
-        this.dataInizioPrestitoAttuale = dataInizio;
-        this.utentePrestito = utente;
+        int turno = TURNI.incrementAndGet(this);
+        long nuovo = componi(turno, RegistroUtenti.numeroDi(utente), dataInizio);
+        if (!statoPrestito.compareAndSet(LIBERA, nuovo)) {
+            throw new IllegalStateException("La pubblicazione è già in prestito");  // qualcuno è arrivato prima
+        }
+        return nuovo;
     }
     
     public void restituzione() {
-        if (!inPrestito) {
-            throw new IllegalStateException("La pubblicazione non è in prestito");
+        restituisci();
+    }
+    
+    /**
+     * Come restituzione(), ma restituisce lo stato del prestito appena chiuso
+     */
+    long restituisci() {
+        while (true) {
+            long stato = statoPrestito.get();
+            if (stato == LIBERA) {
+                throw new IllegalStateException("La pubblicazione non è in prestito");
+            }
+            if (statoPrestito.compareAndSet(stato, LIBERA)) {
+                return stato;
+            }
         }
-        
-        this.inPrestito = false;
-        this.dataInizioPrestitoAttuale = null;
-        this.utentePrestito = null;
+    }
+    
+    static long componi(int utente, LocalDate dataInizio) {
+        return componi(0, utente, dataInizio);
+    }
+    
+    static long componi(int turno, int utente, LocalDate dataInizio) {
+        if (utente + 1 >= 1 << BIT_UTENTE) {
+            throw new IllegalStateException("troppi utenti per lo stato del prestito");
+        }
+        long giorno = dataInizio.toEpochDay();
+        if (giorno < -(1L << (BIT_GIORNO - 1)) || giorno >= 1L << (BIT_GIORNO - 1)) {
+            throw new IllegalArgumentException("data di inizio prestito fuori intervallo: " + dataInizio);
+        }
+        return ((long) (turno & ((1 << BIT_TURNO) - 1)) << (BIT_UTENTE + BIT_GIORNO))
+                | (((long) utente + 1) << BIT_GIORNO)
+                | (giorno & ((1L << BIT_GIORNO) - 1));
+    }
+    
+    static int utenteDi(long stato) {
+        return (int) ((stato >>> BIT_GIORNO) & ((1L << BIT_UTENTE) - 1)) - 1;
+    }
+    
+    static LocalDate inizioDi(long stato) {
+        return LocalDate.ofEpochDay(((int) stato << (32 - BIT_GIORNO)) >> (32 - BIT_GIORNO));  // giorno con segno nei bit bassi
+    }
+    
+    long getStatoPrestito() {
+        return statoPrestito.get();
+    }
+    
+    /**
+     * Solo per oggetti appena creati da una copia del catalogo (vedi CatalogoColonnare)
+     */
+    void ripristinaStatoPrestito(long stato) {
+        statoPrestito.set(stato);
     }
     
     public boolean isInPrestito() {
-        return inPrestito;
+        return statoPrestito.get() != LIBERA;
     }
     
     public LocalDate getDataInizioPrestitoAttuale() {
-        return dataInizioPrestitoAttuale;
+        long stato = statoPrestito.get();
+        return stato == LIBERA ? null : inizioDi(stato);
     }
     
     public String getUtentePrestito() {
-        return utentePrestito;
+        long stato = statoPrestito.get();
+        return stato == LIBERA ? null : RegistroUtenti.nomeDi(utenteDi(stato));
     }
     
     public LocalDate getDataRestituzioneAttesa() {
-        if (!inPrestito) {
+        long stato = statoPrestito.get();
+        if (stato == LIBERA) {
             return null;
         }
-        return calcolaDataRestituzione(dataInizioPrestitoAttuale);
+        return calcolaDataRestituzione(inizioDi(stato));
     }
     
     public int getNumeroProgressivo() {
@@ -109,9 +215,11 @@ public abstract class Pubblicazione {
         String base = String.format("[#%d] %s - %s - %d pagine", 
             numProgressivo, titolo, dataPubbl, numPagine);
         
-        if (inPrestito) {
+        long stato = statoPrestito.get();  // letto una volta sola, può cambiare sotto
+        if (stato != LIBERA) {
+            LocalDate inizio = inizioDi(stato);
             base += String.format(" | IN PRESTITO a %s (dal %s, rientro previsto: %s)",
-                utentePrestito, dataInizioPrestitoAttuale, getDataRestituzioneAttesa());
+                RegistroUtenti.nomeDi(utenteDi(stato)), inizio, calcolaDataRestituzione(inizio));
         } else {
             base += " | DISPONIBILE";  // sullo scaffale pronta per essere presa
         }
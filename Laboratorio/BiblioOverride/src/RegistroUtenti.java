@@ -0,0 +1,59 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assegna a ogni nome utente un numero intero, così lo stato dei prestiti
+ * e lo storico possono salvare un int invece della stringa. I numeri
+ * partono da 0 e non vengono mai riusati. Thread-safe.
+ * @author giordii.dev
+ */
+public class RegistroUtenti {
+    private static final ConcurrentHashMap<String, Integer> numeri = new ConcurrentHashMap<>();
+    private static volatile String[] nomi = new String[64];  // numero -> nome
+    private static int prossimo = 0;  // protetto da synchronized
+
+    private RegistroUtenti() {
+    }
+
+    /**
+     * Numero dell'utente, assegnato al primo utilizzo
+     * @param nome nome dell'utente
+     * @return il suo numero
+     */
+    public static int numeroDi(String nome) {
+        Integer numero = numeri.get(nome);
+        if (numero != null) {
+            return numero;  // caso normale, nessun lock
+        }
+        return assegna(nome);
+    }
+
+    private static synchronized int assegna(String nome) {
+        Integer numero = numeri.get(nome);
+        if (numero != null) {
+            return numero;  // assegnato da un altro thread nel frattempo
+        }
+
+        String[] n = nomi;
+        if (prossimo == n.length) {
+            n = Arrays.copyOf(n, n.length * 2);
+        }
+        n[prossimo] = nome;
+        nomi = n;  // pubblico il nome prima del numero
+        numeri.put(nome, prossimo);
+        return prossimo++;
+    }
+
+    /**
+     * @param nome nome dell'utente
+     * @return il suo numero o -1 se non ha mai fatto prestiti
+     */
+    public static int numeroSeEsiste(String nome) {
+        Integer numero = numeri.get(nome);
+        return numero == null ? -1 : numero;
+    }
+
+    public static String nomeDi(int numero) {
+        return nomi[numero];
+    }
+}
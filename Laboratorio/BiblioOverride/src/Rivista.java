@@ -11,19 +11,55 @@ public class Rivista extends Pubblicazione {
     // Durata standard del prestito per le riviste: 7 giorni
     private static final int DURATA_PRESTITO_GIORNI = 7;  // una settimana, si leggono veloci
     
+    /**
+     * Numero progressivo dall'allocatore predefinito
+     * @deprecated può ripetere i numeri di un catalogo: usare il costruttore
+     * con l'allocatore, es. Biblioteca.getAllocatoreNumeri()
+     */
+    @Deprecated
     public Rivista(String titolo, LocalDate dataPubbl, int numPagine,
                    String numVol, String periodicita) {
-        super(titolo, dataPubbl, numPagine);
+        super(AllocatoreNumeri.predefinito(), titolo, dataPubbl, numPagine);
+        controllaCampi(numVol, periodicita);
+        
+        this.numVol = numVol;
+        this.periodicita = periodicita;
+    }
+    
+    /**
+     * Numero progressivo dall'allocatore del catalogo in cui entrerà
+     */
+    public Rivista(AllocatoreNumeri numeri, String titolo, LocalDate dataPubbl, int numPagine,
+                   String numVol, String periodicita) {
+        super(numeri, titolo, dataPubbl, numPagine);
+        controllaCampi(numVol, periodicita);
         
+        this.numVol = numVol;
+        this.periodicita = periodicita;
+    }
+    
+    /**
+     * Con un numero progressivo già assegnato (es. da Biblioteca.getAllocatoreNumeri)
+     */
+    public Rivista(int numeroProgressivo, String titolo, LocalDate dataPubbl, int numPagine,
+                   String numVol, String periodicita) {
+        super(numeroProgressivo, titolo, dataPubbl, numPagine);
+        controllaCampi(numVol, periodicita);
+        
+        this.numVol = numVol;
+        this.periodicita = periodicita;
+    }
+    
+    /**
+     * Controlli del costruttore sui campi propri
+     */
+    static void controllaCampi(String numVol, String periodicita) {
         if (numVol == null || numVol.trim().isEmpty()) {
             throw new IllegalArgumentException("numero/volume != null");
         }
         if (periodicita == null || periodicita.trim().isEmpty()) {
             throw new IllegalArgumentException("periodicita != null");
         }
-        
-        this.numVol = numVol;
-        this.periodicita = periodicita;
     }
     
     /**
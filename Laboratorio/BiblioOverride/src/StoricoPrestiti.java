@@ -0,0 +1,193 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Storico dei prestiti conclusi, salvato "per colonne": invece di un
+ * oggetto per prestito ci sono quattro array di int (pubblicazione,
+ * utente, giorno di inizio, giorno di fine) divisi in blocchi da
+ * DIMENSIONE_BLOCCO righe. Quando un blocco è pieno viene compresso:
+ * ogni colonna diventa una sequenza di differenze dal valore precedente
+ * in pochi byte (varint), perché date e numeri vicini si ripetono molto.
+ *
+ * Le aggiunte sono thread-safe; le letture lavorano su una fotografia
+ * dei blocchi, quindi non bloccano gli sportelli.
+ * @author giordii.dev
+ */
+public class StoricoPrestiti {
+    private static final int DIMENSIONE_BLOCCO = 4096;
+    private static final int COLONNE = 4;
+    private static final int PUBBLICAZIONE = 0;
+    private static final int UTENTE = 1;
+    private static final int INIZIO = 2;
+    private static final int FINE = 3;
+
+    private final ArrayList<byte[]> blocchiCompressi;  // blocchi pieni, mai modificati dopo la compressione
+    private int[][] corrente;  // [colonna][riga] del blocco in scrittura
+    private int righeCorrenti;
+    private long byteCompressi;
+
+    /**
+     * Ricevere le righe dello storico senza creare un oggetto per riga
+     */
+    public interface Visitatore {
+        void prestito(int numeroPubblicazione, int utente, long giornoInizio, long giornoFine);
+    }
+
+    public StoricoPrestiti() {
+        this.blocchiCompressi = new ArrayList<>();
+        this.corrente = new int[COLONNE][DIMENSIONE_BLOCCO];
+    }
+
+    /**
+     * Aggiunge un prestito concluso
+     * @param numeroPubblicazione numero progressivo della pubblicazione
+     * @param utente numero dell'utente (vedi RegistroUtenti)
+     * @param inizio data di inizio del prestito
+     * @param fine data di restituzione
+     */
+    public synchronized void registra(int numeroPubblicazione, int utente, LocalDate inizio, LocalDate fine) {
+        int r = righeCorrenti;
+        corrente[PUBBLICAZIONE][r] = numeroPubblicazione;
+        corrente[UTENTE][r] = utente;
+        corrente[INIZIO][r] = (int) inizio.toEpochDay();
+        corrente[FINE][r] = (int) fine.toEpochDay();
+        righeCorrenti = r + 1;
+
+        if (righeCorrenti == DIMENSIONE_BLOCCO) {
+            byte[] compresso = comprimi(corrente, DIMENSIONE_BLOCCO);
+            blocchiCompressi.add(compresso);
+            byteCompressi += compresso.length;
+            righeCorrenti = 0;  // riuso gli stessi array
+        }
+    }
+
+    /**
+     * Passa tutte le righe dello storico al visitatore, dalla più vecchia
+     * @param visitatore chi riceve le righe
+     */
+    public void scorri(Visitatore visitatore) {
+        byte[][] blocchi;
+        int[][] ultimo;
+        int righeUltimo;
+        synchronized (this) {
+            // fotografia: i blocchi compressi non cambiano, quello corrente lo copio
+            blocchi = blocchiCompressi.toArray(new byte[0][]);
+            righeUltimo = righeCorrenti;
+            ultimo = new int[COLONNE][];
+            for (int c = 0; c < COLONNE; c++) {
+                ultimo[c] = Arrays.copyOf(corrente[c], righeUltimo);
+            }
+        }
+
+        int[][] colonne = new int[COLONNE][DIMENSIONE_BLOCCO];
+        for (byte[] blocco : blocchi) {
+            decomprimi(blocco, colonne);
+            visita(colonne, DIMENSIONE_BLOCCO, visitatore);
+        }
+        visita(ultimo, righeUltimo, visitatore);
+    }
+
+    private static void visita(int[][] colonne, int righe, Visitatore visitatore) {
+        int[] pubblicazione = colonne[PUBBLICAZIONE];
+        int[] utente = colonne[UTENTE];
+        int[] inizio = colonne[INIZIO];
+        int[] fine = colonne[FINE];
+        for (int i = 0; i < righe; i++) {
+            visitatore.prestito(pubblicazione[i], utente[i], inizio[i], fine[i]);
+        }
+    }
+
+    /**
+     * @return numero di prestiti nello storico
+     */
+    public synchronized long size() {
+        return (long) blocchiCompressi.size() * DIMENSIONE_BLOCCO + righeCorrenti;
+    }
+
+    /**
+     * @return byte occupati dai blocchi compressi
+     */
+    public synchronized long getByteCompressi() {
+        return byteCompressi;
+    }
+
+    /**
+     * @return durata media dei prestiti conclusi in giorni (0 se lo storico è vuoto)
+     */
+    public double durataMediaGiorni() {
+        long[] totali = new long[2];  // giorni, prestiti
+        scorri((p, u, inizio, fine) -> {
+            totali[0] += fine - inizio;
+            totali[1]++;
+        });
+        return totali[1] == 0 ? 0 : (double) totali[0] / totali[1];
+    }
+
+    /**
+     * @param nomeUtente nome dell'utente
+     * @return quanti prestiti ha concluso
+     */
+    public long contaPrestitiUtente(String nomeUtente) {
+        int cercato = RegistroUtenti.numeroSeEsiste(nomeUtente);
+        if (cercato < 0) {
+            return 0;
+        }
+        long[] conteggio = new long[1];
+        scorri((p, u, inizio, fine) -> {
+            if (u == cercato) {
+                conteggio[0]++;
+            }
+        });
+        return conteggio[0];
+    }
+
+    // formato del blocco: per ogni colonna le differenze dal valore precedente, zigzag + varint
+
+    private static byte[] comprimi(int[][] colonne, int righe) {
+        byte[] out = new byte[COLONNE * righe * 5];  // caso peggiore: 5 byte per valore
+        int pos = 0;
+        for (int c = 0; c < COLONNE; c++) {
+            int precedente = 0;
+            for (int i = 0; i < righe; i++) {
+                int valore = colonne[c][i];
+                if (c == FINE) {
+                    precedente = colonne[INIZIO][i];  // la fine la salvo come durata
+                }
+                int delta = valore - precedente;
+                int zigzag = (delta << 1) ^ (delta >> 31);  // numeri piccoli anche se negativi
+                while ((zigzag & ~0x7F) != 0) {
+                    out[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                    zigzag >>>= 7;
+                }
+                out[pos++] = (byte) zigzag;
+                precedente = valore;
+            }
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static void decomprimi(byte[] blocco, int[][] colonne) {
+        int pos = 0;
+        for (int c = 0; c < COLONNE; c++) {
+            int precedente = 0;
+            int[] colonna = colonne[c];
+            for (int i = 0; i < DIMENSIONE_BLOCCO; i++) {
+                int zigzag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = blocco[pos++];
+                    zigzag |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                if (c == FINE) {
+                    precedente = colonne[INIZIO][i];
+                }
+                int valore = precedente + ((zigzag >>> 1) ^ -(zigzag & 1));
+                colonna[i] = valore;
+                precedente = valore;
+            }
+        }
+    }
+}
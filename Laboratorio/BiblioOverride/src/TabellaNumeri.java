@@ -0,0 +1,145 @@
+/**
+ * Tabella hash numero progressivo -> int a indirizzamento aperto, come
+ * l'indice di CatalogoIndicizzato: due array di int, niente Integer. Le
+ * celle seguono i numeri presenti e non il numero più alto, e tornano a
+ * ridursi quando se ne tolgono molti.
+ * @author giordii.dev
+ */
+class TabellaNumeri {
+    private static final int VUOTA = 0;
+    private static final int CELLE_MINIME = 16;
+
+    private int[] numeri;  // numero progressivo + 1, VUOTA = cella libera
+    private int[] valori;  // nella stessa cella del numero
+    private int maschera;  // celle - 1, le celle sono una potenza di 2
+    private int size;
+
+    TabellaNumeri() {
+        this.numeri = new int[CELLE_MINIME];
+        this.valori = new int[CELLE_MINIME];
+        this.maschera = CELLE_MINIME - 1;
+    }
+
+    /**
+     * @param numero numero progressivo (>= 0)
+     * @param predefinito restituito se il numero non c'è
+     * @return il valore del numero o predefinito
+     */
+    int get(int numero, int predefinito) {
+        int c = cella(numero);
+        return c < 0 ? predefinito : valori[c];
+    }
+
+    boolean contiene(int numero) {
+        return cella(numero) >= 0;
+    }
+
+    /**
+     * Inserisce il numero o ne sostituisce il valore
+     * @param numero numero progressivo (>= 0)
+     * @param valore valore da associare
+     */
+    void put(int numero, int valore) {
+        if (numero < 0) {
+            throw new IllegalArgumentException("numero >= 0");
+        }
+        int c = cella(numero);
+        if (c >= 0) {
+            valori[c] = valore;
+            return;
+        }
+        if ((size + 1) * 2 > numeri.length) {
+            ridimensiona(numeri.length * 2);  // carico massimo 50%
+        }
+        indicizza(numero + 1, valore);
+        size++;
+    }
+
+    /**
+     * @param numero numero progressivo
+     * @return true se il numero c'era
+     */
+    boolean rimuovi(int numero) {
+        int c = cella(numero);
+        if (c < 0) {
+            return false;
+        }
+        libera(c);
+        size--;
+        if (numeri.length > CELLE_MINIME && size * 8 < numeri.length) {
+            ridimensiona(numeri.length / 2);  // tolti molti numeri: restituisco memoria
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return byte occupati, header dell'oggetto e degli array compresi
+     */
+    long byteOccupati() {
+        return 16L + 2 * (16L + 4L * numeri.length);
+    }
+
+    private int cella(int numero) {
+        if (numero < 0) {
+            return -1;
+        }
+        int chiave = numero + 1;
+        for (int c = inizio(chiave); numeri[c] != VUOTA; c = (c + 1) & maschera) {
+            if (numeri[c] == chiave) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    // la chiave non deve esserci già, e deve esserci posto
+    private void indicizza(int chiave, int valore) {
+        int c = inizio(chiave);
+        while (numeri[c] != VUOTA) {
+            c = (c + 1) & maschera;
+        }
+        numeri[c] = chiave;
+        valori[c] = valore;
+    }
+
+    /**
+     * Svuota la cella c riportando indietro i numeri che la seguono nella
+     * stessa catena, così le ricerche non si fermano su un buco
+     */
+    private void libera(int c) {
+        int vuota = c;
+        for (int j = (c + 1) & maschera; numeri[j] != VUOTA; j = (j + 1) & maschera) {
+            int ideale = inizio(numeri[j]);
+            // j può scendere in "vuota" solo se la sua cella ideale non sta tra le due
+            boolean scende = vuota <= j ? (ideale <= vuota || ideale > j) : (ideale <= vuota && ideale > j);
+            if (scende) {
+                numeri[vuota] = numeri[j];
+                valori[vuota] = valori[j];
+                vuota = j;
+            }
+        }
+        numeri[vuota] = VUOTA;
+    }
+
+    private void ridimensiona(int celle) {
+        int[] vecchiNumeri = numeri;
+        int[] vecchiValori = valori;
+        numeri = new int[celle];
+        valori = new int[celle];
+        maschera = celle - 1;
+        for (int c = 0; c < vecchiNumeri.length; c++) {
+            if (vecchiNumeri[c] != VUOTA) {
+                indicizza(vecchiNumeri[c], vecchiValori[c]);
+            }
+        }
+    }
+
+    private int inizio(int chiave) {
+        int h = chiave * 0x9E3779B9;  // i numeri sono spesso consecutivi: mescolo i bit
+        return (h ^ (h >>> 16)) & maschera;
+    }
+}
@@ -5,34 +5,29 @@ import java.util.ArrayList;
  */
 public class Biblioteca {
     private final String nome;
-    private final ArrayList<Pubblicazione> pubblicazioni;
+    private final CatalogoIndicizzato pubblicazioni;
     
     public Biblioteca(String nome) {
         if (nome == null || nome.trim().isEmpty()) {
             throw new IllegalArgumentException("Il nome della biblioteca non può essere vuoto");
         }
         this.nome = nome;
-        this.pubblicazioni = new ArrayList<>();
+        this.pubblicazioni = new CatalogoIndicizzato();
     }
     
     public void aggiungiPubblicazione(Pubblicazione p) {
         if (p == null) {
             throw new IllegalArgumentException("La pubblicazione non può essere null");
         }
-        pubblicazioni.add(p);
+        pubblicazioni.aggiungi(p);
     }
     
     public void rimuoviPubblicazione(int numeroProgressivo) {
-        pubblicazioni.removeIf(p -> p.getNumeroProgressivo() == numeroProgressivo);
+        pubblicazioni.rimuovi(numeroProgressivo);
     }
     
     public Pubblicazione cercaPerNumero(int numeroProgressivo) {
-        for (Pubblicazione p : pubblicazioni) {
-            if (p.getNumeroProgressivo() == numeroProgressivo) {
-                return p;
-            }
-        }
-        return null;
+        return pubblicazioni.cerca(numeroProgressivo);
     }
     
     public ArrayList<Libro> getLibri() {
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Catalogo con indice diretto sul numero progressivo: i numeri sono interi
+ * piccoli e consecutivi (assegnati da Pubblicazione), quindi basta un array
+ * numero -> posizione per avere ricerca, inserimento e rimozione in O(1).
+ * L'ordine di inserimento viene mantenuto: una rimozione lascia un buco
+ * che viene recuperato quando i buchi diventano troppi.
+ * @author giordii.dev
+ */
+public class CatalogoIndicizzato implements Iterable<Pubblicazione> {
+    private Pubblicazione[] elementi;  // in ordine di inserimento, null = rimossa
+    private int usati;  // posizioni occupate in elementi (buchi compresi)
+    private int[] posizione;  // numero progressivo -> posizione + 1, 0 = assente
+    private int size;
+
+    public CatalogoIndicizzato() {
+        this.elementi = new Pubblicazione[16];
+        this.posizione = new int[16];
+    }
+
+    /**
+     * Aggiunge una pubblicazione in fondo al catalogo
+     * @param p la pubblicazione da aggiungere
+     */
+    public void aggiungi(Pubblicazione p) {
+        int numero = p.getNumeroProgressivo();
+        if (numero < 0) {
+            throw new IllegalArgumentException("Il numero progressivo non può essere negativo");
+        }
+        if (numero < posizione.length && posizione[numero] != 0) {
+            throw new IllegalArgumentException("La pubblicazione #" + numero + " è già presente");
+        }
+
+        if (usati == elementi.length) {
+            if (size < usati / 2) {
+                compatta();  // basta recuperare i buchi
+            } else {
+                elementi = Arrays.copyOf(elementi, elementi.length * 2);
+            }
+        }
+        if (numero >= posizione.length) {
+            posizione = Arrays.copyOf(posizione, Math.max(numero + 1, posizione.length * 2));
+        }
+
+        elementi[usati] = p;
+        posizione[numero] = ++usati;
+        size++;
+    }
+
+    /**
+     * Rimuove una pubblicazione
+     * @param numero numero progressivo
+     * @return la pubblicazione rimossa o null se non c'era
+     */
+    public Pubblicazione rimuovi(int numero) {
+        if (numero < 0 || numero >= posizione.length || posizione[numero] == 0) {
+            return null;
+        }
+
+        int i = posizione[numero] - 1;
+        Pubblicazione p = elementi[i];
+        elementi[i] = null;  // lascio il buco, l'ordine degli altri non cambia
+        posizione[numero] = 0;
+        size--;
+
+        if (size == 0) {
+            usati = 0;  // catalogo vuoto, riparto dall'inizio
+        } else if (usati > 64 && size < usati / 4) {
+            compatta();
+        }
+        return p;
+    }
+
+    /**
+     * Cerca una pubblicazione per numero progressivo
+     * @param numero numero progressivo
+     * @return la pubblicazione o null se non presente
+     */
+    public Pubblicazione cerca(int numero) {
+        if (numero < 0 || numero >= posizione.length || posizione[numero] == 0) {
+            return null;
+        }
+        return elementi[posizione[numero] - 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Sposta le pubblicazioni in testa eliminando i buchi; costa O(n) ma si
+     * fa solo dopo almeno n/2 rimozioni, quindi in media O(1) per rimozione
+     */
+    private void compatta() {
+        int j = 0;
+        for (int i = 0; i < usati; i++) {
+            Pubblicazione p = elementi[i];
+            if (p != null) {
+                elementi[j] = p;
+                posizione[p.getNumeroProgressivo()] = ++j;
+            }
+        }
+        Arrays.fill(elementi, j, usati, null);
+        usati = j;
+    }
+
+    @Override
+    public Iterator<Pubblicazione> iterator() {
+        return new Iterator<Pubblicazione>() {
+            private int prossimo = avanza(0);
+
+            private int avanza(int da) {
+                while (da < usati && elementi[da] == null) {
+                    da++;  // salto i buchi
+                }
+                return da;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return prossimo < usati;
+            }
+
+            @Override
+            public Pubblicazione next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Pubblicazione p = elementi[prossimo];
+                prossimo = avanza(prossimo + 1);
+                return p;
+            }
+        };
+    }
+}
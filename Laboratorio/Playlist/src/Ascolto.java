@@ -0,0 +1,21 @@
+// un brano ascoltato in un certo istante (millisecondi dal 1970)
+public class Ascolto {
+    private final Brano brano;
+    private final long istante;
+
+    public Ascolto(Brano brano, long istante) {
+        if (brano == null) {
+            throw new IllegalArgumentException("brano != null");
+        }
+        this.brano = brano;
+        this.istante = istante;
+    }
+
+    public Brano getBrano() {
+        return brano;
+    }
+
+    public long getIstante() {
+        return istante;
+    }
+}
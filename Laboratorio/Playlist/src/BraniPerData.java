@@ -0,0 +1,210 @@
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// skip list indicizzabile: brani dal piu recente, a parita di data in ordine di aggiunta.
+// ogni collegamento sa quanti brani salta, cosi si arriva all'i-esimo in O(log n)
+public class BraniPerData extends AbstractCollection<Brano> {
+    private static final int MAX_LIVELLI = 32;
+
+    private static final class Nodo {
+        final long chiave;
+        final Brano brano;
+        final Nodo[] prossimo;
+        final int[] salto;
+
+        Nodo(long chiave, Brano brano, int livelli) {
+            this.chiave = chiave;
+            this.brano = brano;
+            this.prossimo = new Nodo[livelli];
+            this.salto = new int[livelli];
+        }
+    }
+
+    private final Nodo testa = new Nodo(Long.MIN_VALUE, null, MAX_LIVELLI);
+    private final HashMap<Brano, Long> chiavi = new HashMap<>();
+    private int livelli = 1;
+    private int size;
+    private int sequenza;
+    private long casuale = 0x9E3779B97F4A7C15L;
+    private final Nodo[] prima = new Nodo[MAX_LIVELLI]; // appoggio per aggiungi/rimuovi
+    private final int[] pos = new int[MAX_LIVELLI];
+
+    // giorno al contrario nei 32 bit alti (piu recente = chiave piu piccola), ordine di aggiunta nei bassi
+    private static long chiave(long giorno, long seq) {
+        return (-giorno << 32) | (seq & 0xFFFFFFFFL);
+    }
+
+    public boolean aggiungi(Brano b) {
+        if (chiavi.containsKey(b)) {
+            return false;
+        }
+        long k = chiave(b.getDataUscita().toEpochDay(), sequenza++);
+        chiavi.put(b, k);
+
+        Nodo[] prima = this.prima;
+        int[] pos = this.pos;
+        Nodo x = testa;
+        for (int l = livelli - 1; l >= 0; l--) {
+            pos[l] = l == livelli - 1 ? 0 : pos[l + 1];
+            while (x.prossimo[l] != null && x.prossimo[l].chiave < k) {
+                pos[l] += x.salto[l];
+                x = x.prossimo[l];
+            }
+            prima[l] = x;
+        }
+
+        int lv = livelloCasuale();
+        if (lv > livelli) {
+            for (int l = livelli; l < lv; l++) {
+                pos[l] = 0;
+                prima[l] = testa;
+                testa.salto[l] = size;
+            }
+            livelli = lv;
+        }
+
+        Nodo n = new Nodo(k, b, lv);
+        for (int l = 0; l < lv; l++) {
+            n.prossimo[l] = prima[l].prossimo[l];
+            prima[l].prossimo[l] = n;
+            n.salto[l] = prima[l].salto[l] - (pos[0] - pos[l]);
+            prima[l].salto[l] = pos[0] - pos[l] + 1;
+        }
+        for (int l = lv; l < livelli; l++) {
+            prima[l].salto[l]++;
+        }
+        size++;
+        return true;
+    }
+
+    public boolean rimuovi(Brano b) {
+        Long k = chiavi.remove(b);
+        if (k == null) {
+            return false;
+        }
+        Nodo[] prima = this.prima;
+        Nodo x = testa;
+        for (int l = livelli - 1; l >= 0; l--) {
+            while (x.prossimo[l] != null && x.prossimo[l].chiave < k) {
+                x = x.prossimo[l];
+            }
+            prima[l] = x;
+        }
+        Nodo n = x.prossimo[0];
+        for (int l = 0; l < livelli; l++) {
+            if (prima[l].prossimo[l] == n) {
+                prima[l].salto[l] += n.salto[l] - 1;
+                prima[l].prossimo[l] = n.prossimo[l];
+            } else {
+                prima[l].salto[l]--;
+            }
+        }
+        while (livelli > 1 && testa.prossimo[livelli - 1] == null) {
+            livelli--;
+        }
+        size--;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return chiavi.containsKey(o);
+    }
+
+    // dal piu recente, senza copiare
+    @Override
+    public Iterator<Brano> iterator() {
+        return new Iterator<Brano>() {
+            private Nodo x = testa.prossimo[0];
+
+            @Override
+            public boolean hasNext() {
+                return x != null;
+            }
+
+            @Override
+            public Brano next() {
+                if (x == null) {
+                    throw new NoSuchElementException();
+                }
+                Brano b = x.brano;
+                x = x.prossimo[0];
+                return b;
+            }
+        };
+    }
+
+    // quanti brani hanno chiave < k
+    private int rango(long k) {
+        int r = 0;
+        Nodo x = testa;
+        for (int l = livelli - 1; l >= 0; l--) {
+            while (x.prossimo[l] != null && x.prossimo[l].chiave < k) {
+                r += x.salto[l];
+                x = x.prossimo[l];
+            }
+        }
+        return r;
+    }
+
+    // nodo in posizione i (da 0)
+    private Nodo nodo(int i) {
+        int passati = 0;
+        Nodo x = testa;
+        for (int l = livelli - 1; l >= 0; l--) {
+            while (x.prossimo[l] != null && passati + x.salto[l] <= i + 1) {
+                passati += x.salto[l];
+                x = x.prossimo[l];
+            }
+            if (passati == i + 1) {
+                return x;
+            }
+        }
+        return null;
+    }
+
+    public ArrayList<Brano> pagina(int offset, int limit) {
+        return da(offset, Math.min(limit, size - offset));
+    }
+
+    // uscite tra da e a comprese, dal piu recente, saltando i primi offset
+    public ArrayList<Brano> intervallo(LocalDate da, LocalDate a, int offset, int limit) {
+        int inizio = rango(chiave(a.toEpochDay(), 0));
+        int fine = rango(chiave(da.toEpochDay() - 1, 0));
+        int quanti = Math.min(limit, fine - inizio - offset);
+        return da(inizio + offset, quanti);
+    }
+
+    public int contaIntervallo(LocalDate da, LocalDate a) {
+        return Math.max(0, rango(chiave(da.toEpochDay() - 1, 0)) - rango(chiave(a.toEpochDay(), 0)));
+    }
+
+    private ArrayList<Brano> da(int inizio, int quanti) {
+        ArrayList<Brano> out = new ArrayList<>(Math.max(0, quanti));
+        if (quanti <= 0 || inizio >= size) {
+            return out;
+        }
+        for (Nodo x = nodo(inizio); x != null && out.size() < quanti; x = x.prossimo[0]) {
+            out.add(x.brano);
+        }
+        return out;
+    }
+
+    private int livelloCasuale() {
+        // xorshift, seme fisso: stessa struttura a ogni esecuzione
+        casuale ^= casuale << 13;
+        casuale ^= casuale >>> 7;
+        casuale ^= casuale << 17;
+        int lv = 1 + Long.numberOfTrailingZeros(casuale | (1L << 62)) / 2; // p = 1/4
+        return Math.min(lv, MAX_LIVELLI);
+    }
+}
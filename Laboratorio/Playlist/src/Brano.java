@@ -1,5 +1,7 @@
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Brano {
     private final String titolo;
@@ -7,7 +9,8 @@ public class Brano {
     private final String genere;
     private final int durataSec;
     private final LocalDate dataUscita;
-    private int ascolti;
+    private final LongAdder ascolti = new LongAdder(); // si incrementa da piu thread senza perdere conteggi
+    private volatile LibreriaMusicale[] librerie = new LibreriaMusicale[0]; // da avvisare a ogni ascolto
 
     public Brano(String titolo, String artista, String genere, int durataSec, LocalDate dataUscita) {
         if (titolo == null || titolo.isBlank()) {
@@ -30,7 +33,6 @@ public class Brano {
         this.genere = genere;
         this.durataSec = durataSec;
         this.dataUscita = dataUscita;
-        this.ascolti = 0;
     }
 
     public Brano(String titolo, String artista, String genere, int durataSec, LocalDate dataUscita, int ascolti) {
@@ -38,7 +40,7 @@ public class Brano {
         if (ascolti < 0) {
             throw new IllegalArgumentException("Gli ascolti non possono essere negativi");
         }
-        this.ascolti = ascolti;
+        this.ascolti.add(ascolti);
     }
 
     public String getTitolo() {
@@ -62,15 +64,44 @@ public class Brano {
     }
 
     public int getAscolti() {
-        return ascolti;
+        return ascolti.intValue();
     }
 
     public void incrementaAscolti() {
-        ascolti++;
+        incrementaAscolti(1);
+    }
+
+    public void incrementaAscolti(long quanti) {
+        if (quanti <= 0) {
+            throw new IllegalArgumentException("ascolti > 0");
+        }
+        ascolti.add(quanti);
+        for (LibreriaMusicale l : librerie) {
+            l.ascoltato(this, quanti);
+        }
     }
 
     public long getSecondiTotaliAscoltati() {
-        return (long) ascolti * durataSec;
+        return ascolti.sum() * durataSec;
+    }
+
+    // le librerie cambiano di rado, gli ascolti spesso: copia a ogni modifica e lettura senza lock
+    synchronized void aggiungiLibreria(LibreriaMusicale l) {
+        LibreriaMusicale[] nuove = Arrays.copyOf(librerie, librerie.length + 1);
+        nuove[librerie.length] = l;
+        librerie = nuove;
+    }
+
+    synchronized void rimuoviLibreria(LibreriaMusicale l) {
+        LibreriaMusicale[] vecchie = librerie;
+        for (int i = 0; i < vecchie.length; i++) {
+            if (vecchie[i] == l) {
+                LibreriaMusicale[] nuove = Arrays.copyOf(vecchie, vecchie.length - 1);
+                System.arraycopy(vecchie, i + 1, nuove, i, vecchie.length - i - 1);
+                librerie = nuove;
+                return;
+            }
+        }
     }
 
     @Override
@@ -78,7 +109,7 @@ public class Brano {
         int minuti = durataSec / 60;
         int secondi = durataSec % 60;
         return String.format("%s - %s (%s, %d:%02d) [%d ascolti]", 
-                           titolo, artista, genere, minuti, secondi, ascolti);
+                           titolo, artista, genere, minuti, secondi, ascolti.sum());
     }
 
 }
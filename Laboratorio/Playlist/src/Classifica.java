@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+// i primi K brani di un gruppo per valore (secondi ascoltati, esatti o stimati).
+// heap di minimo con indice brano -> posizione: in cima c'e il piu debole, che e anche la soglia per entrare.
+// i valori crescono soltanto, quindi basta guardare il brano appena ascoltato.
+// chi e fuori non vale mai piu di chi e dentro: togliere un brano accorcia solo la heap, e i posti
+// liberi si riempiono scorrendo il gruppo solo quando una richiesta ne ha davvero bisogno
+public class Classifica {
+    private final int capacita;
+    private final ToLongFunction<Brano> valore;
+    private final Collection<Brano> gruppo; // vista viva dei brani del gruppo, letta solo per riempire
+    private long tettoFuori = Long.MIN_VALUE; // nessun brano fuori vale di piu; MIN_VALUE = non ce ne sono
+    private final HashMap<Brano, Integer> posizione = new HashMap<>();
+    private Brano[] heap = new Brano[8]; // crescono fino a capacita: tanti gruppi hanno pochi brani
+    private long[] chiavi = new long[8]; // valore al momento dell'ultimo aggiornamento
+    private int size;
+    private volatile long soglia = Long.MIN_VALUE; // con heap piena: chi non la supera non entra, senza lock
+
+    public Classifica(int capacita, ToLongFunction<Brano> valore, Collection<Brano> gruppo) {
+        if (capacita <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (valore == null || gruppo == null) {
+            throw new IllegalArgumentException("value function and group required");
+        }
+        this.capacita = capacita;
+        this.valore = valore;
+        this.gruppo = gruppo;
+    }
+
+    public int getCapacita() {
+        return capacita;
+    }
+
+    public void aggiorna(Brano b) {
+        if (valore.applyAsLong(b) <= soglia) {
+            return; // uno gia dentro vale almeno la soglia, e dopo un ascolto di piu
+        }
+        synchronized (this) {
+            long v = valore.applyAsLong(b);
+            Integer i = posizione.get(b);
+            if (i != null) {
+                if (v > chiavi[i]) {
+                    chiavi[i] = v;
+                    giu(i);
+                }
+            } else if (size < capacita) {
+                if (v > tettoFuori) {
+                    inserisci(b, v); // batte tutti quelli fuori: entra senza scorrere il gruppo
+                }
+            } else if (v > chiavi[0]) {
+                posizione.remove(heap[0]);
+                metti(0, b, v);
+                giu(0);
+            }
+            aggiornaSoglia();
+        }
+    }
+
+    // toglie b, se era dentro; il posto resta libero finche qualcuno non chiede piu brani di quelli rimasti
+    public synchronized boolean rimuovi(Brano b) {
+        Integer i = posizione.remove(b);
+        if (i == null) {
+            return false;
+        }
+        if (size == capacita) {
+            tettoFuori = Math.max(tettoFuori, chiavi[0]); // chi e fuori non superava la cima
+        }
+        size--;
+        if (i < size) {
+            metti(i, heap[size], chiavi[size]);
+            giu(i);
+            su(i);
+        }
+        heap[size] = null;
+        aggiornaSoglia();
+        return true;
+    }
+
+    // chi e dentro adesso, in ordine sparso: contiene il primo del gruppo, se il gruppo non e vuoto
+    public synchronized ArrayList<Brano> presenti() {
+        if (size == 0) {
+            completa();
+        }
+        return new ArrayList<>(Arrays.asList(heap).subList(0, size));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // i primi k, dal piu ascoltato
+    public ArrayList<Brano> primi(int k) {
+        if (k < 0 || k > capacita) {
+            throw new IllegalArgumentException("k must be between 0 and " + capacita);
+        }
+        Brano[] b;
+        long[] c;
+        int n;
+        synchronized (this) {
+            if (k > size) {
+                completa();
+            }
+            n = size;
+            b = Arrays.copyOf(heap, n);
+            c = Arrays.copyOf(chiavi, n);
+        }
+        Integer[] ordine = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ordine[i] = i;
+        }
+        Arrays.sort(ordine, (x, y) -> Long.compare(c[y], c[x]));
+        ArrayList<Brano> out = new ArrayList<>(Math.min(k, n));
+        for (int i = 0; i < n && out.size() < k; i++) {
+            out.add(b[ordine[i]]);
+        }
+        return out;
+    }
+
+    private void aggiornaSoglia() {
+        soglia = size == capacita ? chiavi[0] : tettoFuori;
+    }
+
+    // riempie i posti liberi con i migliori rimasti fuori, in una passata sul gruppo
+    private void completa() {
+        int mancano = Math.min(capacita, gruppo.size()) - size;
+        if (mancano <= 0) {
+            return;
+        }
+        PriorityQueue<Candidato> migliori = new PriorityQueue<>(mancano + 1, (x, y) -> Long.compare(x.valore, y.valore));
+        long primoEscluso = Long.MIN_VALUE;
+        for (Brano b : gruppo) {
+            if (!posizione.containsKey(b)) {
+                migliori.add(new Candidato(b, valore.applyAsLong(b)));
+                if (migliori.size() > mancano) {
+                    primoEscluso = Math.max(primoEscluso, migliori.poll().valore);
+                }
+            }
+        }
+        for (Candidato c : migliori) {
+            inserisci(c.brano, c.valore);
+        }
+        tettoFuori = primoEscluso;
+        aggiornaSoglia();
+    }
+
+    private static final class Candidato {
+        final Brano brano;
+        final long valore;
+
+        Candidato(Brano brano, long valore) {
+            this.brano = brano;
+            this.valore = valore;
+        }
+    }
+
+    private void inserisci(Brano b, long v) {
+        if (size == heap.length) {
+            int n = Math.min(capacita, heap.length * 2);
+            heap = Arrays.copyOf(heap, n);
+            chiavi = Arrays.copyOf(chiavi, n);
+        }
+        metti(size, b, v);
+        su(size++);
+    }
+
+    private void metti(int i, Brano b, long v) {
+        heap[i] = b;
+        chiavi[i] = v;
+        posizione.put(b, i);
+    }
+
+    private void su(int i) {
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (chiavi[p] <= chiavi[i]) {
+                return;
+            }
+            scambia(i, p);
+            i = p;
+        }
+    }
+
+    private void giu(int i) {
+        while (true) {
+            int min = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+            if (l < size && chiavi[l] < chiavi[min]) {
+                min = l;
+            }
+            if (r < size && chiavi[r] < chiavi[min]) {
+                min = r;
+            }
+            if (min == i) {
+                return;
+            }
+            scambia(i, min);
+            i = min;
+        }
+    }
+
+    private void scambia(int i, int j) {
+        Brano b = heap[i];
+        long v = chiavi[i];
+        metti(i, heap[j], chiavi[j]);
+        metti(j, b, v);
+    }
+}
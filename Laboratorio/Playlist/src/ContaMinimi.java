@@ -0,0 +1,46 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// count-min sketch: memoria fissa qualunque sia il numero di brani, la stima non e mai
+// sotto il vero valore e lo supera di poco (errore ~ totale * e / larghezza, con alta probabilita)
+public class ContaMinimi {
+    private static final long[] SEMI = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+        0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L
+    };
+
+    private final int righe;
+    private final int bit; // larghezza = 2^bit
+    private final AtomicLongArray celle;
+
+    public ContaMinimi(int righe, int larghezza) {
+        if (righe <= 0 || righe > SEMI.length) {
+            throw new IllegalArgumentException("rows between 1 and " + SEMI.length);
+        }
+        if (larghezza < 2 || Integer.bitCount(larghezza) != 1) {
+            throw new IllegalArgumentException("width must be a power of two");
+        }
+        this.righe = righe;
+        this.bit = Integer.numberOfTrailingZeros(larghezza);
+        this.celle = new AtomicLongArray(righe << bit);
+    }
+
+    private int cella(int riga, int hash) {
+        return (riga << bit) + (int) ((hash * SEMI[riga]) >>> (64 - bit));
+    }
+
+    public void aggiungi(Brano b, long quanto) {
+        int h = b.hashCode();
+        for (int r = 0; r < righe; r++) {
+            celle.addAndGet(cella(r, h), quanto);
+        }
+    }
+
+    public long stima(Brano b) {
+        int h = b.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int r = 0; r < righe; r++) {
+            min = Math.min(min, celle.get(cella(r, h)));
+        }
+        return min;
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// playlist casuali riproducibili (stesso seme, stessa playlist) da una fotografia dei brani di un genere.
+// riempie il tempo a disposizione come farebbe un Fisher-Yates seguito da "prendo chi ci sta":
+// a ogni passo un brano a caso tra quelli non ancora presi che stanno nel tempo rimasto.
+// i brani sono ordinati per durata, quindi "chi ci sta" e un prefisso trovato con una ricerca binaria:
+// ogni playlist costa O(k^2 + k log n) per k brani scelti, indipendentemente da quanti sono nel genere.
+// la fotografia non cambia piu: genera si puo chiamare da piu thread insieme
+public class GeneratorePlaylist {
+    private final Brano[] perDurata;
+    private final int[] durate; // crescenti
+    private final int durataMax;
+
+    GeneratorePlaylist(Collection<Brano> candidati, int durataMax) {
+        if (durataMax <= 0) {
+            throw new IllegalArgumentException("max duration must be positive");
+        }
+        ArrayList<Brano> ok = new ArrayList<>();
+        for (Brano b : candidati) {
+            if (b.getDurataSec() <= durataMax) {
+                ok.add(b);
+            }
+        }
+        ok.sort((a, b) -> Integer.compare(a.getDurataSec(), b.getDurataSec())); // stabile: a parita, ordine dei candidati
+        this.perDurata = ok.toArray(new Brano[0]);
+        this.durate = new int[perDurata.length];
+        for (int i = 0; i < durate.length; i++) {
+            durate[i] = perDurata[i].getDurataSec();
+        }
+        this.durataMax = durataMax;
+    }
+
+    public int getDurataMax() {
+        return durataMax;
+    }
+
+    public int getCandidati() {
+        return perDurata.length;
+    }
+
+    public ArrayList<Brano> genera(long seme) {
+        SplittableRandom caso = new SplittableRandom(seme);
+        ArrayList<Brano> playlist = new ArrayList<>();
+        int[] presi = new int[8]; // posizioni gia prese, crescenti
+        int quanti = 0;
+        int rimasto = durataMax;
+
+        while (true) {
+            int stanno = stanno(rimasto);
+            int giaPresi = 0; // quanti dei presi cadono nel prefisso
+            while (giaPresi < quanti && presi[giaPresi] < stanno) {
+                giaPresi++;
+            }
+            int liberi = stanno - giaPresi;
+            if (liberi == 0) {
+                return playlist;
+            }
+
+            // il t-esimo libero: si salta avanti di uno per ogni preso che sta prima
+            int pos = caso.nextInt(liberi);
+            int j = 0;
+            while (j < quanti && presi[j] <= pos) {
+                pos++;
+                j++;
+            }
+
+            if (quanti == presi.length) {
+                presi = Arrays.copyOf(presi, quanti * 2);
+            }
+            System.arraycopy(presi, j, presi, j + 1, quanti - j);
+            presi[j] = pos;
+            quanti++;
+
+            playlist.add(perDurata[pos]);
+            rimasto -= durate[pos];
+        }
+    }
+
+    // una playlist per seme, in parallelo; risultati nell'ordine dei semi
+    public List<ArrayList<Brano>> genera(long[] semi) {
+        if (semi == null) {
+            throw new IllegalArgumentException("seeds required");
+        }
+        return IntStream.range(0, semi.length).parallel()
+                .mapToObj(i -> genera(semi[i]))
+                .collect(Collectors.toList());
+    }
+
+    // quanti brani durano al massimo secondi
+    private int stanno(int secondi) {
+        int lo = 0;
+        int hi = durate.length;
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            if (durate[m] <= secondi) {
+                lo = m + 1;
+            } else {
+                hi = m;
+            }
+        }
+        return lo;
+    }
+}
@@ -1,15 +1,71 @@
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 public class LibreriaMusicale {
     private final String titolo;
-    private final ArrayList<Brano> brani;
+    private final LinkedHashMap<String, Brano> brani; // chiave (titolo, artista) senza maiuscole, in ordine di aggiunta
+    private final HashMap<String, LinkedHashSet<Brano>> perArtista;
+    private final HashMap<String, BraniPerData> perGenere; // gia dal piu recente
+    // aggiornati a ogni ascolto, anche da piu thread; aggiungi/rimuovi invece vanno fatti da un thread solo
+    private final LongAdder secondiAscoltati = new LongAdder();
+    private final AtomicReference<Brano> piuAscoltato = new AtomicReference<>();
+    private final LongAccumulator ultimoAscolto = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    // classifiche: tutta la libreria, per genere e per artista (stesse chiavi di perGenere e perArtista)
+    private final ContaMinimi stime; // solo in modalita approssimata
+    private final ToLongFunction<Brano> valoreClassifica;
+    private final int capacitaClassifiche;
+    private final Classifica classifica;
+    private final HashMap<String, Classifica> classifichePerGenere;
+    private final HashMap<String, Classifica> classifichePerArtista;
+    // ogni brano in libreria: letta dagli ascolti senza normalizzare, anche mentre si aggiunge
+    private final ConcurrentHashMap<Brano, Voce> voci;
+
+    // un brano in questa libreria. ascolti e rimozione del brano passano dal suo monitor: un ascolto
+    // o finisce prima della rimozione o vede rimosso e non tocca niente
+    private static final class Voce {
+        final Classifica[] sue; // {genere, artista}
+        long contati; // secondi del brano gia sommati alla libreria (e allo sketch)
+        boolean rimosso;
+
+        Voce(Classifica[] sue) {
+            this.sue = sue;
+        }
+    }
 
     public LibreriaMusicale(String titolo) {
+        this(titolo, 100, false);
+    }
+
+    // approssimata: classifiche sui secondi stimati da un count-min sketch invece che letti dai brani
+    public LibreriaMusicale(String titolo, int capacitaClassifiche, boolean approssimata) {
         if (titolo == null || titolo.isBlank()) {
             throw new IllegalArgumentException("title required");
         }
+        if (capacitaClassifiche <= 0) {
+            throw new IllegalArgumentException("leaderboard capacity must be positive");
+        }
         this.titolo = titolo;
-        this.brani = new ArrayList<>();
+        this.brani = new LinkedHashMap<>();
+        this.perArtista = new HashMap<>();
+        this.perGenere = new HashMap<>();
+        this.stime = approssimata ? new ContaMinimi(4, 1 << 16) : null;
+        this.valoreClassifica = approssimata ? stime::stima : Brano::getSecondiTotaliAscoltati;
+        this.capacitaClassifiche = capacitaClassifiche;
+        this.classifica = new Classifica(capacitaClassifiche, valoreClassifica, brani.values());
+        this.classifichePerGenere = new HashMap<>();
+        this.classifichePerArtista = new HashMap<>();
+        this.voci = new ConcurrentHashMap<>();
     }
 
     public String getTitolo() {
@@ -17,96 +73,288 @@ public class LibreriaMusicale {
     }
 
     public ArrayList<Brano> getBrani() {
-        return new ArrayList<>(brani);
+        return new ArrayList<>(brani.values());
     }
 
     public boolean aggiungiBrano(Brano brano) {
         if (brano == null) {
             throw new IllegalArgumentException("not null song please");
         }
-        for (Brano b : brani) {
-            if (b.equals(brano)) {
-                return false;
-            }
+        String art = normalizza(brano.getArtista());
+        if (brani.putIfAbsent(chiave(normalizza(brano.getTitolo()), art), brano) != null) {
+            return false;
+        }
+        String gen = normalizza(brano.getGenere());
+        LinkedHashSet<Brano> suoi = perArtista.computeIfAbsent(art, a -> new LinkedHashSet<>());
+        suoi.add(brano);
+        BraniPerData delGenere = perGenere.computeIfAbsent(gen, g -> new BraniPerData());
+        delGenere.aggiungi(brano);
+        Voce voce = new Voce(new Classifica[] {
+            classifichePerGenere.computeIfAbsent(gen, g -> new Classifica(capacitaClassifiche, valoreClassifica, delGenere)),
+            classifichePerArtista.computeIfAbsent(art, a -> new Classifica(capacitaClassifiche, valoreClassifica, suoi))
+        });
+        synchronized (voce) {
+            voci.put(brano, voce);
+            brano.aggiungiLibreria(this);
+            conta(brano, voce); // gli ascolti arrivati intanto aspettano e poi trovano gia contato il loro
+        }
+        return true;
+    }
+
+    public Brano cercaBrano(String titolo, String artista) {
+        if (titolo == null || artista == null) {
+            return null;
         }
-        return brani.add(brano);
+        return brani.get(chiave(normalizza(titolo), normalizza(artista)));
     }
 
     public boolean rimuoviBrano(String titolo, String artista) {
         if (titolo == null || titolo.isBlank() || artista == null || artista.isBlank()) {
             throw new IllegalArgumentException("title and artist required");
         }
-        boolean del = false;
-        for (int i = 0; i < brani.size(); i++) {
-            Brano b = brani.get(i);
-            if (b.getTitolo().equalsIgnoreCase(titolo)
-                    && b.getArtista().equalsIgnoreCase(artista)) {
-                brani.remove(i);
-                del = true;
-                i--;
+        String art = normalizza(artista);
+        Brano b = brani.remove(chiave(normalizza(titolo), art));
+        if (b == null) {
+            return false;
+        }
+        LinkedHashSet<Brano> suoi = perArtista.get(art);
+        suoi.remove(b);
+        if (suoi.isEmpty()) {
+            perArtista.remove(art);
+        }
+        String gen = normalizza(b.getGenere());
+        BraniPerData delGenere = perGenere.get(gen);
+        delGenere.rimuovi(b);
+        if (delGenere.size() == 0) {
+            perGenere.remove(gen);
+        }
+        b.rimuoviLibreria(this);
+        Voce voce = voci.remove(b);
+        synchronized (voce) { // aspetta l'ascolto in corso; quelli ancora in volo vedranno rimosso
+            voce.rimosso = true;
+            long sec = voce.contati; // solo quello che la libreria ha davvero sommato
+            if (stime != null && sec > 0) {
+                // tutto quello che b ha messo nello sketch, altrimenti gonfia chi ci collide; le classifiche
+                // tengono la stima vecchia di chi scende finche non viene riascoltato
+                stime.aggiungi(b, -sec);
             }
+            secondiAscoltati.add(-sec);
+            classifica.rimuovi(b);
+            voce.sue[0].rimuovi(b);
+            voce.sue[1].rimuovi(b);
+            if (piuAscoltato.get() == b) {
+                ricalcolaPiuAscoltato(b);
+            }
+        }
+        if (delGenere.isEmpty()) {
+            classifichePerGenere.remove(gen);
         }
-        return del;
+        if (suoi.isEmpty()) {
+            classifichePerArtista.remove(art);
+        }
+        return true;
+    }
+
+    static String normalizza(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private static String chiave(String titoloNorm, String artistaNorm) {
+        return titoloNorm + '\u0000' + artistaNorm;
     }
 
     public int getMinutiAscoltati() {
-        long totSec = 0;
-        for (Brano b : brani) {
-            totSec += b.getSecondiTotaliAscoltati();
-        }
-        return (int) (totSec / 60);
+        return (int) (secondiAscoltati.sum() / 60);
     }
 
-    public ArrayList<Brano> braniPerGenere(String genere) {
-        if (genere == null || genere.isBlank()) {
-            throw new IllegalArgumentException("genre required");
+    // un lotto di ascolti, anche da piu thread insieme: prima li conto per brano,
+    // poi un solo incremento per brano. Quelli di brani non in libreria si scartano
+    public int registraAscolti(Collection<Ascolto> eventi) {
+        if (eventi == null) {
+            throw new IllegalArgumentException("events required");
         }
-        ArrayList<Brano> sel = new ArrayList<>();
-        for (Brano b : brani) {
-            if (b.getGenere().equalsIgnoreCase(genere)) {
-                sel.add(b);
+        HashMap<Brano, long[]> perBrano = new HashMap<>(); // {quanti, ultimo istante}
+        for (Ascolto e : eventi) {
+            long[] c = perBrano.computeIfAbsent(e.getBrano(), k -> new long[] {0, Long.MIN_VALUE});
+            c[0]++;
+            c[1] = Math.max(c[1], e.getIstante());
+        }
+        int accettati = 0;
+        for (Map.Entry<Brano, long[]> e : perBrano.entrySet()) {
+            Brano b = e.getKey();
+            if (!voci.containsKey(b)) {
+                continue;
             }
+            b.incrementaAscolti(e.getValue()[0]); // avvisa anche questa libreria
+            ultimoAscolto.accumulate(e.getValue()[1]);
+            accettati += (int) e.getValue()[0];
         }
-        for (int i = 0; i < sel.size() - 1; i++) {
-            int idxMax = i;
-            for (int j = i + 1; j < sel.size(); j++) {
-                if (sel.get(j).getDataUscita().isAfter(sel.get(idxMax).getDataUscita())) {
-                    idxMax = j;
-                }
+        return accettati;
+    }
+
+    // istante dell'ultimo ascolto registrato con registraAscolti, -1 se nessuno
+    public long getUltimoAscolto() {
+        long u = ultimoAscolto.get();
+        return u == Long.MIN_VALUE ? -1 : u;
+    }
+
+    // chiamato da Brano.incrementaAscolti, da qualunque thread
+    void ascoltato(Brano b, long quanti) {
+        Voce voce = voci.get(b);
+        if (voce == null) {
+            return; // gia tolto: l'ascolto e partito con la vecchia lista di librerie del brano
+        }
+        synchronized (voce) {
+            if (!voce.rimosso) { // tolto mentre aspettavo il monitor
+                conta(b, voce);
             }
-            if (idxMax != i) {
-                Brano tmp = sel.get(i);
-                sel.set(i, sel.get(idxMax));
-                sel.set(idxMax, tmp);
+        }
+    }
+
+    // somma quanto il brano e cresciuto dall'ultima volta: gli ascolti che arrivano in ordine sparso
+    // (o gia compresi quando il brano e entrato) non contano mai due volte. Va chiamato col monitor della voce
+    private void conta(Brano b, Voce voce) {
+        long sec = b.getSecondiTotaliAscoltati() - voce.contati;
+        if (sec > 0) {
+            voce.contati += sec;
+            secondiAscoltati.add(sec);
+            if (stime != null) {
+                stime.aggiungi(b, sec);
             }
         }
-        return sel;
+        candidaPiuAscoltato(b);
+        classifica.aggiorna(b);
+        voce.sue[0].aggiorna(b);
+        voce.sue[1].aggiorna(b);
     }
 
-    public int contaBraniPerArtista(String artista) {
+    // primi k per secondi ascoltati, in O(k log k); k al massimo la capacita delle classifiche
+    public ArrayList<Brano> classifica(int k) {
+        return classifica.primi(k);
+    }
+
+    public ArrayList<Brano> classificaPerGenere(String genere, int k) {
+        if (genere == null || genere.isBlank()) {
+            throw new IllegalArgumentException("genre required");
+        }
+        return primi(classifichePerGenere.get(normalizza(genere)), k);
+    }
+
+    public ArrayList<Brano> classificaPerArtista(String artista, int k) {
         if (artista == null || artista.isBlank()) {
             throw new IllegalArgumentException("artist required");
         }
-        int cnt = 0;
-        for (Brano b : brani) {
-            if (b.getArtista().equalsIgnoreCase(artista)) {
-                cnt++;
+        return primi(classifichePerArtista.get(normalizza(artista)), k);
+    }
+
+    private ArrayList<Brano> primi(Classifica c, int k) {
+        if (c == null) {
+            if (k < 0 || k > capacitaClassifiche) {
+                throw new IllegalArgumentException("k must be between 0 and " + capacitaClassifiche);
             }
+            return new ArrayList<>();
         }
-        return cnt;
+        return c.primi(k);
     }
 
-    public Brano piuAscoltato() {
+    // gli ascolti crescono soltanto: basta confrontare chi e appena salito con l'attuale primo
+    private void candidaPiuAscoltato(Brano b) {
+        long sec = b.getSecondiTotaliAscoltati();
+        while (true) {
+            Brano primo = piuAscoltato.get();
+            if (primo == b || (primo != null && primo.getSecondiTotaliAscoltati() >= sec)) {
+                return;
+            }
+            if (piuAscoltato.compareAndSet(primo, b)) {
+                return;
+            }
+        }
+    }
+
+    // il nuovo primo e tra quelli rimasti nella classifica generale (che non valgono meno di chi e fuori):
+    // O(K), e il gruppo si scorre solo quando la classifica si e svuotata
+    private void ricalcolaPiuAscoltato(Brano rimosso) {
         Brano top = null;
         long max = -1;
-        for (Brano b : brani) {
+        for (Brano b : classifica.presenti()) {
             long ascolti = b.getSecondiTotaliAscoltati();
             if (ascolti > max) {
                 max = ascolti;
                 top = b;
             }
         }
-        return top;
+        // se nel frattempo un ascolto ha gia scelto un altro primo, top deve solo batterlo
+        if (!piuAscoltato.compareAndSet(rimosso, top) && top != null) {
+            candidaPiuAscoltato(top);
+        }
+    }
+
+    public ArrayList<Brano> braniPerGenere(String genere) {
+        return braniPerGenere(genere, 0, Integer.MAX_VALUE);
+    }
+
+    public ArrayList<Brano> braniPerGenere(String genere, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        BraniPerData delGenere = genere(genere);
+        return delGenere == null ? new ArrayList<>() : delGenere.pagina(offset, limit);
+    }
+
+    // uscite tra da e a comprese, dal piu recente
+    public ArrayList<Brano> braniPerGenere(String genere, LocalDate da, LocalDate a) {
+        return braniPerGenere(genere, da, a, 0, Integer.MAX_VALUE);
+    }
+
+    public ArrayList<Brano> braniPerGenere(String genere, LocalDate da, LocalDate a, int offset, int limit) {
+        if (da == null || a == null) {
+            throw new IllegalArgumentException("dates required");
+        }
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        BraniPerData delGenere = genere(genere);
+        return delGenere == null ? new ArrayList<>() : delGenere.intervallo(da, a, offset, limit);
+    }
+
+    public int contaBraniPerGenere(String genere) {
+        BraniPerData delGenere = genere(genere);
+        return delGenere == null ? 0 : delGenere.size();
+    }
+
+    public int contaBraniPerGenere(String genere, LocalDate da, LocalDate a) {
+        if (da == null || a == null) {
+            throw new IllegalArgumentException("dates required");
+        }
+        BraniPerData delGenere = genere(genere);
+        return delGenere == null ? 0 : delGenere.contaIntervallo(da, a);
+    }
+
+    private BraniPerData genere(String genere) {
+        if (genere == null || genere.isBlank()) {
+            throw new IllegalArgumentException("genre required");
+        }
+        return perGenere.get(normalizza(genere));
+    }
+
+    public int contaBraniPerArtista(String artista) {
+        if (artista == null || artista.isBlank()) {
+            throw new IllegalArgumentException("artist required");
+        }
+        LinkedHashSet<Brano> suoi = perArtista.get(normalizza(artista));
+        return suoi == null ? 0 : suoi.size();
+    }
+
+    public ArrayList<Brano> braniDiArtista(String artista) {
+        if (artista == null || artista.isBlank()) {
+            throw new IllegalArgumentException("artist required");
+        }
+        LinkedHashSet<Brano> suoi = perArtista.get(normalizza(artista));
+        return suoi == null ? new ArrayList<>() : new ArrayList<>(suoi);
+    }
+
+    public Brano piuAscoltato() {
+        return piuAscoltato.get();
     }
 
     public ArrayList<Brano> shuffleConSeed(String genere, int durataMax) {
@@ -114,7 +362,7 @@ public class LibreriaMusicale {
             throw new IllegalArgumentException("max duration must be positive");
         }
         ArrayList<Brano> pool = new ArrayList<>();
-        for (Brano b : brani) {
+        for (Brano b : brani.values()) {
             if (b.getGenere().equalsIgnoreCase(genere) && b.getDurataSec() <= durataMax) {
                 pool.add(b);
             }
@@ -130,28 +378,71 @@ public class LibreriaMusicale {
         seed = seed * 31 + durataMax;
         seed = seed * 31 + pool.size();
 
+        // stessa sequenza di sempre (si toglie l'idx-esimo dei rimasti), ma i rimasti stanno in un albero
+        // di Fenwick invece che in una lista da compattare: trovare e togliere costa O(log n)
+        int n = pool.size();
+        int[] albero = new int[n + 1];
+        int minDur = Integer.MAX_VALUE;
+        for (int i = 1; i <= n; i++) {
+            albero[i]++;
+            int su = i + (i & -i);
+            if (su <= n) {
+                albero[su] += albero[i];
+            }
+            minDur = Math.min(minDur, pool.get(i - 1).getDurataSec());
+        }
+
         ArrayList<Brano> mix = new ArrayList<>();
         int totDur = 0;
-        int idx = (int) (Math.abs(seed) % pool.size());
-        
-        while (!pool.isEmpty()) {
-            Brano b = pool.remove(idx);
+        int idx = (int) (Math.abs(seed) % n);
+        // quando non ci sta piu nemmeno il brano piu corto, i giri rimasti non aggiungerebbero niente
+        for (int rimasti = n; rimasti > 0 && durataMax - totDur >= minDur; ) {
+            Brano b = pool.get(togliEsimo(albero, idx));
+            rimasti--;
             if (totDur + b.getDurataSec() <= durataMax) {
                 mix.add(b);
                 totDur += b.getDurataSec();
             }
-            if (!pool.isEmpty()) {
-                idx = (int) (Math.abs(idx + seed) % pool.size());
+            if (rimasti > 0) {
+                idx = (int) (Math.abs(idx + seed) % rimasti);
             }
         }
         return mix;
     }
+
+    // posizione (da 0) dell'idx-esimo elemento ancora presente, che viene tolto
+    private static int togliEsimo(int[] albero, int idx) {
+        int n = albero.length - 1;
+        int pos = 0;
+        int resto = idx + 1;
+        for (int passo = Integer.highestOneBit(n); passo > 0; passo >>= 1) {
+            if (pos + passo <= n && albero[pos + passo] < resto) {
+                pos += passo;
+                resto -= albero[pos];
+            }
+        }
+        for (int i = pos + 1; i <= n; i += i & -i) {
+            albero[i]--;
+        }
+        return pos;
+    }
+
+    // per tante playlist dello stesso genere e durata: la fotografia si fa una volta sola
+    public GeneratorePlaylist generatorePlaylist(String genere, int durataMax) {
+        BraniPerData delGenere = genere(genere);
+        return new GeneratorePlaylist(delGenere == null ? new ArrayList<>() : delGenere, durataMax);
+    }
+
+    public ArrayList<Brano> generaPlaylist(String genere, int durataMax, long seme) {
+        return generatorePlaylist(genere, durataMax).genera(seme);
+    }
+
     public double getDurataMediaBrani() {
         if (brani.isEmpty()) {
             return 0;
         }
         int tot = 0;
-        for (Brano b : brani) {
+        for (Brano b : brani.values()) {
             tot += b.getDurataSec();
         }
         return (double) tot / brani.size();